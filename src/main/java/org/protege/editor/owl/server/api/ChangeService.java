@@ -1,11 +1,14 @@
 package org.protege.editor.owl.server.api;
 
 import org.protege.editor.owl.server.api.exception.ServerServiceException;
+import org.protege.editor.owl.server.versioning.Checkpoint;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * @author Josef Hardi <johardi@stanford.edu> <br>
@@ -28,6 +31,40 @@ public interface ChangeService {
     ChangeHistory getChanges(HistoryFile historyFile, DocumentRevision startRevision, DocumentRevision endRevision)
             throws ServerServiceException;
 
+    /**
+     * Locates the stored records of the changes given the input resource location and the revision range,
+     * such that they can be sent to the client without decoding them.
+     *
+     * @param historyFile
+     *            The source history record
+     * @param startRevision
+     *            The start revision.
+     * @param endRevision
+     *            The end revision.
+     * @return The byte range of the history file, or <code>null</code> if the records cannot be located
+     * @throws ServerServiceException
+     */
+    @Nullable
+    HistoryFileRange getChangesRange(HistoryFile historyFile, DocumentRevision startRevision,
+            DocumentRevision endRevision) throws ServerServiceException;
+
+    /**
+     * Selects the checkpoint to bring a client from the start revision to the end revision, if loading
+     * the checkpoint and the changes after it is cheaper than getting the changes from the start revision.
+     *
+     * @param historyFile
+     *            The source history record
+     * @param startRevision
+     *            The revision of the client.
+     * @param endRevision
+     *            The requested revision.
+     * @return The checkpoint to use, or <code>null</code> if the client should get the changes instead
+     * @throws ServerServiceException
+     */
+    @Nullable
+    Checkpoint selectCheckpoint(HistoryFile historyFile, DocumentRevision startRevision,
+            DocumentRevision endRevision) throws ServerServiceException;
+
     DocumentRevision getHeadRevision(HistoryFile historyFile) throws ServerServiceException;
 
     void clearHistoryCacheEntry(@Nonnull HistoryFile historyFile);
@@ -174,6 +174,16 @@ public class ServerFilterAdapter extends ServerLayer {
 			delegate.removeServerListener(listener);
     }
 
+    @Override
+    protected void fireConfigurationChanged(String configFile) {
+			delegate.fireConfigurationChanged(configFile);
+    }
+
+    @Override
+    protected void fireProjectSnapshotChanged(ProjectId projectId) {
+			delegate.fireProjectSnapshotChanged(projectId); // the listeners are kept by the innermost layer
+    }
+
     @Override
     public List<User> getAllUsers(AuthToken token) throws AuthorizationException, ServerServiceException {
 			return delegate.getAllUsers(token);
@@ -2,17 +2,27 @@ package org.protege.editor.owl.server.api;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.io.BaseEncoding;
 
 import edu.stanford.protege.metaproject.api.ProjectId;
 import org.protege.editor.owl.server.http.HTTPServer;
 import org.protege.editor.owl.server.http.exception.ServerException;
 import org.protege.editor.owl.server.util.SnapShot;
+import org.protege.editor.owl.server.util.SnapShotFile;
+import org.protege.editor.owl.server.versioning.OWLObjectInterner;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
 
 import edu.stanford.protege.metaproject.api.ServerConfiguration;
@@ -35,6 +45,10 @@ public abstract class ServerLayer implements ServerServices {
 
     private static final String SNAPSHOT_CHECKSUM = "-checksum";
 
+    private static final String SNAPSHOT_DIGEST_ALGORITHM = "SHA-256";
+
+    private final ConcurrentMap<String, String> snapshotChecksums = new ConcurrentHashMap<>();
+
     private List<ServerListener> listeners = new ArrayList<>();
 
     private static Logger logger = LoggerFactory.getLogger(HTTPServer.class);
@@ -57,6 +71,24 @@ public abstract class ServerLayer implements ServerServices {
         }
     }
 
+    /**
+     * Notifies the listeners that the server configuration, including the access policy, has been saved.
+     */
+    protected void fireConfigurationChanged(String configFile) {
+        for (ServerListener listener : listeners) {
+            listener.configurationChanged(configFile);
+        }
+    }
+
+    /**
+     * Notifies the listeners that the snapshot of the project has been replaced.
+     */
+    protected void fireProjectSnapshotChanged(@Nonnull ProjectId projectId) {
+        for (ServerListener listener : listeners) {
+            listener.projectSnapshotChanged(projectId);
+        }
+    }
+
     protected static String printLog(User requester, String operation, String message) {
         if (requester != null) {
             String template = "[Request from %s (%s) - %s] %s";
@@ -87,23 +119,23 @@ public abstract class ServerLayer implements ServerServices {
                 + "history";
     }
 
+    /**
+     * Writes the snapshot of the project and sends its checksum to the client. The checksum is a
+     * SHA-256 digest of the snapshot file, computed while the snapshot is written.
+     */
     public void saveProjectSnapshot(SnapShot snapshot, @Nonnull ProjectId projectId, OutputStream responseStream)
             throws IOException {
         File snapshotFile = getSnapShotFile(projectId);
-        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(snapshotFile));
+        invalidateSnapshotChecksum(projectId);
+        MessageDigest digest = createSnapshotDigest();
+        BufferedOutputStream outputStream = new BufferedOutputStream(
+                new DigestOutputStream(new FileOutputStream(snapshotFile), digest));
         try {
             BinaryOWLOntologyDocumentSerializer serializer = new BinaryOWLOntologyDocumentSerializer();
             long start = System.currentTimeMillis();
             serializer.write(new OWLOntologyWrapper(snapshot.getOntology()), new DataOutputStream(outputStream));
+            outputStream.flush();
             logger.info("Saving snapshot in " + (System.currentTimeMillis() - start) + " ms");
-
-            String snapshotChecksum = String.valueOf(snapshot.toString().hashCode());
-
-            ObjectOutputStream oos = new ObjectOutputStream(responseStream);
-            oos.writeObject(snapshotChecksum);
-
-            OutputStream os = new FileOutputStream(snapshotFile.getAbsolutePath() + SNAPSHOT_CHECKSUM);
-            os.write(snapshotChecksum.getBytes());
         }
         finally {
             if (outputStream != null) {
@@ -116,6 +148,24 @@ public abstract class ServerLayer implements ServerServices {
                 }
             }
         }
+        String snapshotChecksum = BaseEncoding.base16().lowerCase().encode(digest.digest());
+        try (OutputStream os = new FileOutputStream(snapshotFile.getAbsolutePath() + SNAPSHOT_CHECKSUM)) {
+            os.write(snapshotChecksum.getBytes(StandardCharsets.US_ASCII));
+        }
+        snapshotChecksums.put(projectId.get(), snapshotChecksum);
+        fireProjectSnapshotChanged(projectId);
+
+        ObjectOutputStream oos = new ObjectOutputStream(responseStream);
+        oos.writeObject(snapshotChecksum);
+    }
+
+    private static MessageDigest createSnapshotDigest() {
+        try {
+            return MessageDigest.getInstance(SNAPSHOT_DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(SNAPSHOT_DIGEST_ALGORITHM + " is not supported", e);
+        }
     }
 
     private File getSnapShotFile(@Nonnull ProjectId projectId) {
@@ -132,7 +182,7 @@ public abstract class ServerLayer implements ServerServices {
             long start = System.currentTimeMillis();
             serializer.read(inputStream,
                     new BinaryOWLOntologyBuildingHandler(ontology),
-                    ontoManager.getOWLDataFactory());
+                    OWLObjectInterner.getDataFactory());
             System.out.println("Reading snapshot in " + (System.currentTimeMillis() - start) + " ms");
             return ontology;
         }
@@ -149,14 +199,52 @@ public abstract class ServerLayer implements ServerServices {
         }
     }
 
-    public Optional<String> getSnapshotChecksum(ProjectId projectId) {
-        Path path = Paths.get(getSnapShotFile(projectId).getAbsolutePath() + SNAPSHOT_CHECKSUM);
-        try {
-            return Optional.ofNullable(new String(Files.readAllBytes(path), Charset.defaultCharset()));
+    /**
+     * Returns the stored snapshot of the project together with its checksum, such that the snapshot
+     * can be sent to the client without loading the ontology.
+     *
+     * @throws IOException If the project has no snapshot
+     */
+    public SnapShotFile getProjectSnapshotFile(@Nonnull ProjectId projectId) throws IOException {
+        File snapshotFile = getSnapShotFile(projectId);
+        if (!snapshotFile.exists()) {
+            throw new FileNotFoundException("The project " + projectId.get() + " has no snapshot");
         }
-        catch (IOException e) {
-            // snapshot is not present
-            return Optional.empty();
+        Optional<String> checksum = getSnapshotChecksum(projectId);
+        if (!checksum.isPresent()) {
+            throw new IOException("The snapshot of project " + projectId.get() + " has no checksum");
+        }
+        return new SnapShotFile(snapshotFile, checksum.get());
+    }
+
+    /**
+     * Returns the checksum of the project snapshot. The checksum is read from the checksum file once
+     * and then kept in memory until the snapshot is replaced.
+     */
+    public Optional<String> getSnapshotChecksum(ProjectId projectId) {
+        String checksum = snapshotChecksums.get(projectId.get());
+        if (checksum == null) {
+            Path path = Paths.get(getSnapShotFile(projectId).getAbsolutePath() + SNAPSHOT_CHECKSUM);
+            try {
+                checksum = new String(Files.readAllBytes(path), Charset.defaultCharset());
+            }
+            catch (IOException e) {
+                // snapshot is not present
+                return Optional.empty();
+            }
+            String current = snapshotChecksums.putIfAbsent(projectId.get(), checksum);
+            if (current != null) {
+                checksum = current; // the snapshot was saved in the meantime
+            }
         }
+        return Optional.of(checksum);
+    }
+
+    /**
+     * Removes the cached checksum of the project snapshot, e.g., when the snapshot is archived by a
+     * squash. The checksum is read again from the checksum file on the next request.
+     */
+    public void invalidateSnapshotChecksum(@Nonnull ProjectId projectId) {
+        snapshotChecksums.remove(projectId.get());
     }
 }
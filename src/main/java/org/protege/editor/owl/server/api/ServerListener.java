@@ -1,8 +1,18 @@
 package org.protege.editor.owl.server.api;
 
+import edu.stanford.protege.metaproject.api.ProjectId;
+
 public abstract class ServerListener {
 
     public void configurationChanged(String configFile) {
         ;
     }
+
+    /**
+     * Called after the snapshot of a project has been replaced, e.g., when its history has been squashed.
+     * Anything built from the previous snapshot and history of the project is out of date.
+     */
+    public void projectSnapshotChanged(ProjectId projectId) {
+        ;
+    }
 }
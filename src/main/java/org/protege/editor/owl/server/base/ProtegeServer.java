@@ -702,6 +702,7 @@ public class ProtegeServer extends ServerLayer {
 						}
             File configurationFile = new File(configLocation);
             ConfigurationManager.getConfigurationWriter().saveConfiguration(configuration, configurationFile);
+            fireConfigurationChanged(configLocation);
         }
         catch (IOException e) {
             String message = "Unable to save server configuration";
@@ -1,15 +1,28 @@
 package org.protege.editor.owl.server.change;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import edu.stanford.protege.metaproject.api.ProjectId;
+import org.protege.editor.owl.server.api.exception.OutOfSyncException;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
+import org.protege.editor.owl.server.versioning.MappedChangeHistory;
+import org.protege.editor.owl.server.versioning.RevisionRecordCache;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
@@ -19,34 +32,161 @@ import org.slf4j.LoggerFactory;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalListeners;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 
+/**
+ * Caches the change history of each history file. The pool itself is not locked: the accesses
+ * to the same history file are serialized by its {@link ChangeDocumentPoolEntry}, such that a slow
+ * read or write of one history file does not block the other history files.
+ * <p>
+ * The loaded change histories are tracked in a cache that is bounded by a total weight, i.e., the
+ * number of revisions, changes and axioms held in memory, and that expires the histories not accessed
+ * for a while. Evicting a history only releases its memory: the pool entry remains, such that there is
+ * always a single writer per history file. The evicted histories are released on a background thread,
+ * since releasing a history waits for the reads and writes in progress on it. The histories of pinned
+ * history files are never evicted.
+ * <p>
+ * A change history heavier than the whole budget would be evicted as soon as it is loaded, and loaded
+ * again on every access. Such a history is mapped instead of decoded, see {@link HistoryCacheMode#MAPPED},
+ * and a mapped history that still exceeds the budget is exempted from it like a pinned history.
+ */
 public class ChangeDocumentPool {
 
     private static final Logger logger = LoggerFactory.getLogger(ChangeDocumentPool.class);
 
     private static final int DEFAULT_MAINTAIN_INTERVAL = 3 * 60 * 1000; // 3 mins
-    private static final int DEFAULT_POOL_TIMEOUT = 15 * 2 * 60 * 1000; // 15 mins
+    public static final int DEFAULT_POOL_TIMEOUT = 15 * 2 * 60 * 1000; // 15 mins
+
+    public static final long UNLIMITED_WEIGHT = 0;
+
+    private final ConcurrentMap<String, ChangeDocumentPoolEntry> entries = new ConcurrentHashMap<>();
 
     private final Cache<String, ChangeDocumentPoolEntry> pool;
 
+    private final Set<String> pinnedEntries = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> oversizedEntries = ConcurrentHashMap.newKeySet();
+
+    private final long maxWeight;
+
+    private final ChangeDocumentPoolStatistics statistics = new ChangeDocumentPoolStatistics();
+
     private final ScheduledExecutorService executorService;
 
+    private final ExecutorService removalExecutorService;
+
+    private volatile ExecutorService preloadExecutorService;
+
+    private final HistoryCacheMode cacheMode;
+
+    private final RevisionRecordCache recordCache;
+
+    private final ConcurrentMap<String, HistoryCacheMode> projectCacheModes = new ConcurrentHashMap<>();
+
+    private volatile int tailSize = MappedChangeHistory.DEFAULT_TAIL_SIZE;
+
+    private final CommitAuditLog auditLog = new CommitAuditLog();
+
     public ChangeDocumentPool() {
         this(DEFAULT_POOL_TIMEOUT);
     }
 
+    public ChangeDocumentPool(@Nonnull HistoryCacheMode cacheMode) {
+        this(DEFAULT_POOL_TIMEOUT, cacheMode);
+    }
+
     public ChangeDocumentPool(long timeout) {
+        this(timeout, HistoryCacheMode.FULL);
+    }
+
+    public ChangeDocumentPool(long timeout, @Nonnull HistoryCacheMode cacheMode) {
+        this(timeout, cacheMode, UNLIMITED_WEIGHT);
+    }
+
+    /**
+     * Creates a change document pool.
+     *
+     * @param timeout
+     *          The time (in milliseconds) after which a change history that is not accessed is released
+     * @param cacheMode
+     *          The strategy for keeping a change history in memory
+     * @param maxWeight
+     *          The maximum number of revisions, changes and axioms held in memory by the non-pinned
+     *          change histories, or {@link #UNLIMITED_WEIGHT}
+     */
+    public ChangeDocumentPool(long timeout, @Nonnull HistoryCacheMode cacheMode, long maxWeight) {
+        this(timeout, cacheMode, maxWeight, null);
+    }
+
+    /**
+     * Creates a change document pool that keeps the encoded revisions it serves in the given
+     * <code>recordCache</code>.
+     *
+     * @param timeout
+     *          The time (in milliseconds) after which a change history that is not accessed is released
+     * @param cacheMode
+     *          The strategy for keeping a change history in memory
+     * @param maxWeight
+     *          The maximum number of revisions, changes and axioms held in memory by the non-pinned
+     *          change histories, or {@link #UNLIMITED_WEIGHT}
+     * @param recordCache
+     *          The cache of encoded revisions shared by all history files, or <code>null</code>
+     */
+    public ChangeDocumentPool(long timeout, @Nonnull HistoryCacheMode cacheMode, long maxWeight,
+            @Nullable RevisionRecordCache recordCache) {
+        this(timeout, cacheMode, maxWeight, recordCache, null);
+    }
+
+    /*
+     * The evicted change histories are released by the given executor, or by a background thread of
+     * the pool if null.
+     */
+    ChangeDocumentPool(long timeout, @Nonnull HistoryCacheMode cacheMode, long maxWeight,
+            @Nullable RevisionRecordCache recordCache, @Nullable Executor removalExecutor) {
+        this.cacheMode = cacheMode;
+        this.recordCache = recordCache;
+        this.maxWeight = maxWeight;
+        removalExecutorService = Executors.newSingleThreadExecutor(r -> {
+            Thread th = new Thread(r, "Change Document Pool Removal Thread");
+            th.setDaemon(true);
+            return th;
+        });
         pool = CacheBuilder.newBuilder()
+                .concurrencyLevel(1) // keep the weight budget global instead of splitting it between segments
                 .expireAfterAccess(timeout, TimeUnit.MILLISECONDS)
-                .removalListener(new RemovalListener<String, ChangeDocumentPoolEntry>() {
+                .maximumWeight(maxWeight > 0 ? maxWeight : Long.MAX_VALUE)
+                .weigher(new Weigher<String, ChangeDocumentPoolEntry>() {
+                    public int weigh(String historyLocation, ChangeDocumentPoolEntry entry) {
+                        return entry.getWeight();
+                    }
+                })
+                .removalListener(RemovalListeners.asynchronous(new RemovalListener<String, ChangeDocumentPoolEntry>() {
                     public void onRemoval(RemovalNotification<String, ChangeDocumentPoolEntry> notification) {
-                        logger.info(String.format("Dispose in-memory cache history for %s", notification.getKey()));
+                        if (notification.wasEvicted()) {
+                            release(notification.getKey(), notification.getValue());
+                        }
                     }
-                }).build();
+                }, (removalExecutor != null) ? removalExecutor : removalExecutorService)).build();
         executorService = createPoolCleanupThread();
     }
 
+    /*
+     * Releases an evicted change history, unless it has been put in the cache again, or pinned, since it
+     * was evicted.
+     */
+    private void release(String historyLocation, ChangeDocumentPoolEntry entry) {
+        if (pool.asMap().containsKey(historyLocation) || pinnedEntries.contains(historyLocation)
+                || oversizedEntries.contains(historyLocation)) {
+            return;
+        }
+        int weight = entry.getWeight();
+        logger.info(String.format("Dispose in-memory cache history for %s (weight: %d)", historyLocation, weight));
+        entry.unload();
+        statistics.recordEviction(weight);
+    }
+
     private ScheduledExecutorService createPoolCleanupThread() {
         ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(
                 new ThreadFactory() {
@@ -60,44 +200,306 @@ public class ChangeDocumentPool {
         executorService.scheduleAtFixedRate(() -> {
             if (pool.size() > 0) {
                 pool.cleanUp();
+                logger.debug("Change document pool statistics: " + statistics);
+                if (recordCache != null) {
+                    logger.debug("Revision record cache statistics: " + recordCache);
+                }
             }
         }, DEFAULT_MAINTAIN_INTERVAL, DEFAULT_MAINTAIN_INTERVAL, TimeUnit.MILLISECONDS);
         return executorService;
     }
 
-    public synchronized ChangeHistory lookup(HistoryFile historyFile) throws IOException {
+    public ChangeHistory lookup(HistoryFile historyFile) throws IOException {
         ChangeDocumentPoolEntry entry = getPoolEntry(historyFile);
-        return entry.getChangeHistory();
+        boolean wasLoaded = entry.isLoaded();
+        ChangeHistory changeHistory = entry.getChangeHistory();
+        track(historyFile, entry, wasLoaded, false);
+        return changeHistory;
     }
     
-    public synchronized DocumentRevision lookupHead(HistoryFile historyFile) throws IOException {
+    public ChangeHistory lookup(HistoryFile historyFile, DocumentRevision start, DocumentRevision end)
+            throws IOException {
         ChangeDocumentPoolEntry entry = getPoolEntry(historyFile);
-        return entry.getHead();
+        boolean wasLoaded = entry.isLoaded();
+        ChangeHistory changeHistory = entry.getChanges(start, end);
+        track(historyFile, entry, wasLoaded, false);
+        return changeHistory;
     }
 
-    public synchronized void appendChanges(HistoryFile historyFile, ChangeHistory changes) {
+    /**
+     * Returns the byte range of the history file that holds the requested revisions, or
+     * <code>null</code> if the history file has no valid history index.
+     */
+    @Nullable
+    public HistoryFileRange lookupRange(HistoryFile historyFile, DocumentRevision start, DocumentRevision end)
+            throws IOException {
         ChangeDocumentPoolEntry entry = getPoolEntry(historyFile);
+        boolean wasLoaded = entry.isLoaded();
+        HistoryFileRange range = entry.getChangesRange(start, end);
+        track(historyFile, entry, wasLoaded, false);
+        return range;
+    }
+
+    public DocumentRevision lookupHead(HistoryFile historyFile) throws IOException {
+        ChangeDocumentPoolEntry entry = getPoolEntry(historyFile);
+        boolean wasLoaded = entry.isLoaded();
+        DocumentRevision headRevision = entry.getHead();
+        track(historyFile, entry, wasLoaded, false);
+        return headRevision;
+    }
+
+    public void appendChanges(HistoryFile historyFile, ChangeHistory changes) {
+        ChangeDocumentPoolEntry entry = getPoolEntry(historyFile);
+        boolean wasLoaded = entry.isLoaded();
         entry.appendChanges(changes);
+        track(historyFile, entry, wasLoaded, true);
+    }
+
+    /**
+     * Commits the given <code>changes</code> to the history file. Concurrent commits to the same history
+     * file are written together, see {@link ChangeDocumentPoolEntry#commitChanges(ChangeHistory)}.
+     */
+    public ChangeHistory commitChanges(HistoryFile historyFile, ChangeHistory changes)
+            throws OutOfSyncException, IOException {
+        return commitChanges(historyFile, changes, null);
+    }
+
+    /**
+     * Commits the given <code>changes</code> to the history file and notifies the
+     * <code>headListener</code> of the head revisions written, see
+     * {@link ChangeDocumentPoolEntry#commitChanges(ChangeHistory, Consumer)}.
+     */
+    public ChangeHistory commitChanges(HistoryFile historyFile, ChangeHistory changes,
+            @Nullable Consumer<DocumentRevision> headListener) throws OutOfSyncException, IOException {
+        ChangeDocumentPoolEntry entry = getPoolEntry(historyFile);
+        boolean wasLoaded = entry.isLoaded();
+        ChangeHistory committedChanges = entry.commitChanges(changes, headListener);
+        track(historyFile, entry, wasLoaded, true);
+        return committedChanges;
+    }
+
+    /**
+     * Loads the change histories of the given <code>historyFiles</code> in parallel on a bounded thread
+     * pool. A history file that cannot be read is logged and skipped.
+     *
+     * @param historyFiles
+     *          The history files to load
+     * @param parallelism
+     *          The maximum number of history files loaded at the same time
+     * @return A future that completes when all the history files have been processed
+     */
+    public CompletableFuture<Void> preload(@Nonnull Collection<HistoryFile> historyFiles, int parallelism) {
+        if (historyFiles.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "Change Document Pool Preload Thread " + threadCount.incrementAndGet());
+                th.setDaemon(true);
+                return th;
+            }
+        });
+        preloadExecutorService = executor;
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[historyFiles.size()];
+        int i = 0;
+        for (HistoryFile historyFile : historyFiles) {
+            tasks[i++] = CompletableFuture.runAsync(() -> {
+                try {
+                    lookup(historyFile);
+                }
+                catch (IOException | RuntimeException e) {
+                    logger.warn("Unable to preload the change history " + historyFile.getAbsolutePath(), e);
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(tasks).whenComplete((result, error) -> {
+            executor.shutdown();
+            long interval = System.currentTimeMillis() - startTime;
+            logger.info(String.format("Preloaded %d change histories in %.3f seconds", tasks.length, interval / 1000.0));
+        });
+    }
+
+    /**
+     * Removes the history file from the pool before it is moved away. The commits in progress are written
+     * first and the commits arriving meanwhile are rejected, see {@link ChangeDocumentPoolEntry#close()}.
+     */
+    public void clearHistoryCacheEntry(HistoryFile historyFile) {
+        String historyLocation = historyFile.getAbsolutePath();
+        ChangeDocumentPoolEntry entry = entries.get(historyLocation);
+        if (entry != null) {
+            entry.close();
+            entries.remove(historyLocation, entry);
+        }
+        oversizedEntries.remove(historyLocation);
+        pool.invalidate(historyLocation);
+        if (recordCache != null) {
+            recordCache.invalidate(historyFile);
+        }
+    }
+
+    /**
+     * Keeps the change history of the given <code>historyFile</code> in memory once it is loaded,
+     * regardless of the weight budget and the access timeout.
+     */
+    public void pin(HistoryFile historyFile) {
+        String historyLocation = historyFile.getAbsolutePath();
+        pinnedEntries.add(historyLocation);
+        pool.invalidate(historyLocation); // an explicit removal does not release the history
+    }
+
+    public void unpin(HistoryFile historyFile) {
+        String historyLocation = historyFile.getAbsolutePath();
+        if (pinnedEntries.remove(historyLocation)) {
+            ChangeDocumentPoolEntry entry = entries.get(historyLocation);
+            if (entry != null && entry.isLoaded()) {
+                if (isOversized(entry)) {
+                    trackOversized(historyLocation, entry);
+                }
+                else {
+                    pool.put(historyLocation, entry);
+                }
+            }
+        }
+    }
+
+    public boolean isPinned(HistoryFile historyFile) {
+        return pinnedEntries.contains(historyFile.getAbsolutePath());
+    }
+
+    /**
+     * Uses the given cache mode for the change history of the given <code>historyFile</code> in place of
+     * the cache mode of the pool. The cache mode must be set before the history file is accessed
+     * through the pool.
+     */
+    public void setCacheMode(HistoryFile historyFile, @Nonnull HistoryCacheMode historyCacheMode) {
+        String historyLocation = historyFile.getAbsolutePath();
+        if (entries.containsKey(historyLocation)) {
+            logger.warn("The cache mode of " + historyLocation + " is set after it has been accessed");
+        }
+        projectCacheModes.put(historyLocation, historyCacheMode);
+    }
+
+    public HistoryCacheMode getCacheMode(HistoryFile historyFile) {
+        return projectCacheModes.getOrDefault(historyFile.getAbsolutePath(), cacheMode);
+    }
+
+    /**
+     * Sets the number of most recent revisions kept decoded in memory by the change histories in the
+     * {@link HistoryCacheMode#TAIL} mode. It applies to the history files accessed afterwards.
+     */
+    public void setTailSize(int tailSize) {
+        if (tailSize <= 0) {
+            throw new IllegalArgumentException("The tail size must be positive: " + tailSize);
+        }
+        this.tailSize = tailSize;
     }
 
-    public synchronized void clearHistoryCacheEntry(HistoryFile historyFile) {
-        pool.invalidate(historyFile.getAbsolutePath());
+    public int getTailSize() {
+        return tailSize;
+    }
+
+    public ChangeDocumentPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the audit log of the revisions written to the history files.
+     */
+    public CommitAuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * Returns the cache of encoded revisions, or <code>null</code> if the pool does not cache them.
+     */
+    @Nullable
+    public RevisionRecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Returns the number of revisions, changes and axioms currently held in memory, including the
+     * pinned change histories.
+     */
+    public long getTotalWeight() {
+        long totalWeight = 0;
+        for (ChangeDocumentPoolEntry entry : entries.values()) {
+            totalWeight += entry.getWeight();
+        }
+        return totalWeight;
     }
 
     @Nonnull
     private ChangeDocumentPoolEntry getPoolEntry(HistoryFile historyFile) {
-        try {
-            String historyLocation = historyFile.getAbsolutePath();
-            ChangeDocumentPoolEntry entry = pool.get(historyLocation, () -> new ChangeDocumentPoolEntry(historyFile));
-            return entry;
+        String historyLocation = historyFile.getAbsolutePath();
+        return entries.computeIfAbsent(historyLocation,
+                location -> new ChangeDocumentPoolEntry(historyFile, getCacheMode(historyFile), statistics,
+                        recordCache, tailSize, auditLog));
+    }
+
+    /*
+     * Records the cache statistics of a lookup and keeps the weight of the entry up to date in the
+     * cache. Guava computes the weight when the entry is put, hence the entry is put again when its
+     * change history was loaded or modified.
+     */
+    private void track(HistoryFile historyFile, ChangeDocumentPoolEntry entry, boolean wasLoaded,
+            boolean modified) {
+        boolean loaded = entry.isLoaded();
+        if (wasLoaded) {
+            statistics.recordHit();
         }
-        catch (ExecutionException e) {
-            throw new RuntimeException(e.getMessage(), e);
+        else if (loaded) {
+            statistics.recordMiss();
+        }
+        String historyLocation = historyFile.getAbsolutePath();
+        if (!loaded || pinnedEntries.contains(historyLocation) || oversizedEntries.contains(historyLocation)) {
+            return;
+        }
+        if (isOversized(entry)) {
+            trackOversized(historyLocation, entry);
+            return;
+        }
+        if (modified || pool.getIfPresent(historyLocation) == null) {
+            pool.put(historyLocation, entry);
+        }
+    }
+
+    private boolean isOversized(ChangeDocumentPoolEntry entry) {
+        return maxWeight > 0 && entry.getWeight() > maxWeight;
+    }
+
+    /*
+     * Guava evicts an entry heavier than the weight budget as soon as it is put. A decoded change
+     * history is released and mapped on the next access, which only weighs its revisions. A mapped
+     * change history is kept out of the cache instead, such that it is not evicted.
+     */
+    private void trackOversized(String historyLocation, ChangeDocumentPoolEntry entry) {
+        pool.invalidate(historyLocation); // an explicit removal does not release the history
+        int weight = entry.getWeight();
+        if (entry.getCacheMode() == HistoryCacheMode.FULL) {
+            logger.warn(String.format("The change history %s (weight: %d) exceeds the weight budget of %d, "
+                    + "it is mapped from now on", historyLocation, weight, maxWeight));
+            projectCacheModes.put(historyLocation, HistoryCacheMode.MAPPED);
+            entry.setCacheMode(HistoryCacheMode.MAPPED);
+        }
+        else if (oversizedEntries.add(historyLocation)) {
+            logger.warn(String.format("The mapped change history %s (weight: %d) exceeds the weight budget of %d, "
+                    + "it is kept in memory regardless of the budget", historyLocation, weight, maxWeight));
         }
     }
 
     public void dispose() {
+        ExecutorService preloadExecutor = preloadExecutorService;
+        if (preloadExecutor != null) {
+            preloadExecutor.shutdownNow();
+        }
         pool.invalidateAll();
+        entries.clear();
         executorService.shutdownNow();
+        removalExecutorService.shutdown();
+        auditLog.dispose();
     }
 }
@@ -2,19 +2,35 @@ package org.protege.editor.owl.server.change;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.commons.io.FileUtils;
+import org.protege.editor.owl.server.api.exception.OutOfSyncException;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
 import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
+import org.protege.editor.owl.server.versioning.HistoryIndex;
+import org.protege.editor.owl.server.versioning.MappedChangeHistory;
+import org.protege.editor.owl.server.versioning.RevisionMap;
+import org.protege.editor.owl.server.versioning.RevisionRecordCache;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,22 +47,104 @@ public class ChangeDocumentPoolEntry {
 
     private final HistoryFile historyFile;
 
+    private volatile HistoryCacheMode cacheMode;
+
     private ChangeHistory cachedChangeHistory;
 
     private DocumentRevision cachedHeadRevision;
 
+    /*
+     * The head revision and the cached change history up to it, published after every change of the
+     * cached head or history, such that the head and the changes can be read without taking the lock
+     * of this entry.
+     */
+    private volatile HistorySnapshot snapshot;
+
+    private HistoryIndex historyIndex;
+
+    private final ChangeDocumentPoolStatistics statistics;
+
+    private final RevisionRecordCache recordCache;
+
+    private final int tailSize;
+
+    private final CommitAuditLog auditLog;
+
+    /*
+     * The number of revisions, changes and axioms held in memory by the cached change history
+     */
+    private volatile int weight = 0;
+
+    /*
+     * The commits accepted but not yet written to the history file. The queue also guards the
+     * pending head revision and the writer flag.
+     */
+    private final List<PendingCommit> commitQueue = new ArrayList<>();
+
+    private DocumentRevision pendingHeadRevision;
+
+    private boolean writingCommits = false;
+
+    /*
+     * The number of batches written or failed, guarded by the queue. It tells whether the head read
+     * before queuing a commit is still current.
+     */
+    private long writtenBatches = 0;
+
+    /*
+     * Set when the history file is about to be replaced, after which no commit is accepted. Guarded by
+     * the queue.
+     */
+    private boolean closed = false;
+
+    /*
+     * Set when mirroring the appended bytes into the backup failed, such that the backup is copied
+     * again in full. Guarded by the instance monitor.
+     */
+    private boolean backupStale = false;
+
     public ChangeDocumentPoolEntry(@Nonnull HistoryFile historyFile) {
+        this(historyFile, HistoryCacheMode.FULL);
+    }
+
+    public ChangeDocumentPoolEntry(@Nonnull HistoryFile historyFile, @Nonnull HistoryCacheMode cacheMode) {
+        this(historyFile, cacheMode, new ChangeDocumentPoolStatistics());
+    }
+
+    ChangeDocumentPoolEntry(@Nonnull HistoryFile historyFile, @Nonnull HistoryCacheMode cacheMode,
+            @Nonnull ChangeDocumentPoolStatistics statistics) {
+        this(historyFile, cacheMode, statistics, null, MappedChangeHistory.DEFAULT_TAIL_SIZE, null);
+    }
+
+    /*
+     * The encoded revisions of the history file are kept in the given record cache, if any, so that the
+     * changes served from the cached change history do not have to be encoded again. The tail size is
+     * the number of most recent revisions kept decoded in the TAIL cache mode. The appended revisions
+     * are recorded in the given audit log, if any.
+     */
+    ChangeDocumentPoolEntry(@Nonnull HistoryFile historyFile, @Nonnull HistoryCacheMode cacheMode,
+            @Nonnull ChangeDocumentPoolStatistics statistics, @Nullable RevisionRecordCache recordCache,
+            int tailSize, @Nullable CommitAuditLog auditLog) {
         this.historyFile = historyFile;
+        this.cacheMode = cacheMode;
+        this.statistics = statistics;
+        this.recordCache = recordCache;
+        this.tailSize = tailSize;
+        this.auditLog = auditLog;
     }
 
     private void doRead() throws IOException {
+        if ((cacheMode == HistoryCacheMode.MAPPED || cacheMode == HistoryCacheMode.TAIL) && doReadMapped()) {
+            return;
+        }
         logger.info("Reading change history from " + historyFile.getName());
         try {
             long startTime = System.currentTimeMillis();
             ChangeHistory result = ChangeHistoryUtils.readChanges(historyFile);
             long interval = System.currentTimeMillis() - startTime;
             logger.info("... success in " + (interval/1000.0) + " seconds");
-            cachedChangeHistory = result;
+            setCachedChangeHistory(toConcurrentHistory(result));
+            loadHistoryIndex(result);
         }
         catch (RuntimeException e) {
             logger.error("Exception caught while reading history file", e);
@@ -58,6 +156,34 @@ public class ChangeDocumentPoolEntry {
         }
     }
 
+    /*
+     * Creates a memory-mapped view of the history file, with a tail window in the TAIL mode. The history
+     * index is rebuilt from a complete read of the history file if needed. Returns false if the view
+     * could not be created.
+     */
+    private boolean doReadMapped() {
+        logger.info("Mapping change history from " + historyFile.getName());
+        try {
+            HistoryIndex index = getHistoryIndex();
+            if (index == null) {
+                logger.info("Rebuilding the history index of " + historyFile.getName());
+                index = HistoryIndex.rebuild(historyFile, ChangeHistoryUtils.readChanges(historyFile));
+                historyIndex = index;
+            }
+            if (index != null) {
+                int tail = (cacheMode == HistoryCacheMode.TAIL) ? tailSize : 0;
+                setCachedChangeHistory(new MappedChangeHistory(historyFile, index,
+                        MappedChangeHistory.DEFAULT_CACHE_SIZE, tail));
+                logger.info("... success (head revision: " + index.getHeadRevision() + ")");
+                return true;
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            logger.error("Exception caught while mapping history file", e);
+        }
+        return false;
+    }
+
     private void readBackupHistory() throws IOException {
         final HistoryFile backup = getBackupHistoryFile(historyFile);
         if (backup.exists()) {
@@ -69,53 +195,376 @@ public class ChangeDocumentPoolEntry {
             
             // Trying to read the backup file
             long startTime = System.currentTimeMillis();
-            cachedChangeHistory = ChangeHistoryUtils.readChanges(backup);
+            ChangeHistory result = ChangeHistoryUtils.readChanges(backup);
             long interval = System.currentTimeMillis() - startTime;
             logger.info("... success in " + (interval/1000.0) + " seconds");
             
             // Replace the original history file with the backup
             logger.info("Restoring the change history using the backup");
             restoreBackup(backup);
+            setCachedChangeHistory(toConcurrentHistory(result));
+            loadHistoryIndex(result);
             logger.info("... success");
         }
     }
 
-    private boolean doAppend(ChangeHistory changes) {
+    /*
+     * Once the changes are durably appended, the commit has succeeded: the caches are updated right
+     * away, and a failure of the following steps only drops the caches, such that the head and the
+     * history are read again from the history file. The backup is mirrored on a best-effort basis.
+     */
+    private void doAppend(ChangeHistory changes) throws IOException {
         if (!changes.isEmpty()) {
             logger.info("Writing changes to " + historyFile.getName());
-            logger.info("... " + changes.toString());
+            long startTime = System.currentTimeMillis();
+            long previousLength = historyFile.length();
             try {
-                long startTime = System.currentTimeMillis();
-                ChangeHistoryUtils.appendChanges(changes, historyFile);
-                long interval = System.currentTimeMillis() - startTime;
-                logger.info("... success in " + (interval / 1000.0) + " seconds.");
-                createBackup(historyFile);
+                ChangeHistoryUtils.appendChanges(changes, historyFile, getHistoryIndex());
+            }
+            catch (IOException | RuntimeException e) {
+                dropCaches(); // the history file may hold a part of the changes
+                throw e;
+            }
+            long interval = System.currentTimeMillis() - startTime;
+            logger.info("... success in " + (interval / 1000.0) + " seconds.");
+            try {
+                checkHistoryIndex();
                 updateCaches(changes);
+                cacheRecords(changes);
+                if (auditLog != null) {
+                    auditLog.record(historyFile, changes, getRecordLengths(changes), interval);
+                }
+            }
+            catch (RuntimeException e) {
+                logger.error("Exception caught while updating the caches of " + historyFile.getName(), e);
+                dropCaches();
             }
-            catch (IOException e) {
-                logger.error("Exception caught while writing history file", e);
-                return false;
+            try {
+                updateBackup(previousLength);
+            }
+            catch (IOException | RuntimeException e) {
+                logger.warn("Unable to update the backup of " + historyFile.getName()
+                        + ", it will be copied again on the next append", e);
+                backupStale = true;
             }
         }
-        return true;
     }
 
-    public ChangeHistory getChangeHistory() throws IOException {
+    /*
+     * Releases the cached head, history, index and records, which are read again from the history file.
+     */
+    private void dropCaches() {
+        historyIndex = null;
+        if (recordCache != null) {
+            recordCache.invalidate(historyFile);
+        }
+        setCachedHeadRevision(null);
+        setCachedChangeHistory(null);
+    }
+
+    public synchronized ChangeHistory getChangeHistory() throws IOException {
         if (cachedChangeHistory == null) {
+            long startTime = System.nanoTime();
             doRead();
+            statistics.recordLoad(System.nanoTime() - startTime);
         }
         return cachedChangeHistory;
     }
+
+    /**
+     * Returns <code>true</code> if the change history is held in memory.
+     */
+    public boolean isLoaded() {
+        HistorySnapshot current = snapshot;
+        return current != null && current.changeHistory != null;
+    }
+
+    /**
+     * Returns the number of revisions, changes and axioms held in memory by this entry.
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    public HistoryCacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    /**
+     * Changes the strategy for keeping the change history in memory. A decoded change history is
+     * released when switching to a mapped mode, such that the history file is mapped on the next access.
+     */
+    public synchronized void setCacheMode(@Nonnull HistoryCacheMode cacheMode) {
+        this.cacheMode = cacheMode;
+        if (cacheMode != HistoryCacheMode.FULL && cachedChangeHistory != null
+                && !(cachedChangeHistory instanceof MappedChangeHistory)) {
+            setCachedChangeHistory(null);
+        }
+    }
+
+    /**
+     * Releases the change history held in memory. The history file is read again on the next access.
+     */
+    public synchronized void unload() {
+        setCachedChangeHistory(null);
+    }
+
+    /**
+     * Stops accepting commits, waits until the commits already accepted are written and releases the
+     * change history held in memory. It is called before the history file is moved away, e.g., when
+     * the history is squashed.
+     */
+    public void close() {
+        synchronized (commitQueue) {
+            closed = true;
+            try {
+                while (writingCommits || !commitQueue.isEmpty()) {
+                    commitQueue.wait();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for the commits to " + historyFile.getName());
+            }
+        }
+        synchronized (this) {
+            dropCaches();
+        }
+    }
     
+    /**
+     * Returns the head revision. The published head is read without locking, hence polling the head
+     * does not wait for the commits being written.
+     */
     public DocumentRevision getHead() throws IOException {
-        if (cachedHeadRevision == null) {
-            cachedHeadRevision = getChangeHistory().getHeadRevision();
+        HistorySnapshot current = snapshot;
+        if (current != null) {
+            return current.headRevision;
+        }
+        synchronized (this) {
+            if (cachedHeadRevision == null) {
+                HistoryIndex index = (cachedChangeHistory == null) ? getHistoryIndex() : null;
+                if (index != null) {
+                    setCachedHeadRevision(index.getHeadRevision()); // no need to decode the history file
+                }
+                else {
+                    setCachedHeadRevision(getChangeHistory().getHeadRevision());
+                }
+            }
+            return cachedHeadRevision;
+        }
+    }
+
+    /**
+     * Returns the changes that begin at the <code>start + 1</code> revision and extend to the <code>end</code>
+     * revision. The returned change history is a view: the revisions are not copied but read one at a
+     * time when the view is serialized. If the change history is not yet cached, the view reads the
+     * requested revisions from the history file using the history index. In the
+     * {@link HistoryCacheMode#MAPPED} and {@link HistoryCacheMode#TAIL} modes, the revisions are always
+     * taken from the mapped view of the history file. Otherwise the view copies the encoded revisions held in the record cache, if any.
+     * <p>
+     * The view of a loaded change history is taken from the published snapshot without locking, as long
+     * as the requested revisions do not go beyond its head revision.
+     */
+    public ChangeHistory getChanges(DocumentRevision start, DocumentRevision end) throws IOException {
+        HistorySnapshot current = snapshot;
+        if (current != null && current.changeHistory != null && end.behindOrSameAs(current.headRevision)) {
+            return createView(current.changeHistory, start, end);
+        }
+        synchronized (this) {
+            return doGetChanges(start, end);
+        }
+    }
+
+    private ChangeHistory doGetChanges(DocumentRevision start, DocumentRevision end) throws IOException {
+        if (cachedChangeHistory == null && cacheMode == HistoryCacheMode.FULL) {
+            HistoryIndex index = getHistoryIndex();
+            if (index != null) {
+                // A private mapped view with no decoding cache, which is dropped with the returned view
+                return ChangeHistoryImpl.createView(new MappedChangeHistory(historyFile, index, 0), start, end);
+            }
+        }
+        return createView(getChangeHistory(), start, end);
+    }
+
+    private ChangeHistory createView(ChangeHistory changeHistory, DocumentRevision start, DocumentRevision end) {
+        if (recordCache != null && !isMapped(changeHistory)) {
+            return ChangeHistoryImpl.createView(changeHistory, start, end, historyFile, recordCache);
+        }
+        return ChangeHistoryImpl.createView(changeHistory, start, end);
+    }
+
+    /**
+     * Returns the byte range of the history file that holds the revisions from <code>start + 1</code> to
+     * <code>end</code>, or <code>null</code> if no valid history index is available.
+     */
+    @Nullable
+    public synchronized HistoryFileRange getChangesRange(DocumentRevision start, DocumentRevision end)
+            throws IOException {
+        HistoryIndex index = getHistoryIndex();
+        return (index != null) ? HistoryFileRange.create(historyFile, index, start, end) : null;
+    }
+
+    public synchronized void appendChanges(final ChangeHistory changes) {
+        try {
+            doAppend(changes);
+        }
+        catch (IOException e) {
+            logger.error("Exception caught while writing history file", e);
+        }
+    }
+
+    /**
+     * Commits the given <code>changes</code> to the history file. The changes must start at the head
+     * revision of the history, including the commits that are still waiting to be written. Concurrent
+     * commits are queued and written together in one append with one durability barrier, in the order
+     * they were accepted. The method returns once the changes are durably stored.
+     *
+     * @param changes
+     *          The changes to commit
+     * @return The committed changes, which end at the assigned head revision
+     * @throws OutOfSyncException If the changes do not start at the head revision
+     * @throws IOException If the changes could not be written to the history file
+     */
+    public ChangeHistory commitChanges(final ChangeHistory changes) throws OutOfSyncException, IOException {
+        return commitChanges(changes, null);
+    }
+
+    /**
+     * Commits the given <code>changes</code>, see {@link #commitChanges(ChangeHistory)}. The
+     * <code>headListener</code> is notified of the new head revision once per written batch, by the
+     * thread that wrote the batch and in the order of the batches.
+     *
+     * @param changes
+     *          The changes to commit
+     * @param headListener
+     *          The listener of the head revisions written, or <code>null</code>
+     * @return The committed changes, which end at the assigned head revision
+     * @throws OutOfSyncException If the changes do not start at the head revision
+     * @throws IOException If the changes could not be written to the history file
+     */
+    public ChangeHistory commitChanges(final ChangeHistory changes,
+            @Nullable Consumer<DocumentRevision> headListener) throws OutOfSyncException, IOException {
+        PendingCommit pending = new PendingCommit(changes, headListener);
+        while (true) {
+            long batchCount;
+            synchronized (commitQueue) {
+                batchCount = writtenBatches;
+            }
+            // Read outside of the queue monitor, as it may load the history file
+            DocumentRevision currentHead = getHead();
+            synchronized (commitQueue) {
+                if (closed) {
+                    throw new IOException("The history file " + historyFile.getName() + " is being replaced");
+                }
+                if (pendingHeadRevision == null && batchCount != writtenBatches) {
+                    continue; // a batch was written meanwhile, read the head again
+                }
+                DocumentRevision head = (pendingHeadRevision != null) ? pendingHeadRevision : currentHead;
+                if (!changes.getBaseRevision().sameAs(head)) {
+                    throw new OutOfSyncException("The local copy is outdated. Please do update.");
+                }
+                pendingHeadRevision = changes.getHeadRevision();
+                commitQueue.add(pending);
+                break;
+            }
+        }
+        try {
+            while (true) {
+                List<PendingCommit> batch;
+                synchronized (commitQueue) {
+                    while (!pending.isDone() && writingCommits) {
+                        commitQueue.wait();
+                    }
+                    if (pending.isDone()) {
+                        break;
+                    }
+                    // Become the writer of all the commits queued so far
+                    writingCommits = true;
+                    batch = new ArrayList<>(commitQueue);
+                    commitQueue.clear();
+                }
+                IOException error = null;
+                try {
+                    writeCommits(batch);
+                    notifyHeadListener(batch);
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+                catch (RuntimeException e) {
+                    error = new IOException("Unable to encode the commits to " + historyFile.getName(), e);
+                }
+                synchronized (commitQueue) {
+                    writtenBatches++;
+                    for (PendingCommit committed : batch) {
+                        committed.complete(error);
+                    }
+                    if (error != null) {
+                        // The queued commits were accepted against a head revision that was not written
+                        for (PendingCommit rejected : commitQueue) {
+                            rejected.complete(error);
+                        }
+                        commitQueue.clear();
+                    }
+                    if (commitQueue.isEmpty()) {
+                        pendingHeadRevision = null; // take the head from the history again
+                    }
+                    writingCommits = false;
+                    commitQueue.notifyAll();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the commit to be written", e);
         }
-        return cachedHeadRevision;
+        if (pending.getError() != null) {
+            throw new IOException("Unable to write the commit to " + historyFile.getName(), pending.getError());
+        }
+        return changes;
     }
 
-    public void appendChanges(final ChangeHistory changes) {
-        doAppend(changes);
+    /*
+     * Notifies the listener of the last commit of the batch, while this thread is still the only writer,
+     * such that the head revisions are published in order.
+     */
+    private void notifyHeadListener(List<PendingCommit> batch) {
+        PendingCommit last = batch.get(batch.size() - 1);
+        if (last.getHeadListener() != null) {
+            try {
+                last.getHeadListener().accept(last.getChanges().getHeadRevision());
+            }
+            catch (RuntimeException e) {
+                logger.warn("Exception caught while publishing the head of " + historyFile.getName(), e);
+            }
+        }
+    }
+
+    /*
+     * Writes a batch of commits as a single append to the history file.
+     */
+    private synchronized void writeCommits(List<PendingCommit> batch) throws IOException {
+        ChangeHistory first = batch.get(0).getChanges();
+        ChangeHistory changes = first;
+        if (batch.size() > 1) {
+            changes = ChangeHistoryImpl.createEmptyChangeHistory(first.getBaseRevision());
+            for (PendingCommit pending : batch) {
+                ChangeHistory commit = pending.getChanges();
+                for (DocumentRevision current = commit.getBaseRevision().next();
+                        current.behindOrSameAs(commit.getHeadRevision()); current = current.next()) {
+                    changes.addRevision(commit.getMetadataForRevision(current), commit.getChangesForRevision(current));
+                }
+            }
+            logger.info("Writing " + batch.size() + " commits in one batch to " + historyFile.getName());
+        }
+        try {
+            doAppend(changes);
+        }
+        catch (IOException e) {
+            logger.error("Exception caught while writing history file", e);
+            throw e;
+        }
     }
 
     /*
@@ -125,23 +574,317 @@ public class ChangeDocumentPoolEntry {
     private void updateCaches(ChangeHistory incomingChanges) {
         final DocumentRevision base = incomingChanges.getBaseRevision();
         final DocumentRevision end = incomingChanges.getHeadRevision();
+        if (cachedChangeHistory == null) {
+            setCachedHeadRevision(null); // the head will be taken from the history index or file
+            return;
+        }
+        if (!cachedChangeHistory.getHeadRevision().sameAs(base)) {
+            logger.warn("The cached history of " + historyFile.getName() + " does not end at revision " + base);
+            setCachedHeadRevision(null);
+            setCachedChangeHistory(null);
+            return;
+        }
+        if (cachedChangeHistory instanceof MappedChangeHistory && historyIndex == null) {
+            setCachedHeadRevision(null);
+            setCachedChangeHistory(null); // the mapped view relies on a history index that is no longer valid
+            return;
+        }
         for (DocumentRevision current = base.next(); current.behindOrSameAs(end); current = current.next()) {
             cachedChangeHistory.addRevision(
                     incomingChanges.getMetadataForRevision(current),
                     incomingChanges.getChangesForRevision(current));
         }
-        cachedHeadRevision = cachedChangeHistory.getHeadRevision();
+        setCachedHeadRevision(cachedChangeHistory.getHeadRevision());
+        weight = addWeight(weight, weigh(incomingChanges, cachedChangeHistory instanceof MappedChangeHistory));
+    }
+
+    /*
+     * Copies the records of the appended revisions from the history file into the record cache, as the
+     * clients are likely to fetch the new revisions soon. The records are located with the history index.
+     */
+    private void cacheRecords(ChangeHistory appendedChanges) {
+        HistoryIndex index = historyIndex;
+        if (recordCache == null || index == null) {
+            return;
+        }
+        DocumentRevision first = appendedChanges.getBaseRevision().next();
+        DocumentRevision last = appendedChanges.getHeadRevision();
+        long offset = index.getOffset(first);
+        long length = index.getOffset(last) + index.getLength(last) - offset;
+        if (length > recordCache.getCapacity()) {
+            return;
+        }
+        ByteBuffer records = ByteBuffer.allocate((int) length);
+        try (FileChannel channel = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ)) {
+            while (records.hasRemaining()) {
+                if (channel.read(records, offset + records.position()) < 0) {
+                    return; // the records are cached when they are served
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Unable to cache the revisions appended to " + historyFile.getName(), e);
+            return;
+        }
+        for (DocumentRevision current = first; current.behindOrSameAs(last); current = current.next()) {
+            recordCache.put(historyFile, current, records.array(), (int) (index.getOffset(current) - offset),
+                    index.getLength(current));
+        }
+    }
+
+    /*
+     * Returns the byte lengths of the records of the appended revisions, or null if the history index
+     * does not locate them.
+     */
+    @Nullable
+    private int[] getRecordLengths(ChangeHistory appendedChanges) {
+        HistoryIndex index = historyIndex;
+        DocumentRevision first = appendedChanges.getBaseRevision().next();
+        DocumentRevision last = appendedChanges.getHeadRevision();
+        if (index == null || !index.contains(first) || !index.contains(last)) {
+            return null;
+        }
+        int[] lengths = new int[DocumentRevision.distance(appendedChanges.getBaseRevision(), last)];
+        int i = 0;
+        for (DocumentRevision current = first; current.behindOrSameAs(last); current = current.next()) {
+            lengths[i++] = index.getLength(current);
+        }
+        return lengths;
+    }
+
+    /*
+     * Views of the cached change history are serialized outside of the entry lock while new revisions
+     * are appended, hence the revisions are kept in revision maps, which publish the appended revisions
+     * safely to concurrent readers.
+     */
+    private static ChangeHistory toConcurrentHistory(ChangeHistory changeHistory) {
+        DocumentRevision baseRevision = changeHistory.getBaseRevision();
+        return ChangeHistoryImpl.recreate(baseRevision,
+                RevisionMap.copyOf(baseRevision, changeHistory.getRevisions()),
+                RevisionMap.copyOf(baseRevision, changeHistory.getMetadata()));
+    }
+
+    /*
+     * A mapped change history that is replaced is closed, such that its segments are unmapped once the
+     * reads in progress complete, rather than when it is garbage collected.
+     */
+    private void setCachedChangeHistory(ChangeHistory changeHistory) {
+        if (cachedChangeHistory instanceof MappedChangeHistory && cachedChangeHistory != changeHistory) {
+            ((MappedChangeHistory) cachedChangeHistory).close();
+        }
+        cachedChangeHistory = changeHistory;
+        weight = (changeHistory != null) ? weigh(changeHistory, changeHistory instanceof MappedChangeHistory) : 0;
+        publishSnapshot();
+    }
+
+    private void setCachedHeadRevision(DocumentRevision headRevision) {
+        cachedHeadRevision = headRevision;
+        publishSnapshot();
+    }
+
+    /*
+     * Publishes the cached head revision together with an immutable crop of the cached change history
+     * up to the head, such that a reader never sees a revision beyond the head it reads. The revisions
+     * of a mapped change history are read from the history file, which is only appended, hence a view
+     * bounded by the head is published instead of a copy. The mapped history decodes the revisions
+     * without locking, so the readers of the view do not wait for the revisions being added.
+     */
+    private void publishSnapshot() {
+        ChangeHistory changeHistory = cachedChangeHistory;
+        if (changeHistory == null) {
+            snapshot = (cachedHeadRevision != null) ? new HistorySnapshot(cachedHeadRevision, null) : null;
+        }
+        else if (changeHistory instanceof MappedChangeHistory) {
+            DocumentRevision headRevision = changeHistory.getHeadRevision();
+            snapshot = new HistorySnapshot(headRevision,
+                    ChangeHistoryImpl.createView(changeHistory, changeHistory.getBaseRevision(), headRevision));
+        }
+        else {
+            DocumentRevision headRevision = changeHistory.getHeadRevision();
+            snapshot = new HistorySnapshot(headRevision,
+                    ChangeHistoryUtils.crop(changeHistory, changeHistory.getBaseRevision(), headRevision));
+        }
+    }
+
+    /*
+     * Each revision weighs one unit for its metadata, each change one unit and each axiom one unit plus
+     * one per annotation of the axiom. The changes only count when they are all kept in memory, i.e., not
+     * for a mapped change history.
+     */
+    private static boolean isMapped(ChangeHistory changeHistory) {
+        return changeHistory instanceof MappedChangeHistory
+                || (changeHistory instanceof ChangeHistoryImpl && ((ChangeHistoryImpl) changeHistory).isMappedView());
+    }
+
+    private static int weigh(ChangeHistory changeHistory, boolean revisionsOnly) {
+        int total = DocumentRevision.distance(changeHistory.getBaseRevision(), changeHistory.getHeadRevision());
+        if (!revisionsOnly) {
+            for (List<OWLOntologyChange> changes : changeHistory.getRevisions().values()) {
+                for (OWLOntologyChange change : changes) {
+                    total = addWeight(total, weigh(change));
+                }
+            }
+        }
+        return total;
+    }
+
+    private static int weigh(OWLOntologyChange change) {
+        return change.isAxiomChange() ? 2 + change.getAxiom().getAnnotations().size() : 1;
+    }
+
+    private static int addWeight(int weight, int delta) {
+        long sum = (long) weight + delta;
+        return (sum > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    private HistoryIndex getHistoryIndex() throws IOException {
+        if (historyIndex == null) {
+            historyIndex = HistoryIndex.load(historyFile);
+        }
+        return historyIndex;
+    }
+
+    /*
+     * Uses the existing history index if it matches the history file or rebuilds it from the complete
+     * change history otherwise.
+     */
+    private void loadHistoryIndex(ChangeHistory changeHistory) {
+        try {
+            historyIndex = HistoryIndex.load(historyFile);
+            if (historyIndex == null) {
+                logger.info("Rebuilding the history index of " + historyFile.getName());
+                historyIndex = HistoryIndex.rebuild(historyFile, changeHistory);
+            }
+        }
+        catch (IOException e) {
+            logger.error("Exception caught while building the history index", e);
+            historyIndex = null;
+        }
+    }
+
+    /*
+     * Drops the history index from memory if it no longer matches the history file.
+     */
+    private void checkHistoryIndex() {
+        if (historyIndex != null && historyIndex.getEndOffset() != historyFile.length()) {
+            historyIndex = null;
+        }
     }
 
-    private void createBackup(File historyFile) throws IOException {
+    /*
+     * Mirrors the bytes appended to the history file since the given previous length into the backup
+     * file, such that the backup cost is proportional to the commit size, and forces them to the storage
+     * device. If the backup is missing, does not mirror the history file before the append, or a previous
+     * update of the backup failed, the backup is rebuilt from the part of the history file covered by the
+     * history index, i.e., from revisions known to be complete. Without a valid index the backup is left
+     * as it is, rather than replaced by bytes that may not be a valid history.
+     */
+    private void updateBackup(long previousLength) throws IOException {
         HistoryFile backup = getBackupHistoryFile(historyFile);
-        FileUtils.copyFile(historyFile, backup);
+        HistoryIndex index = historyIndex;
+        if (backupStale || !backup.exists() || backup.length() != previousLength) {
+            if (index == null) {
+                logger.warn("No valid history index of " + historyFile.getName()
+                        + ", the backup is rebuilt once the index is");
+                backupStale = true;
+                return;
+            }
+            logger.info("Creating a new backup of " + historyFile.getName());
+            copyIndexedPrefix(backup, index.getEndOffset());
+            backupStale = false;
+            return;
+        }
+        try (FileChannel source = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(backup.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+            long position = previousLength;
+            long end = (index != null) ? index.getEndOffset() : source.size();
+            while (position < end) {
+                position += source.transferTo(position, end - position, target);
+            }
+            target.force(false);
+        }
+    }
+
+    /*
+     * Copies the first bytes of the history file to a temporary file, which then replaces the backup, such
+     * that the previous backup is kept until the new one is complete.
+     */
+    private void copyIndexedPrefix(HistoryFile backup, long length) throws IOException {
+        Path temporary = Paths.get(backup.getAbsolutePath() + ".tmp");
+        try (FileChannel source = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (source.size() < length) {
+                throw new IOException("The history file " + historyFile.getName() + " is shorter than its index");
+            }
+            long position = 0;
+            while (position < length) {
+                position += source.transferTo(position, length - position, target);
+            }
+            target.force(false);
+        }
+        Files.move(temporary, backup.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     private void restoreBackup(File backupFile) throws IOException {
         FileUtils.copyFile(backupFile, historyFile);
-        cachedChangeHistory = null; // clear caches so that the pool will reread the file
-        cachedHeadRevision = null;
+        setCachedHeadRevision(null);
+        setCachedChangeHistory(null); // clear caches so that the pool will reread the file
+        historyIndex = null;
+        if (recordCache != null) {
+            recordCache.invalidate(historyFile);
+        }
+        HistoryIndex.getIndexFile(historyFile).delete(); // rebuilt from the restored history
+    }
+
+    /*
+     * A head revision and the change history up to it, or only the head revision when the change history
+     * is not loaded.
+     */
+    private static final class HistorySnapshot {
+
+        private final DocumentRevision headRevision;
+        private final ChangeHistory changeHistory;
+
+        private HistorySnapshot(DocumentRevision headRevision, @Nullable ChangeHistory changeHistory) {
+            this.headRevision = headRevision;
+            this.changeHistory = changeHistory;
+        }
+    }
+
+    private static class PendingCommit {
+
+        private final ChangeHistory changes;
+        private final Consumer<DocumentRevision> headListener;
+        private boolean done = false;
+        private IOException error;
+
+        private PendingCommit(ChangeHistory changes, Consumer<DocumentRevision> headListener) {
+            this.changes = changes;
+            this.headListener = headListener;
+        }
+
+        private ChangeHistory getChanges() {
+            return changes;
+        }
+
+        private Consumer<DocumentRevision> getHeadListener() {
+            return headListener;
+        }
+
+        private boolean isDone() {
+            return done;
+        }
+
+        private IOException getError() {
+            return error;
+        }
+
+        private void complete(IOException error) {
+            this.done = true;
+            this.error = error;
+        }
     }
 
     private HistoryFile getBackupHistoryFile(File historyFile) throws IOException {
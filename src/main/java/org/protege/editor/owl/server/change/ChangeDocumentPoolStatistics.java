@@ -0,0 +1,76 @@
+package org.protege.editor.owl.server.change;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the cache statistics of a {@link ChangeDocumentPool}. The weight of a change history is
+ * measured in the number of revisions, changes and axioms it keeps in memory.
+ */
+public class ChangeDocumentPoolStatistics {
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong evictedWeight = new AtomicLong();
+
+    /**
+     * Returns the number of lookups served by an already loaded change history.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that had to load the change history from the history file.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Returns the total time spent loading change histories, in milliseconds.
+     */
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalLoadTime.get());
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getEvictedWeight() {
+        return evictedWeight.get();
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void recordLoad(long loadTimeNanos) {
+        loadCount.incrementAndGet();
+        totalLoadTime.addAndGet(loadTimeNanos);
+    }
+
+    void recordEviction(long weight) {
+        evictionCount.incrementAndGet();
+        evictedWeight.addAndGet(weight);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d, loads=%d, total load time=%d ms, evictions=%d, evicted weight=%d",
+                getHitCount(), getMissCount(), getLoadCount(), getTotalLoadTime(), getEvictionCount(),
+                getEvictedWeight());
+    }
+}
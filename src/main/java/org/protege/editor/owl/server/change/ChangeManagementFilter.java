@@ -4,6 +4,7 @@ import edu.stanford.protege.metaproject.api.*;
 import org.protege.editor.owl.server.api.CommitBundle;
 import org.protege.editor.owl.server.api.ServerFilterAdapter;
 import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.api.ServerListener;
 import org.protege.editor.owl.server.api.exception.AuthorizationException;
 import org.protege.editor.owl.server.api.exception.OutOfSyncException;
 import org.protege.editor.owl.server.api.exception.ServerServiceException;
@@ -15,8 +16,11 @@ import org.protege.editor.owl.server.versioning.api.ServerDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Optional;
 
+import javax.annotation.Nullable;
+
 /**
  * Represents the change history manager that stores new changes from users.
  *
@@ -29,9 +33,30 @@ public class ChangeManagementFilter extends ServerFilterAdapter {
 
     private final ChangeDocumentPool changePool;
 
+    private final HeadOntologyStore headOntologies;
+
+    private final CheckpointWriter checkpointWriter;
+
+    private final RevisionEventLog revisionEvents;
+
     public ChangeManagementFilter(ServerLayer delegate, ChangeDocumentPool changePool) {
+        this(delegate, changePool, null, null, null);
+    }
+
+    public ChangeManagementFilter(ServerLayer delegate, ChangeDocumentPool changePool,
+            @Nullable HeadOntologyStore headOntologies, @Nullable CheckpointWriter checkpointWriter,
+            @Nullable RevisionEventLog revisionEvents) {
         super(delegate);
         this.changePool = changePool;
+        this.headOntologies = headOntologies;
+        this.checkpointWriter = checkpointWriter;
+        this.revisionEvents = revisionEvents;
+        addServerListener(new ServerListener() {
+            @Override
+            public void projectSnapshotChanged(ProjectId projectId) {
+                resetProject(projectId);
+            }
+        });
     }
 
     @Override
@@ -49,14 +74,53 @@ public class ChangeManagementFilter extends ServerFilterAdapter {
             ChangeHistory changeHistory = super.commit(token, projectId, commitBundle);
             String projectFilePath = getHistoryFilePath(projectId);
             HistoryFile historyFile = HistoryFile.openExisting(projectFilePath);
-            changePool.appendChanges(historyFile, changeHistory);
-            return changeHistory;
+            // The head revisions are published once per written batch, in order, by the writing thread
+            ChangeHistory committedChanges = changePool.commitChanges(historyFile, changeHistory,
+                    (revisionEvents != null) ? headRevision -> revisionEvents.publish(projectId, headRevision) : null);
+            advanceHeadOntology(token, projectId);
+            if (checkpointWriter != null) {
+                checkpointWriter.recordCommit(projectId, committedChanges);
+            }
+            return committedChanges;
         }
         catch (InvalidHistoryFileException e) {
             logger.error(printLog(token.getUser(), "Commit changes", e.getMessage()), e);
             throw new ServerServiceException(e.getMessage(), e);
         }
+        catch (IOException e) {
+            String message = "Unable to write the changes to the history file";
+            logger.error(printLog(token.getUser(), "Commit changes", message), e);
+            throw new ServerServiceException(message, e);
+        }
+    }
+
+    /*
+     * The head ontology and the checkpoint progress of a project are derived from its snapshot and
+     * history, hence they are discarded when the snapshot is replaced, e.g., by a squash. The revision
+     * numbers of the new history cannot tell it apart from the previous one.
+     */
+    private void resetProject(ProjectId projectId) {
+        if (headOntologies != null) {
+            headOntologies.invalidate(projectId);
+        }
+        if (checkpointWriter != null) {
+            checkpointWriter.invalidate(projectId);
+        }
     }
 
-    
+    /*
+     * The commit is already durable, hence a failure to advance the head ontology only releases it.
+     */
+    private void advanceHeadOntology(AuthToken token, ProjectId projectId) {
+        if (headOntologies == null || !headOntologies.isEnabled(projectId)) {
+            return;
+        }
+        try {
+            headOntologies.advance(projectId);
+        }
+        catch (IOException | RuntimeException e) {
+            logger.warn(printLog(token.getUser(), "Commit changes", "Unable to advance the head ontology"), e);
+            headOntologies.unload(projectId);
+        }
+    }
 }
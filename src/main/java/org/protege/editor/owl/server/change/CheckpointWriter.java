@@ -0,0 +1,231 @@
+package org.protege.editor.owl.server.change;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import edu.stanford.protege.metaproject.api.ProjectId;
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.http.exception.ServerException;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.Checkpoint;
+import org.protege.editor.owl.server.versioning.InvalidHistoryFileException;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a {@link Checkpoint} of a project history every given number of revisions or changes. The
+ * checkpoint is built in the background from the previous checkpoint (or the project snapshot) and the
+ * revisions committed since then, so committing never waits for it. The checkpoints of the projects
+ * whose head ontology is kept by a {@link HeadOntologyStore} are written from that ontology.
+ * <p>
+ * The number of changes since the last checkpoint is counted from the commits seen by this writer,
+ * i.e., it starts from zero when the server starts.
+ */
+public class CheckpointWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointWriter.class);
+
+    public static final int DISABLED = 0;
+
+    private final ServerLayer serverLayer;
+
+    private final ChangeDocumentPool changePool;
+
+    private final HeadOntologyStore headOntologies;
+
+    private final int revisionInterval;
+
+    private final long changeInterval;
+
+    private final ConcurrentMap<String, Progress> progress = new ConcurrentHashMap<>();
+
+    private final Set<String> pendingProjects = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executorService;
+
+    /**
+     * @param serverLayer
+     *          The server layer that stores the project snapshots
+     * @param changePool
+     *          The change document pool that holds the project histories
+     * @param headOntologies
+     *          The head ontologies to write the checkpoints from, or <code>null</code>
+     * @param revisionInterval
+     *          The number of revisions between two checkpoints, or {@link #DISABLED}
+     * @param changeInterval
+     *          The number of changes between two checkpoints, or {@link #DISABLED}
+     */
+    public CheckpointWriter(@Nonnull ServerLayer serverLayer, @Nonnull ChangeDocumentPool changePool,
+            @Nullable HeadOntologyStore headOntologies, int revisionInterval, long changeInterval) {
+        this.serverLayer = serverLayer;
+        this.changePool = changePool;
+        this.headOntologies = headOntologies;
+        this.revisionInterval = revisionInterval;
+        this.changeInterval = changeInterval;
+        this.executorService = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Checkpoint Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records the revisions of a successful commit and schedules a checkpoint when enough revisions or
+     * changes have been committed since the last one.
+     */
+    public void recordCommit(@Nonnull ProjectId projectId, @Nonnull ChangeHistory committedChanges) {
+        DocumentRevision headRevision = committedChanges.getHeadRevision();
+        long changeCount = 0;
+        for (List<OWLOntologyChange> changes : committedChanges.getRevisions().values()) {
+            changeCount += changes.size();
+        }
+        Progress projectProgress = progress.computeIfAbsent(projectId.get(),
+                id -> new Progress(getLatestCheckpointRevision(projectId)));
+        boolean isDue;
+        synchronized (projectProgress) {
+            if (!headRevision.aheadOf(projectProgress.checkpointRevision)) {
+                // The history has been replaced without invalidating this writer
+                projectProgress.checkpointRevision = DocumentRevision.START_REVISION;
+                projectProgress.changeCount = 0;
+            }
+            projectProgress.changeCount += changeCount;
+            int revisionCount = DocumentRevision.distance(projectProgress.checkpointRevision, headRevision);
+            isDue = (revisionInterval != DISABLED && revisionCount >= revisionInterval)
+                    || (changeInterval != DISABLED && projectProgress.changeCount >= changeInterval);
+        }
+        if (isDue && pendingProjects.add(projectId.get())) {
+            executorService.submit(() -> {
+                try {
+                    writeCheckpoint(projectId);
+                }
+                catch (IOException | RuntimeException e) {
+                    logger.error("Unable to write a checkpoint of project " + projectId.get(), e);
+                }
+                finally {
+                    pendingProjects.remove(projectId.get());
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the project at its current head revision.
+     *
+     * @return The new checkpoint, or the existing one if the head revision already has a checkpoint
+     * @throws IOException If the checkpoint cannot be built or written
+     */
+    public Checkpoint writeCheckpoint(@Nonnull ProjectId projectId) throws IOException {
+        HistoryFile historyFile = getHistoryFile(projectId);
+        DocumentRevision headRevision = changePool.lookupHead(historyFile);
+        Checkpoint nearest = Checkpoint.findNearest(historyFile, headRevision);
+        if (nearest != null && nearest.getRevision().sameAs(headRevision)) {
+            return nearest;
+        }
+        if (headOntologies != null && headOntologies.isEnabled(projectId)) {
+            try {
+                Checkpoint checkpoint = headOntologies.writeCheckpoint(projectId);
+                checkpointWritten(projectId, checkpoint.getRevision());
+                return checkpoint;
+            }
+            catch (IOException e) {
+                logger.warn("Unable to write the checkpoint of project " + projectId.get()
+                        + " from its head ontology, building it instead", e);
+            }
+        }
+        logger.info("Writing a checkpoint of project " + projectId.get() + " at revision " + headRevision);
+        long startTime = System.currentTimeMillis();
+        OWLOntology ontology = (nearest != null) ? nearest.load() : loadProjectSnapshot(projectId);
+        try {
+            DocumentRevision baseRevision = (nearest != null) ? nearest.getRevision() : DocumentRevision.START_REVISION;
+            ChangeHistory changes = changePool.lookup(historyFile, baseRevision, headRevision);
+            ontology.getOWLOntologyManager().applyChanges(ChangeHistoryUtils.getOntologyChanges(changes, ontology));
+            Checkpoint checkpoint = Checkpoint.write(historyFile, headRevision, ontology);
+            checkpointWritten(projectId, headRevision);
+            logger.info("... success in " + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
+            return checkpoint;
+        }
+        finally {
+            ontology.getOWLOntologyManager().removeOntology(ontology);
+        }
+    }
+
+    private void checkpointWritten(ProjectId projectId, DocumentRevision revision) {
+        Progress projectProgress = progress.computeIfAbsent(projectId.get(), id -> new Progress(revision));
+        synchronized (projectProgress) {
+            if (revision.aheadOf(projectProgress.checkpointRevision)) {
+                projectProgress.checkpointRevision = revision;
+                projectProgress.changeCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Forgets the progress of the project after its snapshot has been replaced, e.g., by a squash, since
+     * the previous checkpoints are archived with the previous history. The progress is read again from
+     * the checkpoints of the new history on the next commit.
+     */
+    public void invalidate(@Nonnull ProjectId projectId) {
+        progress.remove(projectId.get());
+    }
+
+    public void dispose() {
+        executorService.shutdownNow();
+    }
+
+    private DocumentRevision getLatestCheckpointRevision(ProjectId projectId) {
+        try {
+            HistoryFile historyFile = getHistoryFile(projectId);
+            Checkpoint latest = Checkpoint.findNearest(historyFile, DocumentRevision.create(Integer.MAX_VALUE));
+            return (latest != null) ? latest.getRevision() : DocumentRevision.START_REVISION;
+        }
+        catch (IOException e) {
+            return DocumentRevision.START_REVISION;
+        }
+    }
+
+    private OWLOntology loadProjectSnapshot(ProjectId projectId) throws IOException {
+        try {
+            return serverLayer.loadProjectSnapshot(projectId);
+        }
+        catch (OWLOntologyCreationException | ServerException e) {
+            throw new IOException("Unable to load the snapshot of project " + projectId.get(), e);
+        }
+    }
+
+    private HistoryFile getHistoryFile(ProjectId projectId) throws IOException {
+        try {
+            return HistoryFile.openExisting(serverLayer.getHistoryFilePath(projectId));
+        }
+        catch (InvalidHistoryFileException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * The fields are guarded by the instance monitor.
+     */
+    private static class Progress {
+
+        private DocumentRevision checkpointRevision;
+
+        private long changeCount = 0;
+
+        private Progress(DocumentRevision checkpointRevision) {
+            this.checkpointRevision = checkpointRevision;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.protege.editor.owl.server.change;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records an audit entry for every revision written to a history file. The entries are formatted and
+ * written by a background thread, so the commit only hands over the committed changes, which are not
+ * modified afterwards. An entry is a single line of <code>key=value</code> fields: the project, the
+ * revision, the author, the number of changes and their number by change type, the size of the stored
+ * record, the time taken by the append and the time the entry waited to be written, e.g.,
+ * <pre>
+ * project=pizza revision=42 author=bob changes=3 types=AddAxiom:2,RemoveAxiom:1 bytes=512 append_ms=4 queue_ms=0
+ * </pre>
+ * The entries are logged with the logger of this class, hence they can be routed to a separate
+ * appender. Dumping all the committed changes is costly for large commits and is only done when
+ * enabled with {@link #setFullDumpEnabled(boolean)}.
+ * <p>
+ * The number of entries waiting to be written is bounded. The entries that do not fit are dropped
+ * instead of slowing down the commits, and their number is reported with the next entry.
+ */
+public class CommitAuditLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommitAuditLog.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final int UNKNOWN_LENGTH = -1;
+
+    private final Consumer<String> sink;
+
+    private final ThreadPoolExecutor executorService;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile boolean fullDumpEnabled = false;
+
+    /*
+     * The number of dropped entries already reported, only accessed by the audit thread
+     */
+    private long reportedDropCount = 0;
+
+    public CommitAuditLog() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param queueCapacity
+     *          The maximum number of commits waiting for their entries to be written
+     */
+    public CommitAuditLog(int queueCapacity) {
+        this(queueCapacity, logger::info);
+    }
+
+    CommitAuditLog(int queueCapacity, @Nonnull Consumer<String> sink) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity must be positive: " + queueCapacity);
+        }
+        this.sink = sink;
+        this.executorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "Commit Audit Log");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Enables or disables dumping all the committed changes after their audit entries.
+     */
+    public void setFullDumpEnabled(boolean fullDumpEnabled) {
+        this.fullDumpEnabled = fullDumpEnabled;
+    }
+
+    public boolean isFullDumpEnabled() {
+        return fullDumpEnabled;
+    }
+
+    /**
+     * Returns the number of entries dropped because too many were waiting to be written.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Schedules the audit entries of the revisions appended to the history file.
+     *
+     * @param historyFile
+     *          The history file the changes were appended to
+     * @param changes
+     *          The appended changes, which must not be modified afterwards
+     * @param recordLengths
+     *          The byte lengths of the stored records of the appended revisions, or <code>null</code> if
+     *          unknown
+     * @param appendMillis
+     *          The time (in milliseconds) taken by the append
+     */
+    public void record(@Nonnull HistoryFile historyFile, @Nonnull ChangeHistory changes,
+            @Nullable int[] recordLengths, long appendMillis) {
+        final long submitTime = System.nanoTime();
+        final boolean fullDump = fullDumpEnabled;
+        try {
+            executorService.execute(() -> {
+                try {
+                    write(historyFile, changes, recordLengths, appendMillis, submitTime, fullDump);
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Unable to write the audit entries of " + historyFile.getName(), e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting new entries. The entries already scheduled are still written.
+     */
+    public void dispose() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Waits until the scheduled entries are written after {@link #dispose()}.
+     *
+     * @return <code>false</code> if the timeout elapsed before
+     */
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+
+    private void write(HistoryFile historyFile, ChangeHistory changes, int[] recordLengths, long appendMillis,
+            long submitTime, boolean fullDump) {
+        long dropped = droppedCount.get();
+        if (dropped > reportedDropCount) {
+            sink.accept("dropped=" + (dropped - reportedDropCount));
+            reportedDropCount = dropped;
+        }
+        String project = getProjectName(historyFile);
+        long queueMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitTime);
+        int index = 0;
+        for (DocumentRevision current = changes.getBaseRevision().next();
+                current.behindOrSameAs(changes.getHeadRevision()); current = current.next(), index++) {
+            int recordLength = (recordLengths != null && index < recordLengths.length)
+                    ? recordLengths[index] : UNKNOWN_LENGTH;
+            sink.accept(formatEntry(project, current, changes.getMetadataForRevision(current),
+                    changes.getChangesForRevision(current), recordLength, appendMillis, queueMillis));
+        }
+        if (fullDump) {
+            sink.accept("project=" + project + " revisions=" + changes.getBaseRevision().next() + ".."
+                    + changes.getHeadRevision() + " dump=\n" + changes.toString());
+        }
+    }
+
+    static String formatEntry(String project, DocumentRevision revision, @Nullable RevisionMetadata metadata,
+            @Nullable List<OWLOntologyChange> changes, int recordLength, long appendMillis, long queueMillis) {
+        Map<String, Integer> changeTypes = new TreeMap<>();
+        if (changes != null) {
+            for (OWLOntologyChange change : changes) {
+                changeTypes.merge(change.getClass().getSimpleName(), 1, Integer::sum);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("project=").append(project);
+        sb.append(" revision=").append(revision.getRevisionNumber());
+        sb.append(" author=").append((metadata != null) ? metadata.getAuthorId() : "");
+        sb.append(" changes=").append((changes != null) ? changes.size() : 0);
+        sb.append(" types=");
+        boolean needSeparator = false;
+        for (Map.Entry<String, Integer> changeType : changeTypes.entrySet()) {
+            if (needSeparator) {
+                sb.append(",");
+            }
+            sb.append(changeType.getKey()).append(":").append(changeType.getValue());
+            needSeparator = true;
+        }
+        if (recordLength != UNKNOWN_LENGTH) {
+            sb.append(" bytes=").append(recordLength);
+        }
+        sb.append(" append_ms=").append(appendMillis);
+        sb.append(" queue_ms=").append(queueMillis);
+        return sb.toString();
+    }
+
+    /*
+     * The history file of a project is stored in the directory named after the project id.
+     */
+    private static String getProjectName(HistoryFile historyFile) {
+        File directory = historyFile.getAbsoluteFile().getParentFile();
+        return (directory != null) ? directory.getName() : historyFile.getName();
+    }
+}
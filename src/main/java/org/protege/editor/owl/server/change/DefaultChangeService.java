@@ -2,7 +2,8 @@ package org.protege.editor.owl.server.change;
 
 import org.protege.editor.owl.server.api.ChangeService;
 import org.protege.editor.owl.server.api.exception.ServerServiceException;
-import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.Checkpoint;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
@@ -21,31 +22,63 @@ public class DefaultChangeService implements ChangeService {
     @Override
     public ChangeHistory getChanges(HistoryFile historyFile, DocumentRevision startRevision,
             DocumentRevision endRevision) throws ServerServiceException {
-        ChangeHistory changeHistory = getChangeHistory(historyFile);
-        return ChangeHistoryUtils.crop(changeHistory, startRevision, endRevision);
+        try {
+            return changePool.lookup(historyFile, startRevision, endRevision);
+        }
+        catch (IOException e) {
+            throw new ServerServiceException("Error while getting the change history at the server", e);
+        }
     }
 
     @Override
-    public DocumentRevision getHeadRevision(HistoryFile historyFile) throws ServerServiceException {
+    public HistoryFileRange getChangesRange(HistoryFile historyFile, DocumentRevision startRevision,
+            DocumentRevision endRevision) throws ServerServiceException {
         try {
-            return changePool.lookupHead(historyFile);
+            return changePool.lookupRange(historyFile, startRevision, endRevision);
         }
         catch (IOException e) {
-            throw new ServerServiceException("Error while getting head revision at the server", e);
+            throw new ServerServiceException("Error while locating the change history at the server", e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cost is measured in bytes, using the size of the checkpoint file and the size of the change
+     * records in the history file. No checkpoint is selected if the history file has no index.
+     */
     @Override
-    public void clearHistoryCacheEntry(@Nonnull HistoryFile historyFile) {
-        changePool.clearHistoryCacheEntry(historyFile);
+    public Checkpoint selectCheckpoint(HistoryFile historyFile, DocumentRevision startRevision,
+            DocumentRevision endRevision) throws ServerServiceException {
+        Checkpoint checkpoint = Checkpoint.findNearest(historyFile, endRevision);
+        if (checkpoint == null || !checkpoint.getRevision().aheadOf(startRevision)) {
+            return null;
+        }
+        try {
+            HistoryFileRange changeRange = changePool.lookupRange(historyFile, startRevision, endRevision);
+            HistoryFileRange tailRange = changePool.lookupRange(historyFile, checkpoint.getRevision(), endRevision);
+            if (changeRange == null || tailRange == null) {
+                return null;
+            }
+            return (checkpoint.getLength() + tailRange.getLength() < changeRange.getLength()) ? checkpoint : null;
+        }
+        catch (IOException e) {
+            throw new ServerServiceException("Error while selecting a checkpoint at the server", e);
+        }
     }
 
-    private ChangeHistory getChangeHistory(HistoryFile historyFile) throws ServerServiceException {
+    @Override
+    public DocumentRevision getHeadRevision(HistoryFile historyFile) throws ServerServiceException {
         try {
-            return changePool.lookup(historyFile);
+            return changePool.lookupHead(historyFile);
         }
         catch (IOException e) {
-            throw new ServerServiceException("Error while getting the change history at the server", e);
+            throw new ServerServiceException("Error while getting head revision at the server", e);
         }
     }
+
+    @Override
+    public void clearHistoryCacheEntry(@Nonnull HistoryFile historyFile) {
+        changePool.clearHistoryCacheEntry(historyFile);
+    }
 }
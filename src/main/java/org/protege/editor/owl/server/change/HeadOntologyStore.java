@@ -0,0 +1,326 @@
+package org.protege.editor.owl.server.change;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+
+import edu.stanford.protege.metaproject.api.ProjectId;
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.http.exception.ServerException;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.Checkpoint;
+import org.protege.editor.owl.server.versioning.InvalidHistoryFileException;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps an in-memory ontology at the head revision for the selected projects. The ontology of a
+ * project is built from the stored snapshot and the change history the first time it is requested,
+ * and it is advanced by {@link #advance(ProjectId)} after every successful commit. The
+ * {@link CheckpointWriter} writes the checkpoints of these projects from their head ontology instead
+ * of building it again from the previous checkpoint.
+ * <p>
+ * The memory held by the ontologies is measured in axioms. The weight is checked after loading the
+ * snapshot and after every {@link #UPDATE_BATCH_SIZE} revisions applied, so that an ontology exceeding
+ * the maximum weight is released before the whole history has been applied. It is built again on the
+ * next request.
+ */
+public class HeadOntologyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeadOntologyStore.class);
+
+    public static final long UNLIMITED_WEIGHT = 0;
+
+    public static final int UPDATE_BATCH_SIZE = 1000;
+
+    private final ServerLayer serverLayer;
+
+    private final ChangeDocumentPool changePool;
+
+    private final Set<String> projectIds;
+
+    private final long maxWeight;
+
+    private final ConcurrentMap<String, HeadOntology> headOntologies = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalWeight = new AtomicLong();
+
+    /**
+     * @param serverLayer
+     *          The server layer that stores the project snapshots
+     * @param changePool
+     *          The change document pool that holds the project histories
+     * @param projectIds
+     *          The identifiers of the projects whose head ontology is kept in memory
+     * @param maxWeight
+     *          The maximum number of axioms kept in memory, or {@link #UNLIMITED_WEIGHT}
+     */
+    public HeadOntologyStore(@Nonnull ServerLayer serverLayer, @Nonnull ChangeDocumentPool changePool,
+            @Nonnull Collection<String> projectIds, long maxWeight) {
+        this.serverLayer = serverLayer;
+        this.changePool = changePool;
+        this.projectIds = ConcurrentHashMap.newKeySet();
+        this.projectIds.addAll(projectIds);
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns <code>true</code> if the head ontology of the project is kept by this store.
+     */
+    public boolean isEnabled(@Nonnull ProjectId projectId) {
+        return projectIds.contains(projectId.get());
+    }
+
+    /**
+     * Returns <code>true</code> if the head ontology of the project is currently in memory.
+     */
+    public boolean isLoaded(@Nonnull ProjectId projectId) {
+        HeadOntology headOntology = headOntologies.get(projectId.get());
+        return headOntology != null && headOntology.ontology != null;
+    }
+
+    /**
+     * Applies the revisions committed since the last update to the head ontology of the project. Nothing
+     * happens if the head ontology is not in memory, since it is built up to date on the next request.
+     */
+    public void advance(@Nonnull ProjectId projectId) throws IOException {
+        HeadOntology headOntology = headOntologies.get(projectId.get());
+        if (headOntology == null) {
+            return;
+        }
+        headOntology.lock.writeLock().lock();
+        try {
+            if (headOntology.ontology != null) {
+                update(projectId, headOntology);
+            }
+        }
+        finally {
+            headOntology.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the head ontology of the project using the given <code>reader</code>. The ontology must not
+     * be modified or used outside of the reader, since it is advanced concurrently by commits.
+     *
+     * @throws IOException If the head ontology cannot be built, or if thrown by the reader
+     * @throws IllegalArgumentException If the project is not enabled in this store
+     */
+    public <T> T read(@Nonnull ProjectId projectId, @Nonnull Reader<T> reader) throws IOException {
+        if (!isEnabled(projectId)) {
+            throw new IllegalArgumentException("The head ontology of project " + projectId.get() + " is not enabled");
+        }
+        HeadOntology headOntology = headOntologies.computeIfAbsent(projectId.get(), id -> new HeadOntology());
+        headOntology.lock.writeLock().lock();
+        try {
+            if (headOntology.ontology == null) {
+                load(projectId, headOntology);
+            }
+            else {
+                update(projectId, headOntology);
+            }
+            headOntology.lock.readLock().lock(); // downgrade to a read lock
+        }
+        finally {
+            headOntology.lock.writeLock().unlock();
+        }
+        try {
+            return reader.read(headOntology.revision, headOntology.ontology);
+        }
+        finally {
+            headOntology.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the revision of the head ontology in memory, or <code>null</code> if it is not loaded.
+     */
+    public DocumentRevision getRevision(@Nonnull ProjectId projectId) {
+        HeadOntology headOntology = headOntologies.get(projectId.get());
+        return (headOntology != null) ? headOntology.revision : null;
+    }
+
+    /**
+     * Writes the head ontology of the project as the checkpoint of its history file, at the revision
+     * the head ontology has been advanced to.
+     *
+     * @throws IOException If the head ontology cannot be built or written
+     */
+    public Checkpoint writeCheckpoint(@Nonnull ProjectId projectId) throws IOException {
+        HistoryFile historyFile = getHistoryFile(projectId);
+        return read(projectId, (revision, ontology) -> Checkpoint.write(historyFile, revision, ontology));
+    }
+
+    /**
+     * Releases the head ontology of the project. It is built again on the next request.
+     */
+    public void unload(@Nonnull ProjectId projectId) {
+        HeadOntology headOntology = headOntologies.get(projectId.get());
+        if (headOntology == null) {
+            return;
+        }
+        headOntology.lock.writeLock().lock();
+        try {
+            release(headOntology);
+        }
+        finally {
+            headOntology.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Discards the head ontology of the project after its snapshot has been replaced, e.g., by a squash.
+     * The revisions of the new history do not apply to the previous ontology, even when the new head
+     * revision is ahead of it, hence the ontology is built again from the new snapshot on the next request.
+     */
+    public void invalidate(@Nonnull ProjectId projectId) {
+        logger.info("Discarding the head ontology of project " + projectId.get() + " as its snapshot has changed");
+        unload(projectId);
+    }
+
+    /**
+     * Returns the number of axioms in the head ontology of the project, or 0 if it is not loaded.
+     */
+    public long getWeight(@Nonnull ProjectId projectId) {
+        HeadOntology headOntology = headOntologies.get(projectId.get());
+        return (headOntology != null) ? headOntology.weight : 0;
+    }
+
+    /**
+     * Returns the number of axioms of all the head ontologies in memory.
+     */
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+
+    public void dispose() {
+        for (HeadOntology headOntology : headOntologies.values()) {
+            headOntology.lock.writeLock().lock();
+            try {
+                release(headOntology);
+            }
+            finally {
+                headOntology.lock.writeLock().unlock();
+            }
+        }
+        headOntologies.clear();
+    }
+
+    /*
+     * The snapshot holds the ontology at the base of the change history, hence the whole history is
+     * applied on top of it.
+     */
+    private void load(ProjectId projectId, HeadOntology headOntology) throws IOException {
+        if (maxWeight != UNLIMITED_WEIGHT && totalWeight.get() >= maxWeight) {
+            throw new IOException("No memory budget left for the head ontology of project " + projectId.get());
+        }
+        logger.info("Building the head ontology of project " + projectId.get());
+        long startTime = System.currentTimeMillis();
+        try {
+            headOntology.ontology = serverLayer.loadProjectSnapshot(projectId);
+            headOntology.revision = DocumentRevision.START_REVISION;
+            setWeight(headOntology, headOntology.ontology.getAxiomCount());
+            checkWeight(projectId, headOntology);
+            update(projectId, headOntology);
+        }
+        catch (OWLOntologyCreationException | ServerException e) {
+            release(headOntology);
+            throw new IOException("Unable to load the snapshot of project " + projectId.get(), e);
+        }
+        catch (IOException | RuntimeException e) {
+            release(headOntology);
+            throw e;
+        }
+        logger.info("... success in " + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds ("
+                + headOntology.weight + " axioms)");
+    }
+
+    private void update(ProjectId projectId, HeadOntology headOntology) throws IOException {
+        HistoryFile historyFile = getHistoryFile(projectId);
+        DocumentRevision headRevision = changePool.lookupHead(historyFile);
+        if (headRevision.behind(headOntology.revision)) {
+            release(headOntology); // the history has been replaced without invalidating this store
+            load(projectId, headOntology);
+            return;
+        }
+        OWLOntology ontology = headOntology.ontology;
+        while (headRevision.aheadOf(headOntology.revision)) {
+            DocumentRevision end = DocumentRevision.create(Math.min(headRevision.getRevisionNumber(),
+                    headOntology.revision.getRevisionNumber() + UPDATE_BATCH_SIZE));
+            ChangeHistory changes = changePool.lookup(historyFile, headOntology.revision, end);
+            List<OWLOntologyChange> ontologyChanges = ChangeHistoryUtils.getOntologyChanges(changes, ontology);
+            ontology.getOWLOntologyManager().applyChanges(ontologyChanges);
+            headOntology.revision = end;
+            setWeight(headOntology, ontology.getAxiomCount());
+            checkWeight(projectId, headOntology);
+        }
+    }
+
+    private void checkWeight(ProjectId projectId, HeadOntology headOntology) throws IOException {
+        if (maxWeight != UNLIMITED_WEIGHT && totalWeight.get() > maxWeight) {
+            logger.warn("Releasing the head ontology of project " + projectId.get() + " (" + headOntology.weight
+                    + " axioms) to stay within the maximum weight of " + maxWeight + " axioms");
+            release(headOntology);
+            throw new IOException("The head ontology of project " + projectId.get() + " exceeds the memory budget");
+        }
+    }
+
+    private HistoryFile getHistoryFile(ProjectId projectId) throws IOException {
+        try {
+            return HistoryFile.openExisting(serverLayer.getHistoryFilePath(projectId));
+        }
+        catch (InvalidHistoryFileException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void setWeight(HeadOntology headOntology, long weight) {
+        totalWeight.addAndGet(weight - headOntology.weight);
+        headOntology.weight = weight;
+    }
+
+    private void release(HeadOntology headOntology) {
+        if (headOntology.ontology != null) {
+            headOntology.ontology.getOWLOntologyManager().removeOntology(headOntology.ontology);
+        }
+        headOntology.ontology = null;
+        headOntology.revision = null;
+        setWeight(headOntology, 0);
+    }
+
+    /**
+     * Reads the head ontology of a project at the given revision.
+     */
+    @FunctionalInterface
+    public interface Reader<T> {
+
+        T read(@Nonnull DocumentRevision revision, @Nonnull OWLOntology ontology) throws IOException;
+    }
+
+    /*
+     * The fields are guarded by the lock.
+     */
+    private static class HeadOntology {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private volatile OWLOntology ontology;
+
+        private volatile DocumentRevision revision;
+
+        private volatile long weight;
+    }
+}
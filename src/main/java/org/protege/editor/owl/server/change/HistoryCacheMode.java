@@ -0,0 +1,38 @@
+package org.protege.editor.owl.server.change;
+
+import javax.annotation.Nullable;
+
+/**
+ * Represents the strategies for keeping a change history in the {@link ChangeDocumentPool}.
+ */
+public enum HistoryCacheMode {
+
+    /**
+     * Decodes the whole history file and keeps all revisions in memory.
+     */
+    FULL,
+
+    /**
+     * Maps the history file into memory and only decodes the requested revisions.
+     */
+    MAPPED,
+
+    /**
+     * Maps the history file into memory like {@link #MAPPED}, and keeps the most recent revisions
+     * decoded in memory. The older revisions are decoded when they are requested.
+     */
+    TAIL;
+
+    /**
+     * Returns the cache mode with the given (case-insensitive) name, or {@link #FULL} if the name
+     * is not set.
+     *
+     * @throws IllegalArgumentException If the name is not a valid cache mode
+     */
+    public static HistoryCacheMode fromString(@Nullable String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return FULL;
+        }
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,280 @@
+package org.protege.editor.owl.server.change;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import edu.stanford.protege.metaproject.api.ProjectId;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recent head revision changes of all projects and notifies the subscribers of the new
+ * ones, so that clients can wait for new revisions instead of polling the head revision.
+ * <p>
+ * Every event has a cursor. A subscriber that reconnects with the cursor of the last event it has seen
+ * receives the events it has missed, as long as they are still retained. The cursors include the start
+ * time of this log, hence the cursors given out before a server restart are recognized as lost.
+ * <p>
+ * Publishing an event only records it: the subscribers are notified in the order of the events by the
+ * dispatch executor, hence a commit never waits for the subscribers.
+ */
+public class RevisionEventLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevisionEventLog.class);
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private final int capacity;
+
+    private final long epoch = System.currentTimeMillis();
+
+    private final Deque<Event> events = new ArrayDeque<>();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private long lastSequence = 0;
+
+    /*
+     * The events published but not yet dispatched, guarded by this log
+     */
+    private final Deque<Event> pendingEvents = new ArrayDeque<>();
+
+    private final Executor dispatchExecutor;
+
+    private final ExecutorService ownExecutor;
+
+    private final Object dispatchLock = new Object();
+
+    public RevisionEventLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *          The number of most recent events kept for resuming subscribers
+     */
+    public RevisionEventLog(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity
+     *          The number of most recent events kept for resuming subscribers
+     * @param dispatchExecutor
+     *          The executor that notifies the subscribers, or <code>null</code> to use a thread of this log
+     */
+    public RevisionEventLog(int capacity, @Nullable Executor dispatchExecutor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        if (dispatchExecutor == null) {
+            ownExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "Revision Event Dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.dispatchExecutor = ownExecutor;
+        }
+        else {
+            ownExecutor = null;
+            this.dispatchExecutor = dispatchExecutor;
+        }
+    }
+
+    /**
+     * Records the new head revision of the project. The subscribers are notified afterwards by the
+     * dispatch executor.
+     */
+    public Event publish(@Nonnull ProjectId projectId, @Nonnull DocumentRevision headRevision) {
+        Event event;
+        synchronized (this) {
+            event = new Event(++lastSequence, projectId.get(), headRevision);
+            events.addLast(event);
+            if (events.size() > capacity) {
+                events.removeFirst();
+            }
+            pendingEvents.addLast(event);
+        }
+        try {
+            dispatchExecutor.execute(this::dispatch);
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Revision " + event + " not dispatched, the event log has been disposed");
+        }
+        return event;
+    }
+
+    /*
+     * Notifies the subscribers of the pending events. The events are taken one at a time under the
+     * dispatch lock, hence they are dispatched in order even if the executor runs several dispatches at
+     * once. A subscriber only receives the events published after it subscribed, the others have been
+     * replayed to it on subscription.
+     */
+    private void dispatch() {
+        synchronized (dispatchLock) {
+            Event event;
+            while ((event = nextPendingEvent()) != null) {
+                for (Subscription subscription : subscriptions) {
+                    if (event.getSequence() > subscription.startSequence) {
+                        try {
+                            subscription.listener.revisionCommitted(event);
+                        }
+                        catch (RuntimeException e) {
+                            logger.warn("Unable to notify a subscriber of revision " + event, e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized Event nextPendingEvent() {
+        return pendingEvents.pollFirst();
+    }
+
+    /**
+     * Adds the listener and replays to it the events published after the given <code>cursor</code>.
+     * Without a cursor the listener only receives the new events. If the events after the cursor are
+     * no longer retained, the listener is told so with the cursor to continue from.
+     * <p>
+     * The events are replayed while this log is locked, hence the listener must not block.
+     */
+    public synchronized void subscribe(@Nullable String cursor, @Nonnull Listener listener) {
+        if (cursor != null && !cursor.isEmpty()) {
+            long sequence = parseCursor(cursor);
+            Event oldest = events.peekFirst();
+            long oldestSequence = (oldest != null) ? oldest.getSequence() : lastSequence + 1;
+            if (sequence < 0 || sequence > lastSequence || sequence < oldestSequence - 1) {
+                listener.eventsLost(toCursor(lastSequence));
+            }
+            else {
+                for (Event event : events) {
+                    if (event.getSequence() > sequence) {
+                        listener.revisionCommitted(event);
+                    }
+                }
+            }
+        }
+        subscriptions.add(new Subscription(listener, lastSequence));
+    }
+
+    public void unsubscribe(@Nonnull Listener listener) {
+        subscriptions.removeIf(subscription -> subscription.listener == listener);
+    }
+
+    /**
+     * Returns the cursor of the last published event.
+     */
+    public synchronized String getLastCursor() {
+        return toCursor(lastSequence);
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops the thread that notifies the subscribers, if this log owns it.
+     */
+    public void dispose() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    private String toCursor(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    /*
+     * Returns -1 if the cursor was not given out by this log.
+     */
+    private long parseCursor(String cursor) {
+        int separator = cursor.indexOf('-');
+        if (separator < 0) {
+            return -1;
+        }
+        try {
+            if (Long.parseLong(cursor.substring(0, separator)) != epoch) {
+                return -1;
+            }
+            return Long.parseLong(cursor.substring(separator + 1));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * A listener and the sequence of the last event published before it subscribed
+     */
+    private static class Subscription {
+
+        private final Listener listener;
+
+        private final long startSequence;
+
+        private Subscription(Listener listener, long startSequence) {
+            this.listener = listener;
+            this.startSequence = startSequence;
+        }
+    }
+
+    public interface Listener {
+
+        void revisionCommitted(@Nonnull Event event);
+
+        /**
+         * Called on subscription when some of the events after the requested cursor are no longer
+         * retained. The subscriber should fetch the head revisions of its projects again.
+         */
+        void eventsLost(@Nonnull String cursor);
+    }
+
+    public class Event {
+
+        private final long sequence;
+
+        private final String projectId;
+
+        private final DocumentRevision headRevision;
+
+        private Event(long sequence, String projectId, DocumentRevision headRevision) {
+            this.sequence = sequence;
+            this.projectId = projectId;
+            this.headRevision = headRevision;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getCursor() {
+            return toCursor(sequence);
+        }
+
+        public String getProjectId() {
+            return projectId;
+        }
+
+        public DocumentRevision getHeadRevision() {
+            return headRevision;
+        }
+
+        @Override
+        public String toString() {
+            return projectId + " " + headRevision.getRevisionNumber();
+        }
+    }
+}
@@ -35,10 +35,13 @@ public class ConflictDetectionFilter extends ServerFilterAdapter {
     }
 
     @Override
-    public synchronized ChangeHistory commit(AuthToken token, ProjectId projectId, CommitBundle commitBundle)
+    public ChangeHistory commit(AuthToken token, ProjectId projectId, CommitBundle commitBundle)
             throws AuthorizationException, OutOfSyncException, ServerServiceException {
         try {
-            // TODO: head revision is checked here, but another thread may already be proceeding to do a commit
+            /*
+             * Rejects the outdated commits early. The head revision is checked again atomically per
+             * project when the changes are queued for writing, see ChangeDocumentPool#commitChanges.
+             */
             String projectFilePath = getHistoryFilePath(projectId);
             HistoryFile historyFile = HistoryFile.openExisting(projectFilePath);
             DocumentRevision serverHeadRevision = changeService.getHeadRevision(historyFile);
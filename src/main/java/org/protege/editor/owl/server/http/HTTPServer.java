@@ -5,13 +5,13 @@ import edu.stanford.protege.metaproject.ConfigurationManager;
 import edu.stanford.protege.metaproject.api.*;
 import edu.stanford.protege.metaproject.api.exception.ObjectConversionException;
 import edu.stanford.protege.metaproject.api.exception.UnknownRoleIdException;
+import edu.stanford.protege.metaproject.impl.ProjectIdImpl;
 import edu.stanford.protege.metaproject.impl.RoleIdImpl;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
 import io.undertow.UndertowOptions;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.BlockingHandler;
 import io.undertow.server.handlers.GracefulShutdownHandler;
 import io.undertow.server.handlers.resource.PathResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
@@ -22,7 +22,11 @@ import org.protege.editor.owl.server.api.ServerLayer;
 import org.protege.editor.owl.server.base.ProtegeServer;
 import org.protege.editor.owl.server.change.ChangeDocumentPool;
 import org.protege.editor.owl.server.change.ChangeManagementFilter;
+import org.protege.editor.owl.server.change.CheckpointWriter;
 import org.protege.editor.owl.server.change.DefaultChangeService;
+import org.protege.editor.owl.server.change.HeadOntologyStore;
+import org.protege.editor.owl.server.change.HistoryCacheMode;
+import org.protege.editor.owl.server.change.RevisionEventLog;
 import org.protege.editor.owl.server.conflict.ConflictDetectionFilter;
 import org.protege.editor.owl.server.http.exception.ServerConfigurationInitializationException;
 import org.protege.editor.owl.server.http.exception.ServerException;
@@ -31,6 +35,9 @@ import org.protege.editor.owl.server.policy.AccessControlFilter;
 import org.protege.editor.owl.server.security.DefaultLoginService;
 import org.protege.editor.owl.server.security.LoginTimeoutException;
 import org.protege.editor.owl.server.security.SSLContextFactory;
+import org.protege.editor.owl.server.versioning.InvalidHistoryFileException;
+import org.protege.editor.owl.server.versioning.RevisionRecordCache;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +47,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URI;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.protege.editor.owl.server.http.ServerEndpoints.*;
 import static org.protege.editor.owl.server.http.ServerProperties.*;
@@ -53,6 +72,8 @@ public final class HTTPServer {
 
 	private static Logger logger = LoggerFactory.getLogger(HTTPServer.class);
 
+	private static final long STOP_TIMEOUT = 30 * 1000; // 30 secs
+
 	private final String configurationFilePath;
 
 	private final TokenTable loginTokenTable;
@@ -66,6 +87,26 @@ public final class HTTPServer {
 	private GracefulShutdownHandler adminRouterHandler;
 
 	private boolean isRunning = false;
+
+	private volatile boolean isReady = false;
+
+	private ChangeDocumentPool changePool;
+
+	private HeadOntologyStore headOntologies;
+
+	private CheckpointWriter checkpointWriter;
+
+	private RevisionEventLog revisionEvents;
+
+	private RevisionEventHandler revisionEventHandler;
+
+	private ExecutorService lightExecutor;
+	private ExecutorService commitExecutor;
+	private ExecutorService bulkExecutor;
+
+	private final ExecutorService lifecycleExecutor = createLifecycleExecutor();
+
+	private long maxEntitySize = ExecutorDispatchHandler.UNLIMITED;
 	
 	private Optional<User> pausedUser = Optional.absent();
 
@@ -73,6 +114,17 @@ public final class HTTPServer {
 
 	public boolean isPaused() { return pausedUser.isPresent(); }
 
+	/**
+	 * Returns <code>true</code> once the server has started and the configured change histories
+	 * have been loaded into memory.
+	 */
+	public boolean isReady() { return isReady; }
+
+	/**
+	 * Returns the pool of the change histories, or <code>null</code> if the server is not running.
+	 */
+	public ChangeDocumentPool getChangeDocumentPool() { return changePool; }
+
 	public boolean isPausingUser(User user) {
 		if (!pausedUser.isPresent()) {
 			return false;
@@ -161,12 +213,29 @@ public final class HTTPServer {
 		/*
 		 * Instantiate Protege server modules
 		 */
-		ChangeDocumentPool changePool = new ChangeDocumentPool();
-		ChangeService changeService = new DefaultChangeService(changePool);
 		ProtegeServer pserver = new ProtegeServer(serverConfiguration);
-		ServerLayer cmf = new ChangeManagementFilter(pserver, changePool);
+		changePool = createChangeDocumentPool(pserver);
+		ChangeService changeService = new DefaultChangeService(changePool);
+		headOntologies = createHeadOntologyStore(pserver, changePool);
+		checkpointWriter = createCheckpointWriter(pserver, changePool, headOntologies);
+		revisionEvents = new RevisionEventLog((int) Math.max(1,
+				getLongProperty(REVISION_EVENTS_CAPACITY, RevisionEventLog.DEFAULT_CAPACITY)));
+		ServerLayer cmf = new ChangeManagementFilter(pserver, changePool, headOntologies, checkpointWriter,
+				revisionEvents);
 		ServerLayer acf = new AccessControlFilter(new ConflictDetectionFilter(cmf, changeService));
 		
+		/*
+		 * Instantiate the executors that run the requests. Light metadata calls, commits and bulk
+		 * transfers each have their own threads so that long downloads cannot hold up polling.
+		 */
+		maxEntitySize = getLongProperty(SERVER_MAX_ENTITY_SIZE, DEFAULT_MAX_ENTITY_SIZE);
+		if (maxEntitySize <= 0) {
+			maxEntitySize = ExecutorDispatchHandler.UNLIMITED;
+		}
+		lightExecutor = createExecutor("Light Request", SERVER_LIGHT_THREADS, DEFAULT_LIGHT_THREADS);
+		commitExecutor = createExecutor("Commit Request", SERVER_COMMIT_THREADS, DEFAULT_COMMIT_THREADS);
+		bulkExecutor = createExecutor("Bulk Request", SERVER_BULK_THREADS, DEFAULT_BULK_THREADS);
+
 		/*
 		 * Instantiate and setup HTTP routing handlers
 		 */
@@ -181,48 +250,54 @@ public final class HTTPServer {
 		
 		loginService.setBackup(adminLoginService);
 		
-		HttpHandler login_handler = new BlockingHandler(new HTTPLoginService(loginService));
+		HttpHandler login_handler = new HTTPLoginService(loginService);
 		
-		webRouter.add("POST", LOGIN, login_handler);
+		webRouter.add("POST", LOGIN, light(login_handler));
 		
 		
 		adminLoginService.setConfig(serverConfiguration);
-		HttpHandler admin_login_handler = new BlockingHandler(new HTTPLoginService(adminLoginService));
+		HttpHandler admin_login_handler = new HTTPLoginService(adminLoginService);
 		
-		adminRouter.add("POST", LOGIN, admin_login_handler);
+		adminRouter.add("POST", LOGIN, light(admin_login_handler));
 		
 		// create change service handler
-		HttpHandler changeServiceHandler = new AuthenticationHandler(new BlockingHandler(new HTTPChangeService(acf, changeService)));
-		webRouter.add("POST", COMMIT,  changeServiceHandler);
-		webRouter.add("POST", HEAD,  changeServiceHandler);
-		webRouter.add("POST", LATEST_CHANGES,  changeServiceHandler);
-		webRouter.add("POST", ALL_CHANGES,  changeServiceHandler);
-		webRouter.add("POST", SQUASH, changeServiceHandler);
+		HttpHandler changeServiceHandler = new AuthenticationHandler(new HTTPChangeService(acf, changeService));
+		webRouter.add("POST", COMMIT,  commit(changeServiceHandler));
+		webRouter.add("POST", HEAD,  light(changeServiceHandler));
+		webRouter.add("POST", LATEST_CHANGES,  bulk(changeServiceHandler));
+		webRouter.add("POST", ALL_CHANGES,  bulk(changeServiceHandler));
+		webRouter.add("POST", CHECKPOINT,  bulk(changeServiceHandler));
+		webRouter.add("POST", SQUASH, commit(changeServiceHandler));
+
+		// create revision push handler, the subscriptions are resolved on the light executor and the event
+		// stream is written asynchronously on the I/O threads
+		revisionEventHandler = new RevisionEventHandler(acf, revisionEvents);
+		webRouter.add("GET", REVISION_EVENTS, light(new AuthenticationHandler(revisionEventHandler)));
 		
 		// create code generator handler
-		HttpHandler codeGenHandler = new AuthenticationHandler(new BlockingHandler(new CodeGenHandler(serverConfiguration)));
-		webRouter.add("GET", GEN_CODE, codeGenHandler);
-		webRouter.add("POST", SET_CODEGEN_SEQ, codeGenHandler);
-		webRouter.add("POST", EVS_REC, codeGenHandler);
-		webRouter.add("GET", EVS_CHECK_CREATE, codeGenHandler);
-		webRouter.add("GET", GEN_CON_HIST, codeGenHandler);
-		webRouter.add("POST", EVS_HIST, codeGenHandler);
+		HttpHandler codeGenHandler = new AuthenticationHandler(new CodeGenHandler(serverConfiguration));
+		webRouter.add("GET", GEN_CODE, light(codeGenHandler));
+		webRouter.add("POST", SET_CODEGEN_SEQ, light(codeGenHandler));
+		webRouter.add("POST", EVS_REC, light(codeGenHandler));
+		webRouter.add("GET", EVS_CHECK_CREATE, light(codeGenHandler));
+		webRouter.add("GET", GEN_CON_HIST, bulk(codeGenHandler));
+		webRouter.add("POST", EVS_HIST, bulk(codeGenHandler));
 		
 		
 		// create mataproject handler
-		HttpHandler metaprojectHandler = new AuthenticationHandler(new BlockingHandler(new MetaprojectHandler(pserver)));
-		webRouter.add("GET", METAPROJECT, metaprojectHandler);
-		webRouter.add("GET", PROJECT,  metaprojectHandler);
-		webRouter.add("GET", PROJECT_SNAPSHOT,  metaprojectHandler);
-		webRouter.add("GET", PROJECTS, metaprojectHandler);
-		webRouter.add("GET", PROJECTS_UNCLASSIFIED, metaprojectHandler);
-		webRouter.add("GET", SERVER_STATUS, metaprojectHandler);
-
-		adminRouter.add("GET", METAPROJECT, metaprojectHandler);
-		adminRouter.add("POST", METAPROJECT, metaprojectHandler);
-		adminRouter.add("POST", PROJECT,  metaprojectHandler);
-		adminRouter.add("POST", PROJECT_SNAPSHOT,  metaprojectHandler);
-		adminRouter.add("DELETE", PROJECT,  metaprojectHandler);
+		HttpHandler metaprojectHandler = new AuthenticationHandler(new MetaprojectHandler(pserver));
+		webRouter.add("GET", METAPROJECT, light(metaprojectHandler));
+		webRouter.add("GET", PROJECT,  light(metaprojectHandler));
+		webRouter.add("GET", PROJECT_SNAPSHOT,  bulk(metaprojectHandler));
+		webRouter.add("GET", PROJECTS, light(metaprojectHandler));
+		webRouter.add("GET", PROJECTS_UNCLASSIFIED, light(metaprojectHandler));
+		webRouter.add("GET", SERVER_STATUS, light(metaprojectHandler));
+
+		adminRouter.add("GET", METAPROJECT, light(metaprojectHandler));
+		adminRouter.add("POST", METAPROJECT, commit(metaprojectHandler));
+		adminRouter.add("POST", PROJECT,  commit(metaprojectHandler));
+		adminRouter.add("POST", PROJECT_SNAPSHOT,  commit(metaprojectHandler));
+		adminRouter.add("DELETE", PROJECT,  commit(metaprojectHandler));
 		
 		ResourceHandler rh = Handlers.resource(
 				new PathResourceManager(Paths.get(serverConfiguration.getServerRoot()), 100, false, null))
@@ -234,13 +309,16 @@ public final class HTTPServer {
    
 		
 		// create server handler
-		AuthenticationHandler serverHandler = new AuthenticationHandler(new BlockingHandler(new HTTPServerHandler()));
-		adminRouter.add("POST", SERVER_RESTART, serverHandler);
-		adminRouter.add("POST", SERVER_STOP, serverHandler);
-		adminRouter.add("POST", SERVER_SHUTDOWN, serverHandler);
+		AuthenticationHandler serverHandler = new AuthenticationHandler(new HTTPServerHandler());
+		adminRouter.add("POST", SERVER_RESTART, commit(serverHandler));
+		adminRouter.add("POST", SERVER_STOP, commit(serverHandler));
+		adminRouter.add("POST", SERVER_SHUTDOWN, commit(serverHandler));
 		
-		webRouter.add("GET", SERVER_PAUSE, serverHandler);
-		webRouter.add("GET", SERVER_RESUME, serverHandler);
+		webRouter.add("GET", SERVER_PAUSE, light(serverHandler));
+		webRouter.add("GET", SERVER_RESUME, light(serverHandler));
+		
+		// readiness probe for load balancers, no authentication required
+		webRouter.add("GET", SERVER_READY, new HTTPServerHandler());
 
 		
 		// Build the servers
@@ -252,40 +330,162 @@ public final class HTTPServer {
 		final int serverAdminPort = serverConfiguration.getHost().getSecondaryPort().get().get();
 		if (serverHostUri.getScheme().equalsIgnoreCase("https")) {
 			SSLContext ctx = new SSLContextFactory().createSslContext();
-			webServer = Undertow.builder()
+			webServer = createServerBuilder()
 					.addHttpsListener(serverHostUri.getPort(), serverHostUri.getHost(), ctx)
-					.setServerOption(UndertowOptions.ALWAYS_SET_DATE, true)
 					.setHandler(webRouterHandler)
 					.build();
 			webServer.start();
 			logger.info("... Web server has started at port " + serverHostUri.getPort());
 			
-			adminServer = Undertow.builder()
+			adminServer = createServerBuilder()
 					.addHttpsListener(serverAdminPort, serverHostUri.getHost(), ctx)
-					.setServerOption(UndertowOptions.ALWAYS_SET_DATE, true)
 					.setHandler(adminRouterHandler)
 					.build();
 			adminServer.start();
 			logger.info("... Admin server has started at port " + serverAdminPort);
 		}
 		else {
-			webServer = Undertow.builder()
+			webServer = createServerBuilder()
 					.addHttpListener(serverHostUri.getPort(), serverHostUri.getHost())
-					.setServerOption(UndertowOptions.ALWAYS_SET_DATE, true)
 					.setHandler(webRouterHandler)
 					.build();
 			webServer.start();
 			logger.info("... Web server has started at port " + serverHostUri.getPort());
 			
-			adminServer = Undertow.builder()
+			adminServer = createServerBuilder()
 					.addHttpListener(serverAdminPort, serverHostUri.getHost())
-					.setServerOption(UndertowOptions.ALWAYS_SET_DATE, true)
 					.setHandler(adminRouterHandler)
 					.build();
 			adminServer.start();
 			logger.info("... Admin server has started at port " + serverAdminPort);
 		}
 		isRunning = true;
+		preloadChangeHistories(pserver);
+	}
+
+	private HttpHandler light(HttpHandler handler) {
+		return new ExecutorDispatchHandler(lightExecutor, handler, ExecutorDispatchHandler.DEFAULT_BUFFER_LIMIT,
+				maxEntitySize);
+	}
+
+	private HttpHandler commit(HttpHandler handler) {
+		return new ExecutorDispatchHandler(commitExecutor, handler, ExecutorDispatchHandler.DEFAULT_BUFFER_LIMIT,
+				maxEntitySize);
+	}
+
+	/*
+	 * The bulk requests stream their request body on the executor thread.
+	 */
+	private HttpHandler bulk(HttpHandler handler) {
+		return new ExecutorDispatchHandler(bulkExecutor, handler, 0, maxEntitySize);
+	}
+
+	private ExecutorService createExecutor(String name, String property, int defaultThreads) {
+		int threads = (int) getLongProperty(property, defaultThreads);
+		if (threads <= 0) {
+			logger.warn("Invalid " + property + " value: " + threads + ", using " + defaultThreads);
+			threads = defaultThreads;
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, name + " " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * Runs the restarts and stops requested by the clients one at a time. The thread is not a daemon,
+	 * so that the server does not exit between the stop and the start of a restart, and it ends when
+	 * idle.
+	 */
+	private static ExecutorService createLifecycleExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+				r -> new Thread(r, "Server Lifecycle"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/*
+	 * Undertow chooses the number of I/O and worker threads and the buffer size from the available
+	 * processors and memory unless they are configured.
+	 */
+	private Undertow.Builder createServerBuilder() {
+		Undertow.Builder builder = Undertow.builder()
+				.setServerOption(UndertowOptions.ALWAYS_SET_DATE, true);
+		if (maxEntitySize != ExecutorDispatchHandler.UNLIMITED) {
+			builder.setServerOption(UndertowOptions.MAX_ENTITY_SIZE, maxEntitySize);
+		}
+		int ioThreads = (int) getLongProperty(SERVER_IO_THREADS, 0);
+		if (ioThreads > 0) {
+			builder.setIoThreads(ioThreads);
+		}
+		int workerThreads = (int) getLongProperty(SERVER_WORKER_THREADS, 0);
+		if (workerThreads > 0) {
+			builder.setWorkerThreads(workerThreads);
+		}
+		int bufferSize = (int) getLongProperty(SERVER_BUFFER_SIZE, 0);
+		if (bufferSize > 0) {
+			builder.setBufferSize(bufferSize);
+		}
+		return builder;
+	}
+
+	/*
+	 * Loads the change histories of the configured projects and of the most recently modified
+	 * projects in the background. The server becomes ready once they are all loaded.
+	 */
+	private void preloadChangeHistories(ServerLayer serverLayer) {
+		Set<HistoryFile> historyFiles = new LinkedHashSet<>();
+		String preloadProjects = serverConfiguration.getProperty(HISTORY_PRELOAD_PROJECTS);
+		if (preloadProjects != null) {
+			for (String projectId : preloadProjects.split(",")) {
+				if (projectId.trim().isEmpty()) {
+					continue;
+				}
+				try {
+					String historyFilePath = serverLayer.getHistoryFilePath(new ProjectIdImpl(projectId.trim()));
+					historyFiles.add(HistoryFile.openExisting(historyFilePath));
+				}
+				catch (InvalidHistoryFileException e) {
+					logger.warn("Unable to preload the history of project " + projectId.trim() + ": " + e.getMessage());
+				}
+			}
+		}
+		int recentProjects = (int) getLongProperty(HISTORY_PRELOAD_RECENT, 0);
+		if (recentProjects > 0) {
+			historyFiles.addAll(findRecentHistoryFiles(recentProjects));
+		}
+		if (historyFiles.isEmpty()) {
+			isReady = true;
+			return;
+		}
+		int threads = (int) getLongProperty(HISTORY_PRELOAD_THREADS, DEFAULT_PRELOAD_THREADS);
+		logger.info("Preloading " + historyFiles.size() + " change histories using " + threads + " threads");
+		changePool.preload(historyFiles, threads).thenRun(() -> {
+			isReady = true;
+			logger.info("... Server is ready");
+		});
+	}
+
+	private List<HistoryFile> findRecentHistoryFiles(int limit) {
+		List<HistoryFile> historyFiles = new ArrayList<>();
+		File[] projectDirs = new File(serverConfiguration.getServerRoot()).listFiles(File::isDirectory);
+		if (projectDirs != null) {
+			for (File projectDir : projectDirs) {
+				File historyFile = new File(projectDir, HistoryFile.FILENAME);
+				if (historyFile.isFile()) {
+					try {
+						historyFiles.add(HistoryFile.openExisting(historyFile.getAbsolutePath()));
+					}
+					catch (InvalidHistoryFileException e) {
+						logger.warn("Unable to preload the history file " + historyFile + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+		historyFiles.sort(Comparator.comparingLong(File::lastModified).reversed());
+		return historyFiles.subList(0, Math.min(limit, historyFiles.size()));
 	}
 
 	@Nonnull
@@ -304,6 +504,110 @@ public final class HTTPServer {
 		}
 	}
 
+	private ChangeDocumentPool createChangeDocumentPool(ServerLayer serverLayer) {
+		long timeout = getLongProperty(HISTORY_CACHE_TIMEOUT, ChangeDocumentPool.DEFAULT_POOL_TIMEOUT);
+		long maxWeight = getLongProperty(HISTORY_CACHE_MAX_WEIGHT, ChangeDocumentPool.UNLIMITED_WEIGHT);
+		long recordCacheSize = getLongProperty(HISTORY_RECORD_CACHE_SIZE, RevisionRecordCache.DEFAULT_CAPACITY);
+		RevisionRecordCache recordCache = (recordCacheSize > 0) ? new RevisionRecordCache(recordCacheSize) : null;
+		ChangeDocumentPool changePool = new ChangeDocumentPool(timeout, getHistoryCacheMode(), maxWeight, recordCache);
+		changePool.getAuditLog().setFullDumpEnabled(
+				Boolean.parseBoolean(serverConfiguration.getProperty(COMMIT_AUDIT_FULL_DUMP)));
+		long tailSize = getLongProperty(HISTORY_TAIL_SIZE, 0);
+		if (tailSize > 0) {
+			changePool.setTailSize((int) Math.min(tailSize, Integer.MAX_VALUE));
+		}
+		String tailProjects = serverConfiguration.getProperty(HISTORY_TAIL_PROJECTS);
+		if (tailProjects != null) {
+			for (String projectId : tailProjects.split(",")) {
+				if (projectId.trim().isEmpty()) {
+					continue;
+				}
+				try {
+					String historyFilePath = serverLayer.getHistoryFilePath(new ProjectIdImpl(projectId.trim()));
+					changePool.setCacheMode(HistoryFile.openExisting(historyFilePath), HistoryCacheMode.TAIL);
+				}
+				catch (InvalidHistoryFileException e) {
+					logger.warn("Unable to keep the tail of project " + projectId.trim() + ": " + e.getMessage());
+				}
+			}
+		}
+		String pinnedProjects = serverConfiguration.getProperty(HISTORY_CACHE_PINNED_PROJECTS);
+		if (pinnedProjects != null) {
+			for (String projectId : pinnedProjects.split(",")) {
+				if (projectId.trim().isEmpty()) {
+					continue;
+				}
+				try {
+					String historyFilePath = serverLayer.getHistoryFilePath(new ProjectIdImpl(projectId.trim()));
+					changePool.pin(HistoryFile.openExisting(historyFilePath));
+				}
+				catch (InvalidHistoryFileException e) {
+					logger.warn("Unable to pin the history of project " + projectId.trim() + ": " + e.getMessage());
+				}
+			}
+		}
+		return changePool;
+	}
+
+	/*
+	 * Returns null if no project keeps its head ontology in memory.
+	 */
+	private HeadOntologyStore createHeadOntologyStore(ServerLayer serverLayer, ChangeDocumentPool changePool) {
+		String projects = serverConfiguration.getProperty(HEAD_ONTOLOGY_PROJECTS);
+		if (projects == null) {
+			return null;
+		}
+		Set<String> projectIds = new LinkedHashSet<>();
+		for (String projectId : projects.split(",")) {
+			if (!projectId.trim().isEmpty()) {
+				projectIds.add(projectId.trim());
+			}
+		}
+		if (projectIds.isEmpty()) {
+			return null;
+		}
+		long maxWeight = getLongProperty(HEAD_ONTOLOGY_MAX_WEIGHT, HeadOntologyStore.UNLIMITED_WEIGHT);
+		return new HeadOntologyStore(serverLayer, changePool, projectIds, maxWeight);
+	}
+
+	/*
+	 * Returns null if no checkpoint interval is configured.
+	 */
+	private CheckpointWriter createCheckpointWriter(ServerLayer serverLayer, ChangeDocumentPool changePool,
+			HeadOntologyStore headOntologies) {
+		long revisionInterval = getLongProperty(CHECKPOINT_INTERVAL_REVISIONS, CheckpointWriter.DISABLED);
+		long changeInterval = getLongProperty(CHECKPOINT_INTERVAL_CHANGES, CheckpointWriter.DISABLED);
+		if (revisionInterval <= 0 && changeInterval <= 0) {
+			return null;
+		}
+		return new CheckpointWriter(serverLayer, changePool, headOntologies,
+				(int) Math.max(0, Math.min(revisionInterval, Integer.MAX_VALUE)), Math.max(0, changeInterval));
+	}
+
+	private long getLongProperty(String property, long defaultValue) {
+		String value = serverConfiguration.getProperty(property);
+		if (value != null && !value.isEmpty()) {
+			try {
+				return Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException e) {
+				logger.warn("Invalid " + property + " value: " + value + ", using " + defaultValue);
+			}
+		}
+		return defaultValue;
+	}
+
+	private HistoryCacheMode getHistoryCacheMode() {
+		String cacheModeValue = serverConfiguration.getProperty(HISTORY_CACHE_MODE);
+		try {
+			return HistoryCacheMode.fromString(cacheModeValue);
+		}
+		catch (IllegalArgumentException e) {
+			logger.warn("Unknown " + HISTORY_CACHE_MODE + " value: " + cacheModeValue + ", using " + HistoryCacheMode.FULL);
+			return HistoryCacheMode.FULL;
+		}
+	}
+
 	private TokenTable createLoginTokenTable() {
 		long loginTimeout = TokenTable.DEFAULT_TIMEOUT_PERIOD;
 		String loginTimeoutValue = serverConfiguration.getProperty(LOGIN_TIMEOUT_PERIOD);
@@ -313,26 +617,57 @@ public final class HTTPServer {
 		return new TokenTable(loginTimeout);
 	}
 
+	/**
+	 * Stops the server. The listeners stop accepting requests first, then the running requests are given
+	 * up to {@link #STOP_TIMEOUT} to complete before the servers stop, and only then the change histories
+	 * and the other resources they use are released. A request must not call this method, since it would
+	 * wait for itself, but {@link #scheduleStop()} instead.
+	 */
 	public void stop() throws ServerException {
 		if (isRunning) {
 			logger.info("Stopping server instances");
+			isReady = false;
 			try {
+				if (revisionEventHandler != null) {
+					revisionEventHandler.closeConnections();
+					revisionEventHandler = null;
+				}
+				if (webRouterHandler != null) {
+					webRouterHandler.shutdown(); // new requests are answered with 503 from now on
+				}
+				if (adminRouterHandler != null) {
+					adminRouterHandler.shutdown();
+				}
+				awaitRequests();
 				if (webServer != null) {
-					if (webRouterHandler != null) {
-						webRouterHandler.shutdown();
-					}
 					webServer.stop();
 					webServer = null;
 					logger.info("... Web server has stopped");
 				}
 				if (adminServer != null) {
-					if (adminRouterHandler != null) {
-						adminRouterHandler.shutdown();
-					}
 					adminServer.stop();
 					adminServer = null;
 					logger.info("... Admin server has stopped");
 				}
+				lightExecutor = null;
+				commitExecutor = null;
+				bulkExecutor = null;
+				if (revisionEvents != null) {
+					revisionEvents.dispose();
+					revisionEvents = null;
+				}
+				if (checkpointWriter != null) {
+					checkpointWriter.dispose();
+					checkpointWriter = null;
+				}
+				if (headOntologies != null) {
+					headOntologies.dispose();
+					headOntologies = null;
+				}
+				if (changePool != null) {
+					changePool.dispose();
+					changePool = null;
+				}
 				isRunning = false;
 			}
 			catch (Exception e) {
@@ -341,6 +676,30 @@ public final class HTTPServer {
 		}
 	}
 
+	/*
+	 * Shuts the executors down and waits for the requests they run.
+	 */
+	private void awaitRequests() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+		ExecutorService[] executors = { lightExecutor, commitExecutor, bulkExecutor };
+		for (ExecutorService executor : executors) {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+		for (ExecutorService executor : executors) {
+			if (executor != null
+					&& !executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+				logger.warn("Requests still running after " + STOP_TIMEOUT + " ms, stopping anyway");
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Restarts the server, reloading its configuration. A request must not call this method, since the
+	 * restart waits for the running requests, but {@link #scheduleRestart()} instead.
+	 */
 	public void restart() throws ServerException {
 		try {
 			logger.info("Received request to restart");
@@ -353,6 +712,50 @@ public final class HTTPServer {
 		}
 	}
 
+	/**
+	 * Restarts the server on a separate thread, once the calling request has completed.
+	 */
+	public Future<?> scheduleRestart() {
+		return lifecycleExecutor.submit(() -> {
+			try {
+				restart();
+			}
+			catch (ServerException e) {
+				logger.error("Unable to restart the server", e);
+			}
+		});
+	}
+
+	/**
+	 * Stops the server on a separate thread, once the calling request has completed.
+	 */
+	public Future<?> scheduleStop() {
+		return lifecycleExecutor.submit(() -> {
+			try {
+				stop();
+			}
+			catch (ServerException e) {
+				logger.error("Unable to stop the server", e);
+			}
+		});
+	}
+
+	/**
+	 * Stops the server on a separate thread, once the calling request has completed, and exits.
+	 */
+	public Future<?> scheduleShutdown() {
+		return lifecycleExecutor.submit(() -> {
+			try {
+				stop();
+				logger.info("Server shut down gracefully");
+			}
+			catch (ServerException e) {
+				logger.error("Unable to stop the server", e);
+			}
+			System.exit(0);
+		});
+	}
+
 	public static void main(final String[] args) throws ServerException {
 		try {
 			HTTPServer s = new HTTPServer();
@@ -19,11 +19,14 @@ public class ServerEndpoints {
 	public static final String METAPROJECT = ROOT_PATH + "/meta/metaproject";
     public static final String SQUASH = ROOT_PATH + "/meta/squash";
     public static final String SERVER_STATUS = ROOT_PATH + "/meta/serverstatus";
+    public static final String SERVER_READY = ROOT_PATH + "/meta/serverready";
 
 	public static final String ALL_CHANGES = ROOT_PATH + "/all_changes"; 
 	public static final String LATEST_CHANGES = ROOT_PATH + "/latest_changes"; 
 	public static final String HEAD = ROOT_PATH + "/head";
+	public static final String CHECKPOINT = ROOT_PATH + "/checkpoint";
 	public static final String COMMIT = ROOT_PATH + "/commit";
+	public static final String REVISION_EVENTS = ROOT_PATH + "/revision_events";
 
 	public static final String GEN_CODE = ROOT_PATH + "/gen_code";
 	public static final String SET_CODEGEN_SEQ = ROOT_PATH + "/server/setcodegenseq";
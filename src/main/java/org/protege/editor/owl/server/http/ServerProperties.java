@@ -34,11 +34,68 @@ public final class ServerProperties {
      */
     public static final String LOGIN_TIMEOUT_PERIOD = "login_timeout_period";
 
+    /*
+     * Constants for change history caching
+     */
+    public static final String HISTORY_CACHE_MODE = "history_cache_mode";
+    public static final String HISTORY_CACHE_TIMEOUT = "history_cache_timeout";
+    public static final String HISTORY_CACHE_MAX_WEIGHT = "history_cache_max_weight";
+    public static final String HISTORY_CACHE_PINNED_PROJECTS = "history_cache_pinned_projects";
+    public static final String HISTORY_RECORD_CACHE_SIZE = "history_record_cache_size";
+    public static final String HISTORY_TAIL_PROJECTS = "history_tail_projects";
+    public static final String HISTORY_TAIL_SIZE = "history_tail_size";
+    public static final String HISTORY_PRELOAD_PROJECTS = "history_preload_projects";
+    public static final String HISTORY_PRELOAD_RECENT = "history_preload_recent";
+    public static final String HISTORY_PRELOAD_THREADS = "history_preload_threads";
+    public static final int DEFAULT_PRELOAD_THREADS = 4;
+
+    /*
+     * Constants for the commit audit log
+     */
+    public static final String COMMIT_AUDIT_FULL_DUMP = "commit_audit_full_dump";
+
+    /*
+     * Constants for materialized head ontologies
+     */
+    public static final String HEAD_ONTOLOGY_PROJECTS = "head_ontology_projects";
+    public static final String HEAD_ONTOLOGY_MAX_WEIGHT = "head_ontology_max_weight";
+
+    /*
+     * Constants for revision checkpoints
+     */
+    public static final String CHECKPOINT_INTERVAL_REVISIONS = "checkpoint_interval_revisions";
+    public static final String CHECKPOINT_INTERVAL_CHANGES = "checkpoint_interval_changes";
+
+    /*
+     * Constants for revision push notifications
+     */
+    public static final String REVISION_EVENTS_CAPACITY = "revision_events_capacity";
+
+    /*
+     * Constants for request dispatching, the thread counts and buffer size default to Undertow's
+     */
+    public static final String SERVER_IO_THREADS = "server_io_threads";
+    public static final String SERVER_WORKER_THREADS = "server_worker_threads";
+    public static final String SERVER_BUFFER_SIZE = "server_buffer_size";
+    public static final String SERVER_MAX_ENTITY_SIZE = "server_max_entity_size";
+    public static final long DEFAULT_MAX_ENTITY_SIZE = 1024L * 1024 * 1024; // 1 GB
+    public static final String SERVER_LIGHT_THREADS = "server_light_threads";
+    public static final String SERVER_COMMIT_THREADS = "server_commit_threads";
+    public static final String SERVER_BULK_THREADS = "server_bulk_threads";
+    public static final int DEFAULT_LIGHT_THREADS = 16;
+    public static final int DEFAULT_COMMIT_THREADS = 4;
+    public static final int DEFAULT_BULK_THREADS = 8;
+
     /*
      * Constants for custom HTTP headers and exceptions
      */
     public static final String PROJECTID_HEADER = "X-ProjectId";
     public static final String SNAPSHOT_CHECKSUM_HEADER = "X-SnapshotId";
+    public static final String SERVER_READY_HEADER = "X-ServerReady";
+    public static final String HISTORY_CACHE_STATISTICS_HEADER = "X-HistoryCacheStatistics";
+    public static final String RECORD_CACHE_STATISTICS_HEADER = "X-RecordCacheStatistics";
+    public static final String HISTORY_TRANSFER_HEADER = "X-HistoryTransfer";
+    public static final String HISTORY_TRANSFER_RAW = "raw";
     public static final int HISTORY_SNAPSHOT_OUT_OF_DATE = 499;
 
     // pellette
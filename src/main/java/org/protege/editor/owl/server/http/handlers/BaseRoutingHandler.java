@@ -1,9 +1,17 @@
 package org.protege.editor.owl.server.http.handlers;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
 import java.util.Deque;
 import java.util.Map;
 
 import org.apache.commons.codec.binary.Base64;
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.api.exception.AuthorizationException;
+import org.protege.editor.owl.server.api.exception.ServerServiceException;
 import org.protege.editor.owl.server.http.HTTPServer;
 import org.protege.editor.owl.server.http.exception.ServerException;
 import org.protege.editor.owl.server.security.LoginTimeoutException;
@@ -15,8 +23,12 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Strings;
 
 import edu.stanford.protege.metaproject.api.AuthToken;
+import edu.stanford.protege.metaproject.api.ProjectId;
+import edu.stanford.protege.metaproject.impl.Operations;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
@@ -53,6 +65,31 @@ public abstract class BaseRoutingHandler implements HttpHandler {
 		return paramVal;
 	}
 
+	/*
+	 * Returns the request body, which has already been read if the request was dispatched by an
+	 * ExecutorDispatchHandler with a small body. A streamed body reports a failure to receive it, e.g.,
+	 * a body exceeding the maximum entity size or a dropped connection, as a ProtocolException, which
+	 * is a client error.
+	 */
+	protected InputStream getRequestStream(final HttpServerExchange exchange) {
+		byte[] body = exchange.getAttachment(ExecutorDispatchHandler.REQUEST_BODY);
+		return (body != null) ? new ByteArrayInputStream(body) : new ReceivingInputStream(exchange.getInputStream());
+	}
+
+	/*
+	 * Sets the given entity tag on the response and returns true if the client already has the
+	 * response, in which case the status is set to 304 Not Modified and nothing should be sent.
+	 */
+	protected boolean isNotModified(final HttpServerExchange exchange, final String tag) {
+		ETag etag = new ETag(false, tag);
+		exchange.getResponseHeaders().put(Headers.ETAG, etag.toString());
+		if (!ETagUtils.handleIfNoneMatch(exchange, etag, true)) {
+			exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
 	protected AuthToken getAuthToken(final HttpServerExchange ex) throws LoginTimeoutException {
 		String fauth = getHeaderValue(ex, Headers.AUTHORIZATION, "none");
 		String coded = fauth.substring(fauth.indexOf(" ") + 1);
@@ -61,6 +98,28 @@ public abstract class BaseRoutingHandler implements HttpHandler {
 		return HTTPServer.server().getAuthToken(token);
 	}
 
+	/*
+	 * Returns true if the user of the token may open the project, which is the permission required to
+	 * read its head revision and its changes.
+	 */
+	protected boolean isReadAllowed(final ServerLayer serverLayer, final AuthToken token, final ProjectId projectId)
+			throws ServerException {
+		try {
+			return serverLayer.isOperationAllowed(token, Operations.OPEN_PROJECT.getId(), projectId,
+					token.getUser().getId());
+		}
+		catch (AuthorizationException | ServerServiceException e) {
+			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to check the permission", e);
+		}
+	}
+
+	protected void checkReadAllowed(final ServerLayer serverLayer, final AuthToken token, final ProjectId projectId)
+			throws ServerException {
+		if (!isReadAllowed(serverLayer, token, projectId)) {
+			throw new ServerException(StatusCodes.FORBIDDEN, "Not allowed to read project " + projectId.get());
+		}
+	}
+
 	/*
 	 * Server to client exception delivery. Detail error message is written to the server
 	 * log while a high-level server message is delivered to the client.
@@ -90,4 +149,50 @@ public abstract class BaseRoutingHandler implements HttpHandler {
 		exchange.setStatusCode(e.getErrorCode());
 		exchange.getResponseHeaders().add(new HttpString("Error-Message"), e.getMessage());
 	}
+
+	private static final class ReceivingInputStream extends FilterInputStream {
+
+		private ReceivingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				return super.read();
+			}
+			catch (IOException e) {
+				throw receiveError(e);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				return super.read(b, off, len);
+			}
+			catch (IOException e) {
+				throw receiveError(e);
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			try {
+				return super.skip(n);
+			}
+			catch (IOException e) {
+				throw receiveError(e);
+			}
+		}
+
+		private static IOException receiveError(IOException e) {
+			if (e instanceof ProtocolException) {
+				return e;
+			}
+			ProtocolException error = new ProtocolException("Unable to receive the request body: " + e.getMessage());
+			error.initCause(e);
+			return error;
+		}
+	}
 }
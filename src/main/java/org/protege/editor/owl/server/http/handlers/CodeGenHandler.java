@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
+import java.net.ProtocolException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.ParseException;
@@ -53,6 +54,9 @@ public class CodeGenHandler extends BaseRoutingHandler {
 		try {
 			handlingRequest(exchange);
 		}
+		catch (ProtocolException e) {
+			handleServerException(exchange, new ServerException(StatusCodes.BAD_REQUEST, e.getMessage(), e));
+		}
 		catch (IOException | ClassNotFoundException e) {
 			internalServerErrorStatusCode(exchange, "Server failed to receive the sent data", e);
 		}
@@ -133,7 +137,7 @@ public class CodeGenHandler extends BaseRoutingHandler {
 			flushCode(codeGenFile, seq);
 		}
 		else if (requestPath.equals(ServerEndpoints.EVS_REC)) {
-			ObjectInputStream ois = new ObjectInputStream(exchange.getInputStream());
+			ObjectInputStream ois = new ObjectInputStream(getRequestStream(exchange));
 			History hist = (History) ois.readObject();
 			recordEvsHistory(hist, projectID);
 		} else if (requestPath.equals(ServerEndpoints.EVS_CHECK_CREATE)) {
@@ -142,7 +146,7 @@ public class CodeGenHandler extends BaseRoutingHandler {
 			ObjectOutputStream os = new ObjectOutputStream(exchange.getOutputStream());
 			os.writeObject(created);
 		} else if (requestPath.equals(ServerEndpoints.EVS_HIST)) {
-			ObjectInputStream ois = new ObjectInputStream(exchange.getInputStream());
+			ObjectInputStream ois = new ObjectInputStream(getRequestStream(exchange));
 			History hist = (History) ois.readObject();
 			List<History> evs_hist_records = loadEvsHistory(hist, projectID);
 			ObjectOutputStream os = new ObjectOutputStream(exchange.getOutputStream());
@@ -0,0 +1,95 @@
+package org.protege.editor.owl.server.http.handlers;
+
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Dispatches the requests to the given executor, in place of Undertow's shared worker pool, so that
+ * slow requests of one kind cannot hold up the others. A small request body is read asynchronously on
+ * the I/O thread before the dispatch and made available to the handlers through {@link #REQUEST_BODY},
+ * hence a worker thread never blocks waiting for a client to upload its data. A body larger than the
+ * buffer limit, or of unknown length, is streamed by the handler instead of being held in memory.
+ * <p>
+ * A request whose declared length exceeds the maximum entity size is answered with 413 Request Entity
+ * Too Large, and a request whose body cannot be received is answered with 400 Bad Request.
+ */
+public final class ExecutorDispatchHandler implements HttpHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(ExecutorDispatchHandler.class);
+
+	public static final AttachmentKey<byte[]> REQUEST_BODY = AttachmentKey.create(byte[].class);
+
+	public static final long DEFAULT_BUFFER_LIMIT = 1024 * 1024; // 1 MB
+
+	public static final long UNLIMITED = -1;
+
+	private final Executor executor;
+
+	private final HttpHandler handler;
+
+	private final long bufferLimit;
+
+	private final long maxEntitySize;
+
+	public ExecutorDispatchHandler(@Nonnull Executor executor, @Nonnull HttpHandler handler) {
+		this(executor, handler, DEFAULT_BUFFER_LIMIT, UNLIMITED);
+	}
+
+	/**
+	 * @param executor
+	 *          The executor that runs the handler
+	 * @param handler
+	 *          The handler of the requests
+	 * @param bufferLimit
+	 *          The maximum size of a request body read before the dispatch, or 0 to always stream it
+	 * @param maxEntitySize
+	 *          The maximum size of a request body, or {@link #UNLIMITED}
+	 */
+	public ExecutorDispatchHandler(@Nonnull Executor executor, @Nonnull HttpHandler handler, long bufferLimit,
+			long maxEntitySize) {
+		this.executor = executor;
+		this.handler = handler;
+		this.bufferLimit = bufferLimit;
+		this.maxEntitySize = maxEntitySize;
+	}
+
+	@Override
+	public void handleRequest(HttpServerExchange exchange) throws Exception {
+		long contentLength = exchange.getRequestContentLength();
+		if (maxEntitySize != UNLIMITED && contentLength > maxEntitySize) {
+			exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+			exchange.endExchange();
+		}
+		else if (exchange.isRequestComplete() || contentLength <= 0 || contentLength > bufferLimit) {
+			exchange.dispatch(executor, this::handleBlocking);
+		}
+		else {
+			exchange.getRequestReceiver().receiveFullBytes((ex, body) -> {
+				ex.putAttachment(REQUEST_BODY, body);
+				ex.dispatch(executor, this::handleBlocking);
+			}, (ex, e) -> {
+				logger.warn("Unable to receive the request body of " + ex.getRequestPath(), e);
+				ex.setStatusCode(StatusCodes.BAD_REQUEST);
+				ex.endExchange();
+			});
+		}
+	}
+
+	private void handleBlocking(HttpServerExchange exchange) throws Exception {
+		exchange.startBlocking();
+		handler.handleRequest(exchange);
+	}
+
+	public HttpHandler getHandler() {
+		return handler;
+	}
+}
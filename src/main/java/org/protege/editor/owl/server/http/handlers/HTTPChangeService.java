@@ -1,6 +1,9 @@
 package org.protege.editor.owl.server.http.handlers;
 
 import java.io.*;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
@@ -21,8 +24,12 @@ import org.protege.editor.owl.server.http.HTTPServer;
 import org.protege.editor.owl.server.http.ServerEndpoints;
 import org.protege.editor.owl.server.http.ServerProperties;
 import org.protege.editor.owl.server.http.exception.ServerException;
+import org.protege.editor.owl.server.http.messages.BinaryProtocol;
 import org.protege.editor.owl.server.security.LoginTimeoutException;
 import org.protege.editor.owl.server.util.SnapShot;
+import org.protege.editor.owl.server.versioning.Checkpoint;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
+import org.protege.editor.owl.server.versioning.HistoryIndex;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
@@ -31,10 +38,21 @@ import edu.stanford.protege.metaproject.api.AuthToken;
 import edu.stanford.protege.metaproject.api.ProjectId;
 import edu.stanford.protege.metaproject.api.User;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
 
 public class HTTPChangeService extends BaseRoutingHandler {
 
+	static final String BINARY_ENCODING = "binary";
+	static final String RAW_ENCODING = "raw";
+	static final String SERIALIZED_ENCODING = "serialized";
+
+	private static final String VARY_HEADERS = Headers.CONTENT_TYPE_STRING + ", " + Headers.ACCEPT_STRING + ", "
+			+ ServerProperties.HISTORY_TRANSFER_HEADER + ", " + ServerProperties.PROJECTID_HEADER;
+
 	private final ServerLayer serverLayer;
 	private final ChangeService changeService;
 
@@ -81,6 +99,9 @@ public class HTTPChangeService extends BaseRoutingHandler {
 		try {
 			handlingRequest(exchange);
 		}
+		catch (ProtocolException e) {
+			handleServerException(exchange, new ServerException(StatusCodes.BAD_REQUEST, e.getMessage(), e));
+		}
 		catch (IOException | ClassNotFoundException e) {
 			internalServerErrorStatusCode(exchange, "Server failed to receive the sent data", e);
 		}
@@ -97,12 +118,11 @@ public class HTTPChangeService extends BaseRoutingHandler {
 
 	private void handlingRequest(HttpServerExchange exchange)
 			throws IOException, ClassNotFoundException, LoginTimeoutException, ServerException {
-		ObjectInputStream ois = new ObjectInputStream(exchange.getInputStream());
-
 		String requestPath = exchange.getRequestPath();
 		if (	requestPath.equals(ServerEndpoints.COMMIT) ||
 				requestPath.equals(ServerEndpoints.HEAD) ||
 				requestPath.equals(ServerEndpoints.ALL_CHANGES) ||
+				requestPath.equals(ServerEndpoints.CHECKPOINT) ||
 				requestPath.equals(ServerEndpoints.SQUASH)) {
 			ProjectId projectId = projectId(exchange);
 
@@ -134,22 +154,64 @@ public class HTTPChangeService extends BaseRoutingHandler {
 			}
 		}
 
+		/*
+		 * The binary protocol covers the commit, change and head revision requests, the other requests
+		 * carry snapshots and are only sent as serialized objects.
+		 */
+		boolean binary = BinaryProtocol.isBinaryContentType(exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE));
+		if (binary && !(requestPath.equals(ServerEndpoints.COMMIT) ||
+				requestPath.equals(ServerEndpoints.HEAD) ||
+				requestPath.equals(ServerEndpoints.ALL_CHANGES) ||
+				requestPath.equals(ServerEndpoints.LATEST_CHANGES))) {
+			throw new ServerException(StatusCodes.UNSUPPORTED_MEDIA_TYPE,
+					"The binary protocol is not supported by " + requestPath);
+		}
+		DataInputStream dis = binary ? BinaryProtocol.readMessage(getRequestStream(exchange)) : null;
+		ObjectInputStream ois = binary ? null : new ObjectInputStream(getRequestStream(exchange));
+		if (binary) {
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, BinaryProtocol.getContentType());
+		}
+
 		if (requestPath.equals(ServerEndpoints.COMMIT)) {
-			CommitBundle bundle = (CommitBundle) ois.readObject();
-			submitCommitBundle(getAuthToken(exchange), projectId(exchange), bundle, exchange.getOutputStream());
+			CommitBundle bundle = binary ? BinaryProtocol.readCommitBundle(dis) : (CommitBundle) ois.readObject();
+			submitCommitBundle(getAuthToken(exchange), projectId(exchange), bundle, binary, exchange.getOutputStream());
 		}
 		else if (requestPath.equals(ServerEndpoints.ALL_CHANGES)) {
-			HistoryFile file = (HistoryFile) ois.readObject();
-			retrieveAllChanges(file, exchange.getOutputStream());
+			HistoryFile file = binary ? BinaryProtocol.readHistoryFile(dis) : (HistoryFile) ois.readObject();
+			DocumentRevision headRevision = getHeadRevision(file);
+			if (isNotModified(exchange, getRevisionTag(exchange, DocumentRevision.START_REVISION, headRevision, binary))) {
+				return;
+			}
+			if (!(binary || acceptsRawChanges(exchange))
+					|| !transferRawChanges(file, DocumentRevision.START_REVISION, headRevision, binary, exchange)) {
+				retrieveChanges(file, DocumentRevision.START_REVISION, headRevision, binary, exchange.getOutputStream());
+			}
 		}
 		else if (requestPath.equals(ServerEndpoints.LATEST_CHANGES)) {
+			HistoryFile file = binary ? BinaryProtocol.readHistoryFile(dis) : (HistoryFile) ois.readObject();
+			DocumentRevision start = binary ? BinaryProtocol.readRevision(dis) : (DocumentRevision) ois.readObject();
+			DocumentRevision headRevision = getHeadRevision(file);
+			if (isNotModified(exchange, getRevisionTag(exchange, start, headRevision, binary))) {
+				return;
+			}
+			if (!(binary || acceptsRawChanges(exchange))
+					|| !transferRawChanges(file, start, headRevision, binary, exchange)) {
+				retrieveChanges(file, start, headRevision, binary, exchange.getOutputStream());
+			}
+		}
+		else if (requestPath.equals(ServerEndpoints.CHECKPOINT)) {
 			HistoryFile file = (HistoryFile) ois.readObject();
 			DocumentRevision start = (DocumentRevision) ois.readObject();
-			retrieveLatestChanges(file, start, exchange.getOutputStream());
+			DocumentRevision end = (DocumentRevision) ois.readObject();
+			retrieveCheckpoint(file, start, end, exchange.getOutputStream());
 		}
 		else if (requestPath.equals(ServerEndpoints.HEAD)) {
-			HistoryFile file = (HistoryFile) ois.readObject();
-			retrieveHeadRevision(file, exchange.getOutputStream());
+			HistoryFile file = binary ? BinaryProtocol.readHistoryFile(dis) : (HistoryFile) ois.readObject();
+			DocumentRevision headRevision = getHeadRevision(file);
+			if (isNotModified(exchange, getRevisionTag(exchange, null, headRevision, binary))) {
+				return;
+			}
+			sendHeadRevision(headRevision, binary, exchange.getOutputStream());
 		}
 		else if (requestPath.equals(ServerEndpoints.SQUASH)) {
 			SnapShot snapshot = (SnapShot) ois.readObject();
@@ -170,11 +232,16 @@ public class HTTPChangeService extends BaseRoutingHandler {
 	 */
 
 	private void submitCommitBundle(AuthToken authToken, ProjectId projectId, CommitBundle bundle,
-			OutputStream os) throws ServerException {
+			boolean binary, OutputStream os) throws ServerException {
 		try {
 			ChangeHistory hist = serverLayer.commit(authToken, projectId, bundle);
-			ObjectOutputStream oos = new ObjectOutputStream(os);
-			oos.writeObject(hist);
+			if (binary) {
+				BinaryProtocol.writeChanges(hist, os);
+			}
+			else {
+				ObjectOutputStream oos = new ObjectOutputStream(os);
+				oos.writeObject(hist);
+			}
 		}
 		catch (AuthorizationException e) {
 			throw new ServerException(StatusCodes.UNAUTHORIZED, "Access denied", e);
@@ -190,28 +257,112 @@ public class HTTPChangeService extends BaseRoutingHandler {
 		}
 	}
 
-	private void retrieveAllChanges(HistoryFile file, OutputStream os) throws ServerException {
+	private DocumentRevision getHeadRevision(HistoryFile file) throws ServerException {
 		try {
-			DocumentRevision headRevision = changeService.getHeadRevision(file);
-			ChangeHistory history = changeService.getChanges(file, DocumentRevision.START_REVISION, headRevision);
-			ObjectOutputStream oos = new ObjectOutputStream(os);
-			oos.writeObject(history);
+			return changeService.getHeadRevision(file);
 		}
 		catch (ServerServiceException e) {
-			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to get all changes", e);
+			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to get the head revision", e);
+		}
+	}
+
+	/*
+	 * Sets the Vary header of the head revision and change responses, and returns their entity tag.
+	 *
+	 * These requests are sent with POST since their body carries the history file and the start
+	 * revision, hence shared HTTP caches never store the responses. The entity tag is only used for the
+	 * conditional requests of the client, which sends the tag it received back in If-None-Match and is
+	 * answered with 304 Not Modified if nothing has been committed since.
+	 */
+	private String getRevisionTag(HttpServerExchange exchange, DocumentRevision start, DocumentRevision headRevision,
+			boolean binary) {
+		exchange.getResponseHeaders().put(Headers.VARY, VARY_HEADERS);
+		String sProjectId = exchange.getRequestHeaders().getFirst(ServerProperties.PROJECTID_HEADER);
+		Optional<String> checksum = (sProjectId != null)
+				? serverLayer.getSnapshotChecksum(new ProjectIdImpl(sProjectId))
+				: Optional.empty();
+		String encoding = binary ? BINARY_ENCODING
+				: (start != null && acceptsRawChanges(exchange)) ? RAW_ENCODING : SERIALIZED_ENCODING;
+		return createRevisionTag(start, headRevision, checksum, encoding);
+	}
+
+	/*
+	 * The entity tag identifies the revision range of the response, the snapshot checksum, since a
+	 * squash restarts the history from the first revision, and the encoding of the response, e.g.,
+	 * "0..42-checksum-binary". The start revision is null for the head revision responses.
+	 */
+	static String createRevisionTag(DocumentRevision start, DocumentRevision headRevision, Optional<String> checksum,
+			String encoding) {
+		StringBuilder sb = new StringBuilder();
+		if (start != null) {
+			sb.append(start.getRevisionNumber()).append("..");
+		}
+		sb.append(headRevision.getRevisionNumber());
+		if (checksum.isPresent()) {
+			sb.append("-").append(checksum.get());
+		}
+		sb.append("-").append(encoding);
+		return sb.toString();
+	}
+
+	private void retrieveChanges(HistoryFile file, DocumentRevision start, DocumentRevision headRevision,
+			boolean binary, OutputStream os) throws ServerException {
+		try {
+			ChangeHistory history = changeService.getChanges(file, start, headRevision);
+			if (binary) {
+				BinaryProtocol.writeChanges(history, os);
+			}
+			else {
+				ObjectOutputStream oos = new ObjectOutputStream(os);
+				oos.writeObject(history);
+			}
+		}
+		catch (ServerServiceException | IllegalArgumentException e) {
+			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to get the latest changes", e);
 		}
 		catch (IOException e) {
 			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to transmit the returned data", e);
 		}
 	}
 
-	private void retrieveLatestChanges(HistoryFile file, DocumentRevision start, OutputStream os)
-			throws ServerException {
+	private boolean acceptsRawChanges(HttpServerExchange exchange) {
+		String transferMode = exchange.getRequestHeaders().getFirst(ServerProperties.HISTORY_TRANSFER_HEADER);
+		return ServerProperties.HISTORY_TRANSFER_RAW.equals(transferMode);
+	}
+
+	/*
+	 * Sends the stored records of the requested revisions straight from the history file, see
+	 * HistoryFileRange for the framing. A binary protocol response frames the range as the payload of a
+	 * message, like the other binary responses. Returns false if the records cannot be located, in which
+	 * case nothing has been sent and the client gets the encoded change history instead.
+	 */
+	private boolean transferRawChanges(HistoryFile file, DocumentRevision start, DocumentRevision headRevision,
+			boolean binary, HttpServerExchange exchange) throws ServerException {
 		try {
-			DocumentRevision headRevision = changeService.getHeadRevision(file);
-			ChangeHistory history = changeService.getChanges(file, start, headRevision);
-			ObjectOutputStream oos = new ObjectOutputStream(os);
-			oos.writeObject(history);
+			HistoryFileRange range = changeService.getChangesRange(file, start, headRevision);
+			if (range == null) {
+				return false;
+			}
+			try (FileChannel source = range.openChannel()) {
+				if (source.size() < range.getOffset() + range.getLength()) {
+					return false; // the history file has been replaced, e.g., by a squash
+				}
+				ByteBuffer messageHeader = binary ? BinaryProtocol.getMessageHeader(range.getTransferLength()) : null;
+				exchange.getResponseHeaders().put(new HttpString(ServerProperties.HISTORY_TRANSFER_HEADER),
+						ServerProperties.HISTORY_TRANSFER_RAW);
+				exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, binary
+						? BinaryProtocol.getMessageLength(range.getTransferLength())
+						: range.getTransferLength());
+				StreamSinkChannel channel = exchange.getResponseChannel();
+				if (binary) {
+					Channels.writeBlocking(channel, messageHeader);
+				}
+				Channels.writeBlocking(channel, range.getHeader());
+				Channels.transferBlocking(channel, source, range.getOffset(), range.getLength());
+				channel.shutdownWrites();
+				Channels.flushBlocking(channel);
+			}
+			return true;
 		}
 		catch (ServerServiceException | IllegalArgumentException e) {
 			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to get the latest changes", e);
@@ -221,14 +372,45 @@ public class HTTPChangeService extends BaseRoutingHandler {
 		}
 	}
 
-	private void retrieveHeadRevision(HistoryFile file, OutputStream os) throws ServerException {
+	/*
+	 * Sends the revision the client continues from, the checkpoint at that revision (or null if the
+	 * client should apply the changes to its own copy) and the changes up to the requested revision.
+	 * The requested revision defaults to the head revision.
+	 */
+	private void retrieveCheckpoint(HistoryFile file, DocumentRevision start, DocumentRevision end,
+			OutputStream os) throws ServerException {
 		try {
-			DocumentRevision headRevision = changeService.getHeadRevision(file);
+			if (end == null) {
+				end = changeService.getHeadRevision(file);
+			}
+			Checkpoint checkpoint = changeService.selectCheckpoint(file, start, end);
+			DocumentRevision baseRevision = (checkpoint != null) ? checkpoint.getRevision() : start;
+			ChangeHistory history = changeService.getChanges(file, baseRevision, end);
 			ObjectOutputStream oos = new ObjectOutputStream(os);
-			oos.writeObject(headRevision);
+			oos.writeObject(baseRevision);
+			oos.writeObject((checkpoint != null) ? SnapShot.fromFile(checkpoint.getFile()) : null);
+			oos.writeObject(history);
 		}
-		catch (ServerServiceException e) {
-			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to get the head revision", e);
+		catch (ServerServiceException | IllegalArgumentException e) {
+			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to get the checkpoint", e);
+		}
+		catch (IOException e) {
+			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to transmit the returned data", e);
+		}
+	}
+
+	private void sendHeadRevision(DocumentRevision headRevision, boolean binary, OutputStream os)
+			throws ServerException {
+		try {
+			if (binary) {
+				ByteArrayOutputStream payload = new ByteArrayOutputStream();
+				BinaryProtocol.writeRevision(headRevision, new DataOutputStream(payload));
+				BinaryProtocol.writeMessage(payload.toByteArray(), os);
+			}
+			else {
+				ObjectOutputStream oos = new ObjectOutputStream(os);
+				oos.writeObject(headRevision);
+			}
 		}
 		catch (IOException e) {
 			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to transmit the returned data", e);
@@ -255,6 +437,8 @@ public class HTTPChangeService extends BaseRoutingHandler {
 				+ File.separator;
 
 		String snapshotName = historyName + "-snapshot";
+		String indexName = historyName + HistoryIndex.INDEX_SUFFIX;
+		String checkpointsName = historyName + Checkpoint.CHECKPOINT_SUFFIX;
 
 		String fullHistoryPath = dataDir + historyName;
 		String backupName = new StringBuilder(fullHistoryPath).insert(fullHistoryPath.lastIndexOf(File.separator) + 1, "~").toString();
@@ -262,6 +446,13 @@ public class HTTPChangeService extends BaseRoutingHandler {
 		Files.createDirectories(Paths.get(archiveDir));
 		Files.move(Paths.get(dataDir + historyName), Paths.get(archiveDir + historyName));
 		Files.move(Paths.get(dataDir + snapshotName), Paths.get(archiveDir + snapshotName));
+		serverLayer.invalidateSnapshotChecksum(projectId);
+		if (Files.exists(Paths.get(dataDir + indexName))) {
+			Files.move(Paths.get(dataDir + indexName), Paths.get(archiveDir + indexName));
+		}
+		if (Files.exists(Paths.get(dataDir + checkpointsName))) {
+			Files.move(Paths.get(dataDir + checkpointsName), Paths.get(archiveDir + checkpointsName));
+		}
 		try {
 			Files.delete(Paths.get(backupName));
 		} catch (NoSuchFileException e) {
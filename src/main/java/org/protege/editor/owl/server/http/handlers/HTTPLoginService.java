@@ -38,7 +38,7 @@ public class HTTPLoginService extends BaseRoutingHandler {
 	public void handleRequest(final HttpServerExchange exchange) {
 		Serializer serl = new DefaultJsonSerializer();
 		try {
-			LoginCreds creds = (LoginCreds) serl.parse(new InputStreamReader(exchange.getInputStream()), LoginCreds.class);
+			LoginCreds creds = (LoginCreds) serl.parse(new InputStreamReader(getRequestStream(exchange)), LoginCreds.class);
 			AuthToken authToken = login(creds);
 			sendLoginResponse(exchange, authToken);
 		}
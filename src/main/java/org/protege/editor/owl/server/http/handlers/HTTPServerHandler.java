@@ -2,20 +2,18 @@ package org.protege.editor.owl.server.http.handlers;
 
 import org.protege.editor.owl.server.http.HTTPServer;
 import org.protege.editor.owl.server.http.ServerEndpoints;
+import org.protege.editor.owl.server.http.ServerProperties;
 import org.protege.editor.owl.server.http.exception.ServerException;
 import org.protege.editor.owl.server.security.LoginTimeoutException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
 
 public class HTTPServerHandler extends BaseRoutingHandler {
 	
-	private static final Logger logger = LoggerFactory.getLogger(HTTPServerHandler.class);
-	
 	private boolean shutdownServer = false;
 
 	@Override
@@ -34,9 +32,7 @@ public class HTTPServerHandler extends BaseRoutingHandler {
 		}
 
 		if (shutdownServer) {
-			HTTPServer.server().stop();
-			logger.info("Server shut down gracefully");
-			System.exit(0);					
+			HTTPServer.server().scheduleShutdown();
 		}
 	}
 
@@ -44,16 +40,22 @@ public class HTTPServerHandler extends BaseRoutingHandler {
 		String requestPath = exchange.getRequestPath();
 		HttpString requestMethod = exchange.getRequestMethod();
 		if (requestPath.equals(ServerEndpoints.SERVER_RESTART) && requestMethod.equals(Methods.POST)) {
-			HTTPServer.server().restart();
+			HTTPServer.server().scheduleRestart();
 		}
 		else if (requestPath.equals(ServerEndpoints.SERVER_STOP) && requestMethod.equals(Methods.POST)) {
-			HTTPServer.server().stop();
+			HTTPServer.server().scheduleStop();
 		} else if (requestPath.equals(ServerEndpoints.SERVER_PAUSE) && requestMethod.equals(Methods.GET)) {
 			HTTPServer.server().pause(getAuthToken(exchange).getUser());
 		} else if (requestPath.equals(ServerEndpoints.SERVER_RESUME) && requestMethod.equals(Methods.GET)) {
 			HTTPServer.server().resume(getAuthToken(exchange).getUser());
 		} else if (requestPath.equals(ServerEndpoints.SERVER_SHUTDOWN) && requestMethod.equals(Methods.POST)) {
 			shutdownServer = true;
+		} else if (requestPath.equals(ServerEndpoints.SERVER_READY) && requestMethod.equals(Methods.GET)) {
+			boolean ready = HTTPServer.server().isReady();
+			exchange.getResponseHeaders().put(new HttpString(ServerProperties.SERVER_READY_HEADER), String.valueOf(ready));
+			if (!ready) {
+				exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+			}
 		}
 	}
 }
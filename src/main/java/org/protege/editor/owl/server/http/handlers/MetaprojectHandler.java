@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.net.ProtocolException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -14,15 +15,16 @@ import edu.stanford.protege.metaproject.impl.ServerStatus;
 import org.protege.editor.owl.server.api.ServerLayer;
 import org.protege.editor.owl.server.api.exception.AuthorizationException;
 import org.protege.editor.owl.server.api.exception.ServerServiceException;
+import org.protege.editor.owl.server.change.ChangeDocumentPool;
 import org.protege.editor.owl.server.http.HTTPServer;
 import org.protege.editor.owl.server.http.ServerEndpoints;
 import org.protege.editor.owl.server.http.ServerProperties;
 import org.protege.editor.owl.server.http.exception.ServerException;
 import org.protege.editor.owl.server.security.LoginTimeoutException;
 import org.protege.editor.owl.server.util.SnapShot;
+import org.protege.editor.owl.server.util.SnapShotFile;
+import org.protege.editor.owl.server.versioning.RevisionRecordCache;
 import org.protege.editor.owl.server.versioning.api.ServerDocument;
-import org.semanticweb.owlapi.model.OWLOntology;
-import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +42,7 @@ import edu.stanford.protege.metaproject.api.UserId;
 import edu.stanford.protege.metaproject.api.exception.ObjectConversionException;
 import edu.stanford.protege.metaproject.serialization.DefaultJsonSerializer;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import io.undertow.util.StatusCodes;
@@ -61,6 +64,9 @@ public class MetaprojectHandler extends BaseRoutingHandler {
 		try {
 			handlingRequest(exchange);
 		}
+		catch (ProtocolException e) {
+			handleServerException(exchange, new ServerException(StatusCodes.BAD_REQUEST, e.getMessage(), e));
+		}
 		catch (IOException | ClassNotFoundException | ObjectConversionException e) {
 			internalServerErrorStatusCode(exchange, "Server failed to receive the sent data", e);
 		}
@@ -76,15 +82,8 @@ public class MetaprojectHandler extends BaseRoutingHandler {
 		
 		// A special directive when the server needs to be restarted after completing the request
 		if (requiredRestarting) {
-			try {
-				HTTPServer.server().restart();
-			}
-			catch (ServerException e) {
-				handleServerException(exchange, e);
-			}
-			finally {
-				requiredRestarting = false;
-			}
+			HTTPServer.server().scheduleRestart(); // waits for this request to complete
+			requiredRestarting = false;
 		}
 	}
 
@@ -98,7 +97,7 @@ public class MetaprojectHandler extends BaseRoutingHandler {
 			retrieveProjectList(userId, exchange.getOutputStream());
 		}
 		else if (requestPath.equals(ServerEndpoints.PROJECT) && requestMethod.equals(Methods.POST)) {
-			ObjectInputStream ois = new ObjectInputStream(exchange.getInputStream());
+			ObjectInputStream ois = new ObjectInputStream(getRequestStream(exchange));
 			ProjectId pid = (ProjectId) ois.readObject();
 			Name pname = (Name) ois.readObject();
 			Description desc = (Description) ois.readObject();
@@ -120,26 +119,38 @@ public class MetaprojectHandler extends BaseRoutingHandler {
 			deleteExistingProject(getAuthToken(exchange), projectId);
 		}
 		else if (requestPath.equals(ServerEndpoints.PROJECT_SNAPSHOT) && requestMethod.equals(Methods.POST)) {
-			ObjectInputStream ois = new ObjectInputStream(exchange.getInputStream());
+			ObjectInputStream ois = new ObjectInputStream(getRequestStream(exchange));
 			ProjectId pid = (ProjectId) ois.readObject();
 			SnapShot snapshot = (SnapShot) ois.readObject();
 			createProjectSnapshot(pid, snapshot, exchange.getOutputStream());
 		}
 		else if (requestPath.equals(ServerEndpoints.PROJECT_SNAPSHOT) && requestMethod.equals(Methods.GET)) {
 			ProjectId projectId = f.getProjectId(getQueryParameter(exchange, "projectid"));
-			retrieveProjectSnapshot(projectId, exchange.getOutputStream());
+			retrieveProjectSnapshot(projectId, exchange);
 		}
 		else if (requestPath.equals(ServerEndpoints.METAPROJECT) && requestMethod.equals(Methods.GET)) {
 			retrieveMetaproject(exchange);
 		}
 		else if (requestPath.equals(ServerEndpoints.METAPROJECT) && requestMethod.equals(Methods.POST)) {
 			Serializer serl = new DefaultJsonSerializer();
-			ServerConfiguration cfg = serl.parse(new InputStreamReader(exchange.getInputStream()), ServerConfiguration.class);
+			ServerConfiguration cfg = serl.parse(new InputStreamReader(getRequestStream(exchange)), ServerConfiguration.class);
 			updateMetaproject(cfg);
 			requiredRestarting = true;
 		} else if (requestPath.equals(ServerEndpoints.PROJECTS_UNCLASSIFIED) && requestMethod.equals(Methods.GET)) {
         retrieveProjectsUnclassified(exchange);
     } else if (requestPath.equals(ServerEndpoints.SERVER_STATUS) && requestMethod.equals(Methods.GET)) {
+			exchange.getResponseHeaders().put(new HttpString(ServerProperties.SERVER_READY_HEADER),
+					String.valueOf(HTTPServer.server().isReady()));
+			ChangeDocumentPool changePool = HTTPServer.server().getChangeDocumentPool();
+			if (changePool != null) {
+				exchange.getResponseHeaders().put(new HttpString(ServerProperties.HISTORY_CACHE_STATISTICS_HEADER),
+						changePool.getStatistics() + ", weight=" + changePool.getTotalWeight());
+				RevisionRecordCache recordCache = changePool.getRecordCache();
+				if (recordCache != null) {
+					exchange.getResponseHeaders().put(new HttpString(ServerProperties.RECORD_CACHE_STATISTICS_HEADER),
+							recordCache.toString());
+				}
+			}
 			retrieveServerStatus(exchange.getOutputStream());
 		}
 	}
@@ -240,19 +251,24 @@ public class MetaprojectHandler extends BaseRoutingHandler {
 		}
 	}
 
-	private void retrieveProjectSnapshot(ProjectId projectId, OutputStream os) throws ServerException {
+	/*
+	 * The stored snapshot file is sent as it is, framed as a serialized SnapShot followed by its checksum.
+	 */
+	private void retrieveProjectSnapshot(ProjectId projectId, HttpServerExchange exchange) throws ServerException {
 		try {
-			OWLOntology ontIn = serverLayer.loadProjectSnapshot(projectId);
+			SnapShotFile snapshot = serverLayer.getProjectSnapshotFile(projectId);
+			if (isNotModified(exchange, snapshot.getChecksum())) {
+				return;
+			}
 			try {
-				ObjectOutputStream oos = new ObjectOutputStream(os);
-				oos.writeObject(new SnapShot(ontIn));
-				oos.writeObject(serverLayer.getSnapshotChecksum(projectId).get());
+				exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, snapshot.getTransferLength());
+				snapshot.writeTo(exchange.getOutputStream());
 			}
 			catch (IOException e) {
 				throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to transmit the returned data", e);
 			}
 		}
-		catch (OWLOntologyCreationException | IOException e) {
+		catch (IOException e) {
 			throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to fetch project snapshot", e);
 		}
 	}
@@ -0,0 +1,223 @@
+package org.protege.editor.owl.server.http.handlers;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.api.ServerListener;
+import org.protege.editor.owl.server.api.exception.AuthorizationException;
+import org.protege.editor.owl.server.api.exception.ServerServiceException;
+import org.protege.editor.owl.server.change.RevisionEventLog;
+import org.protege.editor.owl.server.http.ServerProperties;
+import org.protege.editor.owl.server.http.exception.ServerException;
+import org.protege.editor.owl.server.security.LoginTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.stanford.protege.metaproject.api.AuthToken;
+import edu.stanford.protege.metaproject.api.Project;
+import edu.stanford.protege.metaproject.impl.ProjectIdImpl;
+import io.undertow.Handlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Pushes the new head revisions of the projects to the subscribed clients as server-sent events. A
+ * client may restrict the projects with one or more <code>X-ProjectId</code> headers, each holding one
+ * or more comma-separated project ids. A client only receives the revisions of the projects it may
+ * read, as for the head revision requests, and requesting a project it may not read is rejected with
+ * 403 Forbidden. The projects a client may read are resolved when it subscribes, and again after the
+ * access policy has changed, hence the events are not checked one by one.
+ * <p>
+ * Every new revision is sent as a <code>revision</code> event whose data is the project id and the
+ * head revision number separated by a space. The event id is the cursor the client sends back in the
+ * <code>Last-Event-ID</code> header when it reconnects, so that it receives the revisions it has
+ * missed. If they are no longer retained, the client receives a <code>reset</code> event and should
+ * fetch the head revisions of its projects again.
+ */
+public class RevisionEventHandler extends BaseRoutingHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(RevisionEventHandler.class);
+
+	public static final String REVISION_EVENT = "revision";
+	public static final String RESET_EVENT = "reset";
+
+	private final ServerLayer serverLayer;
+
+	private final RevisionEventLog revisionEvents;
+
+	private final Set<ServerSentEventConnection> connections = ConcurrentHashMap.newKeySet();
+
+	/*
+	 * Incremented every time the server configuration, which holds the access policy, is saved
+	 */
+	private final AtomicLong policyVersion = new AtomicLong();
+
+	public RevisionEventHandler(@Nonnull ServerLayer serverLayer, @Nonnull RevisionEventLog revisionEvents) {
+		this.serverLayer = serverLayer;
+		this.revisionEvents = revisionEvents;
+		serverLayer.addServerListener(new ServerListener() {
+			@Override
+			public void configurationChanged(String configFile) {
+				policyVersion.incrementAndGet();
+			}
+		});
+	}
+
+	@Override
+	public void handleRequest(HttpServerExchange exchange) throws Exception {
+		try {
+			AuthToken token = getAuthToken(exchange);
+			Set<String> projectIds = getProjectIds(exchange.getRequestHeaders());
+			for (String projectId : projectIds) {
+				checkReadAllowed(serverLayer, token, new ProjectIdImpl(projectId));
+			}
+			long version = policyVersion.get();
+			Set<String> readableProjects = projectIds.isEmpty() ? getReadableProjects(token, projectIds) : projectIds;
+			ReadableProjects initialProjects = new ReadableProjects(readableProjects, projectIds, version);
+			Handlers.serverSentEvents((connection, lastEventId) -> connected(connection, lastEventId, token, initialProjects))
+					.handleRequest(exchange);
+		}
+		catch (LoginTimeoutException e) {
+			loginTimeoutErrorStatusCode(exchange, e);
+			exchange.endExchange();
+		}
+		catch (ServerException e) {
+			handleServerException(exchange, e);
+			exchange.endExchange();
+		}
+	}
+
+	private void connected(ServerSentEventConnection connection, String lastEventId, AuthToken token,
+			ReadableProjects initialProjects) {
+		RevisionEventLog.Listener listener = new RevisionEventLog.Listener() {
+
+			private volatile ReadableProjects readableProjects = initialProjects;
+
+			@Override
+			public void revisionCommitted(RevisionEventLog.Event event) {
+				if (getReadableProjects().projectIds.contains(event.getProjectId())) {
+					connection.send(event.toString(), REVISION_EVENT, event.getCursor(), null);
+				}
+			}
+
+			/*
+			 * Resolved again after a policy change, so that a revoked permission applies to the open
+			 * connections as well. No project is readable until it can be resolved.
+			 */
+			private ReadableProjects getReadableProjects() {
+				ReadableProjects current = readableProjects;
+				long version = policyVersion.get();
+				if (current.policyVersion != version) {
+					Set<String> projectIds = new HashSet<>();
+					try {
+						projectIds = RevisionEventHandler.this.getReadableProjects(token, current.requestedIds);
+					}
+					catch (ServerException e) {
+						logger.warn("Unable to resolve the projects readable by " + token.getUser().getId().get(), e);
+					}
+					current = new ReadableProjects(projectIds, current.requestedIds, version);
+					readableProjects = current;
+				}
+				return current;
+			}
+
+			@Override
+			public void eventsLost(String cursor) {
+				connection.send("", RESET_EVENT, cursor, null);
+			}
+		};
+		connections.add(connection);
+		connection.addCloseTask(closed -> {
+			revisionEvents.unsubscribe(listener);
+			connections.remove(closed);
+		});
+		revisionEvents.subscribe(lastEventId, listener);
+		if (!connection.isOpen()) {
+			revisionEvents.unsubscribe(listener); // closed before the listener was added
+		}
+	}
+
+	/**
+	 * Closes the connections of all subscribed clients.
+	 */
+	public void closeConnections() {
+		for (ServerSentEventConnection connection : connections) {
+			try {
+				connection.close();
+			}
+			catch (IOException e) {
+				logger.warn("Unable to close the revision event connection", e);
+			}
+		}
+		connections.clear();
+	}
+
+	/*
+	 * Returns the given projects, or all the projects if none is given, that the user of the token may read
+	 */
+	private Set<String> getReadableProjects(AuthToken token, Set<String> projectIds) throws ServerException {
+		Set<String> candidates = projectIds;
+		if (candidates.isEmpty()) {
+			candidates = new HashSet<>();
+			try {
+				for (Project project : serverLayer.getAllProjects(token)) {
+					candidates.add(project.getId().get());
+				}
+			}
+			catch (AuthorizationException | ServerServiceException e) {
+				throw new ServerException(StatusCodes.INTERNAL_SERVER_ERROR, "Server failed to list the projects", e);
+			}
+		}
+		Set<String> readableProjects = new HashSet<>();
+		for (String projectId : candidates) {
+			if (isReadAllowed(serverLayer, token, new ProjectIdImpl(projectId))) {
+				readableProjects.add(projectId);
+			}
+		}
+		return readableProjects;
+	}
+
+	private Set<String> getProjectIds(HeaderMap requestHeaders) {
+		Set<String> projectIds = new HashSet<>();
+		HeaderValues values = requestHeaders.get(new HttpString(ServerProperties.PROJECTID_HEADER));
+		if (values != null) {
+			for (String value : values) {
+				for (String projectId : value.split(",")) {
+					if (!projectId.trim().isEmpty()) {
+						projectIds.add(projectId.trim());
+					}
+				}
+			}
+		}
+		return projectIds;
+	}
+
+	/*
+	 * The projects a connection may read, resolved from the requested projects (all projects if empty)
+	 * under the given version of the access policy
+	 */
+	private static class ReadableProjects {
+
+		private final Set<String> projectIds;
+
+		private final Set<String> requestedIds;
+
+		private final long policyVersion;
+
+		private ReadableProjects(Set<String> projectIds, Set<String> requestedIds, long policyVersion) {
+			this.projectIds = projectIds;
+			this.requestedIds = requestedIds;
+			this.policyVersion = policyVersion;
+		}
+	}
+}
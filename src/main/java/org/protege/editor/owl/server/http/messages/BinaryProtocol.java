@@ -0,0 +1,334 @@
+package org.protege.editor.owl.server.http.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.protege.editor.owl.server.api.CommitBundle;
+import org.protege.editor.owl.server.policy.CommitBundleImpl;
+import org.protege.editor.owl.server.versioning.Commit;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
+import org.protege.editor.owl.server.versioning.InvalidHistoryFileException;
+import org.protege.editor.owl.server.versioning.OWLObjectInterner;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.binaryowl.BinaryOWLMetadata;
+import org.semanticweb.binaryowl.BinaryOWLOntologyChangeLog;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.change.OWLOntologyChangeRecord;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * The compact binary format of the change service messages, used in place of Java serialization when
+ * the client sends its request with the {@link #CONTENT_TYPE} content type. The response then uses the
+ * same format.
+ * <p>
+ * Every request and response is framed by a magic number, the protocol version and the byte length of
+ * the payload, so that a malformed or truncated message is rejected before any of its content is
+ * decoded. The payload consists of big-endian integers, length-prefixed UTF-8 strings and, for the
+ * changes of a commit, length-prefixed BinaryOWL change logs. A change history is sent in the
+ * {@link HistoryFileRange} format, i.e., as the records stored in the history file, which are streamed
+ * after the frame since their length is known beforehand.
+ * <p>
+ * Every length and count read from a message is checked against a fixed maximum before anything is
+ * allocated or decoded: a payload is at most {@link #MAX_PAYLOAD_LENGTH} bytes, a change log at most
+ * {@link #MAX_CHANGE_LOG_LENGTH} bytes and a commit bundle holds at most {@link #MAX_COMMIT_COUNT}
+ * commits.
+ * <p>
+ * Only the change service messages have a binary format. The metaproject, snapshot and code generator
+ * requests still carry serialized objects of the metaproject and client libraries; their size is only
+ * bounded by the maximum entity size of the server.
+ */
+public final class BinaryProtocol {
+
+	public static final String CONTENT_TYPE = "application/x-protege-binary";
+
+	public static final int VERSION = 1;
+
+	private static final int MAGIC_NUMBER = 0x50535250; // "PSRP"
+
+	private static final int HEADER_SIZE = 12; // magic number + version + payload length
+
+	private static final int NULL_LENGTH = -1;
+
+	private static final int MAX_STRING_LENGTH = 1 << 24;
+
+	public static final int MAX_PAYLOAD_LENGTH = 1 << 30; // 1 GB
+
+	public static final int MAX_CHANGE_LOG_LENGTH = 1 << 28; // 256 MB
+
+	public static final int MAX_COMMIT_COUNT = 10000;
+
+	private BinaryProtocol() {
+		// NO-OP
+	}
+
+	/**
+	 * Returns <code>true</code> if the given content type header denotes this protocol.
+	 */
+	public static boolean isBinaryContentType(@Nullable String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		int parameters = contentType.indexOf(';');
+		String mediaType = (parameters < 0) ? contentType : contentType.substring(0, parameters);
+		return CONTENT_TYPE.equalsIgnoreCase(mediaType.trim());
+	}
+
+	/**
+	 * Returns the content type of the messages in this protocol version.
+	 */
+	public static String getContentType() {
+		return CONTENT_TYPE + "; version=" + VERSION;
+	}
+
+	/**
+	 * Reads the frame of a message and returns the stream of its payload.
+	 *
+	 * @throws ProtocolException If the message is not framed in this protocol version
+	 * @throws IOException If an I/O problem occurs
+	 */
+	public static DataInputStream readMessage(@Nonnull InputStream inputStream) throws IOException {
+		DataInputStream dis = new DataInputStream(inputStream);
+		if (dis.readInt() != MAGIC_NUMBER) {
+			throw new ProtocolException("The input is not a binary protocol message");
+		}
+		int version = dis.readInt();
+		if (version != VERSION) {
+			throw new ProtocolException("Unsupported binary protocol version: " + version);
+		}
+		int length = dis.readInt();
+		if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+			throw new ProtocolException("Invalid payload length: " + length);
+		}
+		return new DataInputStream(ByteStreams.limit(dis, length));
+	}
+
+	/**
+	 * Writes the given payload as a framed message.
+	 */
+	public static void writeMessage(@Nonnull byte[] payload, @Nonnull OutputStream outputStream) throws IOException {
+		writeMessageHeader(payload.length, outputStream);
+		outputStream.write(payload);
+		outputStream.flush();
+	}
+
+	/**
+	 * Writes the frame of a message whose payload of the given length is streamed afterwards.
+	 *
+	 * @throws ProtocolException If the payload is longer than {@link #MAX_PAYLOAD_LENGTH}
+	 * @throws IOException If an I/O problem occurs
+	 */
+	public static void writeMessageHeader(long payloadLength, @Nonnull OutputStream outputStream) throws IOException {
+		outputStream.write(getMessageHeader(payloadLength).array());
+	}
+
+	/**
+	 * Returns the frame of a message whose payload has the given length, e.g., for a payload that is
+	 * transferred from a file.
+	 *
+	 * @throws ProtocolException If the payload is longer than {@link #MAX_PAYLOAD_LENGTH}
+	 */
+	public static ByteBuffer getMessageHeader(long payloadLength) throws ProtocolException {
+		if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) {
+			throw new ProtocolException("The payload exceeds the maximum length: " + payloadLength);
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC_NUMBER);
+		header.putInt(VERSION);
+		header.putInt((int) payloadLength);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Returns the number of bytes written by {@link #writeMessage(byte[], OutputStream)}.
+	 */
+	public static int getMessageLength(@Nonnull byte[] payload) {
+		return HEADER_SIZE + payload.length;
+	}
+
+	/**
+	 * Returns the number of bytes of a message whose payload has the given length.
+	 */
+	public static long getMessageLength(long payloadLength) {
+		return HEADER_SIZE + payloadLength;
+	}
+
+	/*
+	 * Payload values
+	 */
+
+	public static void writeRevision(@Nonnull DocumentRevision revision, @Nonnull DataOutputStream dos)
+			throws IOException {
+		dos.writeInt(revision.getRevisionNumber());
+	}
+
+	public static DocumentRevision readRevision(@Nonnull DataInputStream dis) throws IOException {
+		int revisionNumber = dis.readInt();
+		if (revisionNumber < 0) {
+			throw new ProtocolException("Invalid revision number: " + revisionNumber);
+		}
+		return DocumentRevision.create(revisionNumber);
+	}
+
+	/**
+	 * Writes a reference to the history file, i.e., its path on the server as given by the server.
+	 */
+	public static void writeHistoryFile(@Nonnull HistoryFile historyFile, @Nonnull DataOutputStream dos)
+			throws IOException {
+		writeString(historyFile.getPath(), dos);
+	}
+
+	/**
+	 * Reads a reference to an existing history file.
+	 *
+	 * @throws ProtocolException If the reference does not denote an existing history file
+	 */
+	public static HistoryFile readHistoryFile(@Nonnull DataInputStream dis) throws IOException {
+		String path = readString(dis);
+		if (path == null) {
+			throw new ProtocolException("Missing history file");
+		}
+		try {
+			return HistoryFile.openExisting(path);
+		}
+		catch (InvalidHistoryFileException e) {
+			throw new ProtocolException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the base revision and the commits of the bundle. The changes of each commit are written as
+	 * a BinaryOWL change log, as in the serialized form of {@link Commit}.
+	 */
+	public static void writeCommitBundle(@Nonnull CommitBundle commitBundle, @Nonnull DataOutputStream dos)
+			throws IOException {
+		writeRevision(commitBundle.getBaseRevision(), dos);
+		List<Commit> commits = commitBundle.getCommits();
+		dos.writeInt(commits.size());
+		for (Commit commit : commits) {
+			writeMetadata(commit.getMetadata(), dos);
+			ByteArrayOutputStream changes = new ByteArrayOutputStream();
+			new BinaryOWLOntologyChangeLog().appendChanges(commit.getChanges(), System.currentTimeMillis(),
+					BinaryOWLMetadata.emptyMetadata(), changes);
+			dos.writeInt(changes.size());
+			changes.writeTo(dos);
+		}
+	}
+
+	public static CommitBundle readCommitBundle(@Nonnull DataInputStream dis) throws IOException {
+		DocumentRevision baseRevision = readRevision(dis);
+		int commitCount = dis.readInt();
+		if (commitCount < 0 || commitCount > MAX_COMMIT_COUNT) {
+			throw new ProtocolException("Invalid number of commits: " + commitCount);
+		}
+		OWLOntologyManager owlManager = OWLManager.createOWLOntologyManager();
+		OWLOntology placeholder;
+		try {
+			placeholder = owlManager.createOntology();
+		}
+		catch (OWLOntologyCreationException e) {
+			throw new IOException("Internal error while reading commit bundle", e);
+		}
+		List<Commit> commits = new ArrayList<>();
+		for (int i = 0; i < commitCount; i++) {
+			RevisionMetadata metadata = readMetadata(dis);
+			int length = dis.readInt();
+			if (length < 0 || length > MAX_CHANGE_LOG_LENGTH) {
+				throw new ProtocolException("Invalid change log length: " + length);
+			}
+			List<OWLOntologyChange> changes = new ArrayList<>();
+			InputStream changeLog = ByteStreams.limit(dis, length);
+			new BinaryOWLOntologyChangeLog().readChanges(changeLog, OWLObjectInterner.getDataFactory(),
+					(list, skipSetting, filePosition) -> {
+						for (OWLOntologyChangeRecord cr : list.getChangeRecords()) {
+							changes.add(OWLObjectInterner.createOntologyChange(cr.getData(), placeholder));
+						}
+					});
+			if (changeLog.read() != -1) {
+				throw new ProtocolException("The change log is shorter than its length: " + length);
+			}
+			commits.add(new Commit(metadata, changes));
+		}
+		return new CommitBundleImpl(baseRevision, commits);
+	}
+
+	/**
+	 * Writes the change history as a message whose payload is a history file range, see
+	 * {@link HistoryFileRange#readChanges(InputStream)}. The records are streamed revision by revision.
+	 */
+	public static void writeChanges(@Nonnull ChangeHistory changeHistory, @Nonnull OutputStream outputStream)
+			throws IOException {
+		long recordsLength = HistoryFileRange.getRecordsLength(changeHistory);
+		writeMessageHeader(HistoryFileRange.HEADER_SIZE + recordsLength, outputStream);
+		HistoryFileRange.writeChanges(changeHistory, recordsLength, outputStream);
+	}
+
+	public static ChangeHistory readChanges(@Nonnull InputStream inputStream) throws IOException {
+		return HistoryFileRange.readChanges(readMessage(inputStream));
+	}
+
+	private static void writeMetadata(RevisionMetadata metadata, DataOutputStream dos) throws IOException {
+		writeString(metadata.getAuthorId(), dos);
+		writeString(metadata.getAuthorName(), dos);
+		writeString(metadata.getAuthorEmail(), dos);
+		dos.writeLong(metadata.getDate().getTime());
+		writeString(metadata.getComment(), dos);
+	}
+
+	private static RevisionMetadata readMetadata(DataInputStream dis) throws IOException {
+		String authorId = readString(dis);
+		String authorName = readString(dis);
+		String authorEmail = readString(dis);
+		Date changeDate = new Date(dis.readLong());
+		String comment = readString(dis);
+		if (authorId == null || comment == null) {
+			throw new ProtocolException("Missing author or comment in the commit metadata");
+		}
+		return new RevisionMetadata(authorId, authorName, authorEmail, changeDate, comment);
+	}
+
+	private static void writeString(@Nullable String value, DataOutputStream dos) throws IOException {
+		if (value == null) {
+			dos.writeInt(NULL_LENGTH);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	@Nullable
+	private static String readString(DataInputStream dis) throws IOException {
+		int length = dis.readInt();
+		if (length == NULL_LENGTH) {
+			return null;
+		}
+		if (length < 0 || length > MAX_STRING_LENGTH) {
+			throw new ProtocolException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		dis.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
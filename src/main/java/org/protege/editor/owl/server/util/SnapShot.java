@@ -2,11 +2,14 @@ package org.protege.editor.owl.server.util;
 
 import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
 
+import org.protege.editor.owl.server.versioning.OWLObjectInterner;
 import org.semanticweb.binaryowl.BinaryOWLOntologyDocumentSerializer;
 import org.semanticweb.binaryowl.owlapi.BinaryOWLOntologyBuildingHandler;
 import org.semanticweb.binaryowl.owlapi.OWLOntologyWrapper;
@@ -22,10 +25,22 @@ public class SnapShot implements Serializable {
 	private static final long serialVersionUID = -5394391545733189187L;
 	
 	private OWLOntology ont;
+
+	private transient File file; // a stored BinaryOWL document that is sent as it is
 	
 	public SnapShot(OWLOntology o) {
 		ont = o;
 	}
+
+	/**
+	 * Creates a snapshot of the BinaryOWL document stored in the given file. The file content is
+	 * written without loading the ontology, and it is read back as a regular snapshot.
+	 */
+	public static SnapShot fromFile(File file) {
+		SnapShot snapshot = new SnapShot(null);
+		snapshot.file = file;
+		return snapshot;
+	}
 	
 	public OWLOntology getOntology() {
 		return ont;
@@ -33,9 +48,14 @@ public class SnapShot implements Serializable {
 	
 	private void writeObject(ObjectOutputStream out) throws IOException {
         try {
-        	BinaryOWLOntologyDocumentSerializer serializer = new BinaryOWLOntologyDocumentSerializer();
-			
-			serializer.write(new OWLOntologyWrapper(ont), new DataOutputStream(out));
+        	if (ont != null) {
+        		BinaryOWLOntologyDocumentSerializer serializer = new BinaryOWLOntologyDocumentSerializer();
+        		serializer.write(new OWLOntologyWrapper(ont), new DataOutputStream(out));
+        	}
+        	else if (file != null) {
+        		Files.copy(file.toPath(), out);
+        	}
+        	// a snapshot without content only writes its frame, see SnapShotFile
             
         }
         catch (IOException e) {
@@ -55,7 +75,7 @@ public class SnapShot implements Serializable {
 			//OWLOntologyManager manIn = OWLManager.createOWLOntologyManager();
 	        OWLOntology ontIn = owlManager.createOntology();
 	        BufferedInputStream inputStream = new BufferedInputStream(in);
-	        serializer.read(inputStream, new BinaryOWLOntologyBuildingHandler(ontIn), owlManager.getOWLDataFactory());
+	        serializer.read(inputStream, new BinaryOWLOntologyBuildingHandler(ontIn), OWLObjectInterner.getDataFactory());
             
             ont = ontIn;
         }
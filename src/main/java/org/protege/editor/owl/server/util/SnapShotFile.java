@@ -0,0 +1,118 @@
+package org.protege.editor.owl.server.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Represents a stored snapshot file that is sent to the client as it is, without loading the ontology.
+ * <p>
+ * The snapshot file holds the same BinaryOWL document that {@link SnapShot} writes on the wire. The
+ * output of {@link #writeTo(OutputStream)} is the object stream of a {@link SnapShot} followed by its
+ * checksum, where the content of the snapshot file is framed as block data. Hence the client reads it
+ * with an {@link java.io.ObjectInputStream} exactly like a serialized {@link SnapShot}, and the size of
+ * the output is known in advance.
+ */
+public class SnapShotFile {
+
+    private static final int MAX_BLOCK_SIZE = 1 << 30;
+
+    private static final int BLOCK_HEADER_SIZE = 5; // TC_BLOCKDATALONG + size
+
+    private final File file;
+
+    private final long length;
+
+    private final String checksum;
+
+    private final byte[] header;
+    private final byte[] trailer;
+
+    /**
+     * Creates the transfer of the given snapshot file.
+     *
+     * @param file
+     *          The snapshot file
+     * @param checksum
+     *          The checksum sent after the snapshot, or <code>null</code> to only send the snapshot
+     * @throws IOException If the snapshot frame cannot be created
+     */
+    public SnapShotFile(@Nonnull File file, @Nullable String checksum) throws IOException {
+        this.file = file;
+        this.length = file.length();
+        this.checksum = checksum;
+
+        // Serialize an empty snapshot to get the object stream around the content of the snapshot file
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(new SnapShot(null));
+        oos.flush();
+        int contentEnd = bytes.size() - 1; // the snapshot ends with TC_ENDBLOCKDATA
+        if (checksum != null) {
+            oos.writeObject(checksum);
+        }
+        oos.close();
+        byte[] frame = bytes.toByteArray();
+        if (frame[contentEnd] != ObjectStreamConstants.TC_ENDBLOCKDATA) {
+            throw new IOException("Unexpected serialized form of " + SnapShot.class.getName());
+        }
+        header = Arrays.copyOfRange(frame, 0, contentEnd);
+        trailer = Arrays.copyOfRange(frame, contentEnd, frame.length);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Nullable
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the number of bytes written by {@link #writeTo(OutputStream)}.
+     */
+    public long getTransferLength() {
+        long blockCount = (length + MAX_BLOCK_SIZE - 1) / MAX_BLOCK_SIZE;
+        return header.length + blockCount * BLOCK_HEADER_SIZE + length + trailer.length;
+    }
+
+    /**
+     * Writes the serialized snapshot and its checksum to the output stream.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public void writeTo(@Nonnull OutputStream os) throws IOException {
+        os.write(header);
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (source.size() < length) {
+                throw new IOException("The snapshot file " + file.getName() + " has been truncated");
+            }
+            WritableByteChannel target = Channels.newChannel(os);
+            for (long position = 0; position < length; position += MAX_BLOCK_SIZE) {
+                int blockSize = (int) Math.min(MAX_BLOCK_SIZE, length - position);
+                os.write(ByteBuffer.allocate(BLOCK_HEADER_SIZE)
+                        .put(ObjectStreamConstants.TC_BLOCKDATALONG)
+                        .putInt(blockSize)
+                        .array());
+                for (long transferred = 0; transferred < blockSize; ) {
+                    transferred += source.transferTo(position + transferred, blockSize - transferred, target);
+                }
+            }
+        }
+        os.write(trailer);
+        os.flush();
+    }
+}
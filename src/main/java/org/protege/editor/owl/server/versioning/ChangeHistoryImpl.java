@@ -2,6 +2,7 @@ package org.protege.editor.owl.server.versioning;
 
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
 import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
 
 import org.semanticweb.binaryowl.BinaryOWLMetadata;
@@ -16,9 +17,14 @@ import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -40,17 +46,30 @@ public class ChangeHistoryImpl implements ChangeHistory {
 
     private DocumentRevision baseRevision;
     private DocumentRevision headRevision;
-    private SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
-    private SortedMap<DocumentRevision, RevisionMetadata> logs = new TreeMap<>();
+    private SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions;
+    private SortedMap<DocumentRevision, RevisionMetadata> logs;
+
+    /*
+     * The change history the revisions are read from, when this instance is a view
+     */
+    private transient ChangeHistory revisionSource;
+
+    /*
+     * The cache of the encoded revisions of the history file the source is read from, if any
+     */
+    private transient RevisionRecordCache recordCache;
+
+    private transient HistoryFile recordFile;
 
     public ChangeHistoryImpl() {
-        this.baseRevision = DocumentRevision.START_REVISION;
-        this.headRevision = DocumentRevision.START_REVISION;
+        this(DocumentRevision.START_REVISION);
     }
 
     public ChangeHistoryImpl(@Nonnull DocumentRevision baseRevision) {
         this.baseRevision = baseRevision;
         this.headRevision = baseRevision;
+        this.revisions = RevisionMap.create(baseRevision);
+        this.logs = RevisionMap.create(baseRevision);
     }
 
     private ChangeHistoryImpl(@Nonnull DocumentRevision startRevision,
@@ -80,9 +99,74 @@ public class ChangeHistoryImpl implements ChangeHistory {
         return new ChangeHistoryImpl(startRevision, revisions, logs);
     }
 
+    /**
+     * Creates a read-only view of the <code>source</code> change history that begins at the
+     * <code>start + 1</code> revision and extends to the <code>end</code> revision. The revisions are
+     * not copied: they are read one at a time from the source when the view is serialized, hence the
+     * source must not remove or replace the revisions in the range. A view of a view reads from the
+     * source of the latter.
+     *
+     * @param source
+     *          The source change history
+     * @param start
+     *          The beginning revision, exclusive
+     * @param end
+     *          The ending revision, inclusive
+     * @return A view of the specified sub history
+     */
+    public static ChangeHistoryImpl createView(@Nonnull ChangeHistory source, @Nonnull DocumentRevision start,
+            @Nonnull DocumentRevision end) {
+        if (start.behind(source.getBaseRevision())) {
+            throw new IllegalArgumentException("The input start is out of the range");
+        }
+        if (end.aheadOf(source.getHeadRevision())) {
+            throw new IllegalArgumentException("The input end is out of the range");
+        }
+        if (end.behind(start)) {
+            throw new IllegalArgumentException("The input end is before the input start");
+        }
+        ChangeHistoryImpl view = new ChangeHistoryImpl(start);
+        view.headRevision = end;
+        view.revisionSource = (source instanceof ChangeHistoryImpl && ((ChangeHistoryImpl) source).isView())
+                ? ((ChangeHistoryImpl) source).revisionSource : source;
+        return view;
+    }
+
+    /**
+     * Creates a view of the <code>source</code> change history, see
+     * {@link #createView(ChangeHistory, DocumentRevision, DocumentRevision)}. The view is serialized by
+     * copying the encoded revisions held in the <code>recordCache</code>, and the revisions it has to
+     * encode are added to the cache.
+     *
+     * @param source
+     *          The source change history, as read from the <code>historyFile</code>
+     * @param start
+     *          The beginning revision, exclusive
+     * @param end
+     *          The ending revision, inclusive
+     * @param historyFile
+     *          The history file of the source change history
+     * @param recordCache
+     *          The cache of encoded revisions
+     * @return A view of the specified sub history
+     */
+    public static ChangeHistoryImpl createView(@Nonnull ChangeHistory source, @Nonnull DocumentRevision start,
+            @Nonnull DocumentRevision end, @Nonnull HistoryFile historyFile, @Nonnull RevisionRecordCache recordCache) {
+        ChangeHistoryImpl view = createView(source, start, end);
+        view.recordFile = historyFile;
+        view.recordCache = recordCache;
+        return view;
+    }
+
     @Override
     public void addRevision(RevisionMetadata metadata, List<OWLOntologyChange> changes) {
+        if (revisionSource != null) {
+            throw new UnsupportedOperationException("Unable to add a revision to a change history view");
+        }
         DocumentRevision nextRevision = headRevision.next();
+        if (isImmutable()) {
+            throw new UnsupportedOperationException("Unable to add a revision to a cropped change history");
+        }
         logs.put(nextRevision, metadata);
         revisions.put(nextRevision, changes);
         headRevision = nextRevision;
@@ -100,39 +184,138 @@ public class ChangeHistoryImpl implements ChangeHistory {
 
     @Override
     public RevisionMetadata getMetadataForRevision(DocumentRevision revision) {
+        if (revisionSource != null) {
+            return isInRange(revision) ? revisionSource.getMetadataForRevision(revision) : null;
+        }
         return logs.get(revision);
     }
 
     @Override
     public List<OWLOntologyChange> getChangesForRevision(DocumentRevision revision) {
+        if (revisionSource != null) {
+            return isInRange(revision) ? revisionSource.getChangesForRevision(revision) : null;
+        }
         return revisions.get(revision);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For a view, the revisions are copied from the source change history, except for a view of a
+     * {@link MappedChangeHistory}, whose revisions are decoded when they are read.
+     */
     @Override
     public SortedMap<DocumentRevision, List<OWLOntologyChange>> getRevisions() {
+        if (revisionSource instanceof MappedChangeHistory) {
+            return revisionSource.getRevisions().subMap(baseRevision.next(), headRevision.next());
+        }
+        if (revisionSource != null) {
+            return ChangeHistoryUtils.crop(revisionSource, baseRevision, headRevision).getRevisions();
+        }
         return revisions;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For a view, the metadata are copied from the source change history, except for a view of a
+     * {@link MappedChangeHistory}, whose metadata are decoded when they are read.
+     */
     @Override
     public SortedMap<DocumentRevision, RevisionMetadata> getMetadata() {
+        if (revisionSource instanceof MappedChangeHistory) {
+            return revisionSource.getMetadata().subMap(baseRevision.next(), headRevision.next());
+        }
+        if (revisionSource != null) {
+            return ChangeHistoryUtils.crop(revisionSource, baseRevision, headRevision).getMetadata();
+        }
         return logs;
     }
 
     @Override
     public boolean isEmpty() {
+        if (revisionSource != null) {
+            return headRevision.sameAs(baseRevision);
+        }
         return revisions.isEmpty();
     }
 
+    /**
+     * Returns <code>true</code> if this change history is a view of another change history.
+     */
+    public boolean isView() {
+        return revisionSource != null;
+    }
+
+    /**
+     * Returns <code>true</code> if this change history is a view of a {@link MappedChangeHistory}.
+     */
+    public boolean isMappedView() {
+        return revisionSource instanceof MappedChangeHistory;
+    }
+
+    /**
+     * Returns <code>true</code> if the revisions of this change history are an immutable view of the
+     * revisions of another change history, as returned by {@link ChangeHistoryUtils#crop}.
+     */
+    public boolean isImmutable() {
+        return (revisions instanceof RevisionMap && ((RevisionMap<?>) revisions).isImmutable())
+                || (logs instanceof RevisionMap && ((RevisionMap<?>) logs).isImmutable());
+    }
+
+    ChangeHistory getRevisionSource() {
+        return revisionSource;
+    }
+
+    private boolean isInRange(DocumentRevision revision) {
+        return revision.aheadOf(baseRevision) && revision.behindOrSameAs(headRevision);
+    }
+
+    /*
+     * Writes the BinaryOWL record of the given revision. The stored or cached record is copied when
+     * available, since it has the same encoding.
+     */
+    void writeRevision(DocumentRevision revision, OutputStream out) throws IOException {
+        if (revisionSource instanceof MappedChangeHistory) {
+            ((MappedChangeHistory) revisionSource).transferRevision(revision, out);
+        }
+        else if (recordCache == null) {
+            ChangeHistoryUtils.writeRevision(this, revision, out);
+        }
+        else if (!recordCache.transferRevision(recordFile, revision, out)) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            ChangeHistoryUtils.writeRevision(this, revision, record);
+            recordCache.put(recordFile, revision, record.toByteArray(), 0, record.size());
+            record.writeTo(out);
+        }
+    }
+
+    /*
+     * Returns the byte length of the record written by writeRevision. A record that is neither stored
+     * nor cached is encoded to count its bytes; it is cached on the way, if there is a cache, so that
+     * writing it afterwards copies it.
+     */
+    long getRecordLength(DocumentRevision revision) throws IOException {
+        if (revisionSource instanceof MappedChangeHistory) {
+            return ((MappedChangeHistory) revisionSource).getRecordLength(revision);
+        }
+        if (recordCache != null) {
+            int length = recordCache.getRecordLength(recordFile, revision);
+            if (length >= 0) {
+                return length;
+            }
+        }
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        writeRevision(revision, counter);
+        return counter.getCount();
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         try {
-            BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
             DocumentRevision base = getBaseRevision();
             DocumentRevision head = getHeadRevision();
             for (DocumentRevision current = base.next(); current.behindOrSameAs(head); current = current.next()) {
-                List<OWLOntologyChange> changeSet = getChangesForRevision(current);
-                RevisionMetadata metadata = getMetadataForRevision(current);
-                BinaryOWLMetadata changeMetadata = getBinaryOWLMetadata(metadata);
-                log.appendChanges(changeSet, current.getRevisionNumber(), changeMetadata, out);
+                writeRevision(current, out);
             }
         }
         finally {
@@ -146,16 +329,13 @@ public class ChangeHistoryImpl implements ChangeHistory {
         readBinaryOWLChangeLog(in, logs, revisions);
         if (logs.isEmpty() && revisions.isEmpty()) {
             this.baseRevision = DocumentRevision.START_REVISION;
-            this.headRevision = DocumentRevision.START_REVISION;
-            this.logs = logs;
-            this.revisions = revisions;
         }
         else {
             this.baseRevision = revisions.firstKey().previous();
-            this.headRevision = baseRevision.next(revisions.size());
-            this.logs = logs;
-            this.revisions = revisions;
         }
+        this.headRevision = baseRevision.next(revisions.size());
+        this.logs = RevisionMap.copyOf(baseRevision, logs);
+        this.revisions = RevisionMap.copyOf(baseRevision, revisions);
     }
 
     private static void readBinaryOWLChangeLog(ObjectInputStream inputStream,
@@ -165,7 +345,7 @@ public class ChangeHistoryImpl implements ChangeHistory {
             BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
             OWLOntologyManager owlManager = OWLManager.createOWLOntologyManager();
             OWLOntology placeholder = owlManager.createOntology();
-            log.readChanges(inputStream, owlManager.getOWLDataFactory(), (list, skipSetting, filePosition) -> {
+            log.readChanges(inputStream, OWLObjectInterner.getDataFactory(), (list, skipSetting, filePosition) -> {
                 // Get the revision number
                 int revision = (int) list.getTimestamp(); // TODO Report API misuse, timestamp == revision number
                 
@@ -179,7 +359,7 @@ public class ChangeHistoryImpl implements ChangeHistory {
                 List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
                 for (OWLOntologyChangeRecord cr : changeRecords) {
                     OWLOntologyChangeData changeData = cr.getData();
-                    OWLOntologyChange change = changeData.createOntologyChange(placeholder);
+                    OWLOntologyChange change = OWLObjectInterner.createOntologyChange(changeData, placeholder);
                     changes.add(change);
                 }
                 resultRevisions.put(DocumentRevision.create(revision), changes);
@@ -190,16 +370,6 @@ public class ChangeHistoryImpl implements ChangeHistory {
         }
     }
 
-    private static BinaryOWLMetadata getBinaryOWLMetadata(RevisionMetadata metadata) {
-        BinaryOWLMetadata metadataRecord = new BinaryOWLMetadata();
-        metadataRecord.setStringAttribute(RevisionMetadata.AUTHOR_USERNAME, metadata.getAuthorId());
-        metadataRecord.setStringAttribute(RevisionMetadata.AUTHOR_NAME, metadata.getAuthorName());
-        metadataRecord.setStringAttribute(RevisionMetadata.AUTHOR_EMAIL, metadata.getAuthorEmail());
-        metadataRecord.setLongAttribute(RevisionMetadata.CHANGE_DATE, metadata.getDate().getTime());
-        metadataRecord.setStringAttribute(RevisionMetadata.CHANGE_COMMENT, metadata.getComment());
-        return metadataRecord;
-    }
-
     private static RevisionMetadata getRevisionMetadata(BinaryOWLMetadata metadata) {
         String authorId = metadata.getStringAttribute(RevisionMetadata.AUTHOR_USERNAME, "");
         String authorName = metadata.getStringAttribute(RevisionMetadata.AUTHOR_NAME, "");
@@ -237,6 +407,7 @@ public class ChangeHistoryImpl implements ChangeHistory {
             sb.append("(empty)");
         }
         else {
+            SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = getRevisions();
             boolean needNewline = false;
             for (DocumentRevision revision : revisions.keySet()) {
                 if (needNewline) {
@@ -10,22 +10,32 @@ import org.semanticweb.binaryowl.BinaryOWLOntologyChangeLog;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.change.OWLOntologyChangeData;
 import org.semanticweb.owlapi.change.OWLOntologyChangeRecord;
+import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.io.ByteStreams;
 
 /**
  * @author Josef Hardi <johardi@stanford.edu> <br>
@@ -33,9 +43,15 @@ import javax.annotation.Nonnull;
  */
 public class ChangeHistoryUtils {
 
+    private static final Logger logger = LoggerFactory.getLogger(ChangeHistoryUtils.class);
+
     /**
      * Returns a change history that is a sub history of the input <code>changeHistory</code>. The crop begins
      * at the specified <code>start + 1</code> revision and extends to the to the <code>end</code> revision.
+     * <p>
+     * The returned change history is read-only. It shares the revisions stored by the input change history
+     * instead of copying them, so that cropping takes constant time, unless the input change history does
+     * not store its revisions in {@link RevisionMap}s.
      *
      * @param changeHistory
      *          The input change history.
@@ -46,28 +62,28 @@ public class ChangeHistoryUtils {
      * @return The specified sub history.
      */
     public static ChangeHistory crop(@Nonnull ChangeHistory changeHistory, @Nonnull DocumentRevision start, @Nonnull DocumentRevision end) {
+        if (changeHistory instanceof MappedChangeHistory) {
+            return ((MappedChangeHistory) changeHistory).crop(start, end); // decode only the requested range
+        }
         if (start.behind(changeHistory.getBaseRevision())) {
             throw new IllegalArgumentException("The input start is out of the range");
         }
         if (end.aheadOf(changeHistory.getHeadRevision())) {
             throw new IllegalArgumentException("The input end is out of the range");
         }
-        if (start.equals(end)) {
-            return ChangeHistoryImpl.createEmptyChangeHistory(start);
+        if (changeHistory instanceof ChangeHistoryImpl && ((ChangeHistoryImpl) changeHistory).isView()) {
+            return crop(((ChangeHistoryImpl) changeHistory).getRevisionSource(), start, end);
         }
-        else {
-            SortedMap<DocumentRevision, List<OWLOntologyChange>> subRevisions = new TreeMap<>();
-            SortedMap<DocumentRevision, RevisionMetadata> subMetadata = new TreeMap<>();
-            if (start.sameAs(changeHistory.getBaseRevision()) && end.sameAs(changeHistory.getHeadRevision())) {
-                subRevisions.putAll(changeHistory.getRevisions());
-                subMetadata.putAll(changeHistory.getMetadata());
-            }
-            else {
-                subRevisions.putAll(changeHistory.getRevisions().tailMap(start.next()).headMap(end.next()));
-                subMetadata.putAll(changeHistory.getMetadata().tailMap(start.next()).headMap(end.next()));
-            }
-            return ChangeHistoryImpl.recreate(start, subRevisions, subMetadata);
+        SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = changeHistory.getRevisions();
+        SortedMap<DocumentRevision, RevisionMetadata> metadata = changeHistory.getMetadata();
+        if (!(revisions instanceof RevisionMap) || !(metadata instanceof RevisionMap)) {
+            revisions = RevisionMap.copyOf(changeHistory.getBaseRevision(), revisions);
+            metadata = RevisionMap.copyOf(changeHistory.getBaseRevision(), metadata);
         }
+        // The sub maps are immutable views, which keep their revisions while the input history grows
+        return ChangeHistoryImpl.recreate(start,
+                revisions.subMap(start.next(), end.next()),
+                metadata.subMap(start.next(), end.next()));
     }
 
     /**
@@ -110,21 +126,82 @@ public class ChangeHistoryUtils {
      * @throws IOException
      */
     public static void appendChanges(@Nonnull ChangeHistory changeHistory, @Nonnull HistoryFile historyFile) throws IOException {
-        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(historyFile, true));
+        appendChanges(changeHistory, historyFile, HistoryIndex.load(historyFile));
+    }
+
+    /**
+     * Appends the given <code>changeHistory</code> to the specified input <code>historyFile</code> and
+     * records the byte location of each appended revision in the given <code>historyIndex</code>. The index
+     * is invalidated if it does not match the history file before the append. The appended data is forced
+     * to the storage device once, before the index is updated and saved. If the append fails, the history
+     * file is truncated back to its previous length, such that no partial record is left behind, and the
+     * index is left unchanged.
+     *
+     * @param changeHistory
+     *          The input change history
+     * @param historyFile
+     *          The destination file. It must already exist in the file system.
+     * @param historyIndex
+     *          The index of the destination file, or <code>null</code> if the history file has no valid index.
+     * @throws IOException
+     */
+    public static void appendChanges(@Nonnull ChangeHistory changeHistory, @Nonnull HistoryFile historyFile,
+            @Nullable HistoryIndex historyIndex) throws IOException {
+        final long previousLength = historyFile.length();
+        boolean updateIndex = historyIndex != null
+                && historyIndex.getEndOffset() == previousLength
+                && (historyIndex.isEmpty() || historyIndex.getHeadRevision().sameAs(changeHistory.getBaseRevision()));
+        DocumentRevision base = changeHistory.getBaseRevision();
+        DocumentRevision head = changeHistory.getHeadRevision();
+        int[] lengths = new int[DocumentRevision.distance(base, head)];
+        FileOutputStream fileOutputStream = new FileOutputStream(historyFile, true);
         try {
-            BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
-            DocumentRevision base = changeHistory.getBaseRevision();
-            DocumentRevision head = changeHistory.getHeadRevision();
+            BufferedOutputStream outputStream = new BufferedOutputStream(fileOutputStream);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int i = 0;
             for (DocumentRevision current = base.next(); current.behindOrSameAs(head); current = current.next()) {
-                List<OWLOntologyChange> changeSet = changeHistory.getChangesForRevision(current);
-                RevisionMetadata metadata = changeHistory.getMetadataForRevision(current);
-                BinaryOWLMetadata changeMetadata = getBinaryOWLMetadata(metadata);
-                log.appendChanges(changeSet, current.getRevisionNumber(), changeMetadata, outputStream); // TODO Report API misuse, timestamp == revision number
+                buffer.reset();
+                writeRevision(changeHistory, current, buffer);
+                buffer.writeTo(outputStream);
+                lengths[i++] = buffer.size();
             }
+            outputStream.flush();
+            fileOutputStream.getFD().sync(); // single durability barrier for all appended revisions
+        }
+        catch (IOException | RuntimeException e) {
+            truncate(fileOutputStream, previousLength, historyFile, e);
+            throw e;
         }
         finally {
-            outputStream.flush();
-            outputStream.close();
+            fileOutputStream.close();
+        }
+        if (updateIndex) {
+            long offset = previousLength;
+            int i = 0;
+            for (DocumentRevision current = base.next(); current.behindOrSameAs(head); current = current.next()) {
+                historyIndex.add(current, offset, lengths[i]);
+                offset += lengths[i++];
+            }
+            historyIndex.save();
+        }
+        else if (historyIndex != null) {
+            historyIndex.invalidate();
+        }
+    }
+
+    /*
+     * Removes the partial records of a failed append. A failure to truncate is reported with the append
+     * failure, since the history file then has to be restored from its backup.
+     */
+    private static void truncate(FileOutputStream fileOutputStream, long length, HistoryFile historyFile,
+            Exception appendFailure) {
+        try {
+            fileOutputStream.getChannel().truncate(length);
+            fileOutputStream.getChannel().force(false);
+        }
+        catch (IOException | RuntimeException e) {
+            appendFailure.addSuppressed(e);
+            logger.error("Unable to remove the partial records appended to " + historyFile.getName(), e);
         }
     }
 
@@ -144,6 +221,18 @@ public class ChangeHistoryUtils {
      */
     public static ChangeHistory readChanges(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision start,
             @Nonnull DocumentRevision end) throws IOException, ClassNotFoundException {
+        HistoryIndex historyIndex = HistoryIndex.load(historyFile);
+        if (historyIndex != null) {
+            DocumentRevision first = start.previous();
+            if (first.behind(historyIndex.getBaseRevision())) {
+                first = historyIndex.getBaseRevision();
+            }
+            DocumentRevision last = end.previous();
+            if (last.aheadOf(historyIndex.getHeadRevision())) {
+                last = historyIndex.getHeadRevision();
+            }
+            return readChanges(historyFile, historyIndex, first, last);
+        }
         final SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
         final SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
         FileInputStream inputStream = new FileInputStream(historyFile);
@@ -162,7 +251,62 @@ public class ChangeHistoryUtils {
     }
 
     /**
-     * Reads the whole change history from the input <code>historyFile</code>.
+     * Reads change history from the input <code>historyFile</code> using its <code>historyIndex</code>. Only
+     * the revisions that begin at the specified <code>start + 1</code> revision and extend to the <code>end</code>
+     * revision are decoded.
+     *
+     * @param historyFile
+     *          The input history file
+     * @param historyIndex
+     *          The index of the input history file
+     * @param start
+     *          The beginning revision, exclusive
+     * @param end
+     *          The ending revision, inclusive
+     * @return The specified sub history
+     * @throws IOException If an I/O problem occurs or if the index does not match the history file
+     */
+    public static ChangeHistory readChanges(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex historyIndex,
+            @Nonnull DocumentRevision start, @Nonnull DocumentRevision end) throws IOException {
+        if (start.behind(historyIndex.getBaseRevision())) {
+            throw new IllegalArgumentException("The input start is out of the range");
+        }
+        if (end.aheadOf(historyIndex.getHeadRevision())) {
+            throw new IllegalArgumentException("The input end is out of the range");
+        }
+        if (!end.aheadOf(start)) {
+            return ChangeHistoryImpl.createEmptyChangeHistory(start);
+        }
+        final SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
+        final SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
+        ParallelChangeLogReader parallelReader = new ParallelChangeLogReader(historyFile, historyIndex,
+                ForkJoinPool.commonPool(), ParallelChangeLogReader.BLOCK_SIZE);
+        if (parallelReader.isParallel(start, end)) {
+            parallelReader.read(start, end, metadata, revisions);
+        }
+        else {
+            long offset = historyIndex.getOffset(start.next());
+            long length = historyIndex.getOffset(end) + historyIndex.getLength(end) - offset;
+            FileInputStream inputStream = new FileInputStream(historyFile);
+            try {
+                inputStream.getChannel().position(offset);
+                readBinaryOWLChangeLog(ByteStreams.limit(inputStream, length), metadata, revisions);
+            }
+            finally {
+                inputStream.close();
+            }
+        }
+        if (revisions.size() != DocumentRevision.distance(start, end)
+                || !revisions.firstKey().sameAs(start.next())
+                || !revisions.lastKey().sameAs(end)) {
+            throw new IOException("The history index does not match the content of " + historyFile.getName());
+        }
+        return ChangeHistoryImpl.recreate(start, revisions, metadata);
+    }
+
+    /**
+     * Reads the whole change history from the input <code>historyFile</code>. If the history file has a valid
+     * index, large histories are decoded in parallel.
      *
      * @param historyFile
      *          The input history file.
@@ -170,6 +314,10 @@ public class ChangeHistoryUtils {
      * @throws IOException
      */
     public static ChangeHistory readChanges(@Nonnull HistoryFile historyFile) throws IOException {
+        HistoryIndex historyIndex = HistoryIndex.load(historyFile);
+        if (historyIndex != null && !historyIndex.isEmpty()) {
+            return readChanges(historyFile, historyIndex, historyIndex.getBaseRevision(), historyIndex.getHeadRevision());
+        }
         final SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
         final SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
         FileInputStream inputStream = new FileInputStream(historyFile);
@@ -277,14 +425,41 @@ public class ChangeHistoryUtils {
      * Private helper methods
      */
 
-    private static void readBinaryOWLChangeLog(FileInputStream inputStream,
+    /*
+     * Writes a single revision record of the given change history as a BinaryOWL change log entry.
+     */
+    static void writeRevision(ChangeHistory changeHistory, DocumentRevision revision, OutputStream outputStream)
+            throws IOException {
+        BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
+        List<OWLOntologyChange> changeSet = changeHistory.getChangesForRevision(revision);
+        RevisionMetadata metadata = changeHistory.getMetadataForRevision(revision);
+        BinaryOWLMetadata changeMetadata = getBinaryOWLMetadata(metadata);
+        log.appendChanges(changeSet, revision.getRevisionNumber(), changeMetadata, outputStream); // TODO Report API misuse, timestamp == revision number
+    }
+
+    static void readBinaryOWLChangeLog(InputStream inputStream,
             SortedMap<DocumentRevision, RevisionMetadata> resultMetadata,
             SortedMap<DocumentRevision, List<OWLOntologyChange>> resultRevisions) throws IOException {
         try {
-            BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
             OWLOntologyManager owlManager = OWLManager.createOWLOntologyManager();
             OWLOntology placeholder = owlManager.createOntology();
-            log.readChanges(inputStream, owlManager.getOWLDataFactory(), (list, skipSetting, filePosition) -> {
+            readBinaryOWLChangeLog(inputStream, placeholder, resultMetadata, resultRevisions);
+        }
+        catch (OWLOntologyCreationException e) {
+            throw new IOException("Internal error while computing changes", e);
+        }
+    }
+
+    /*
+     * Reads the BinaryOWL change log records from the input stream. The decoded changes refer to the given
+     * placeholder ontology, and their OWL objects are interned.
+     */
+    static void readBinaryOWLChangeLog(InputStream inputStream, OWLOntology placeholder,
+            SortedMap<DocumentRevision, RevisionMetadata> resultMetadata,
+            SortedMap<DocumentRevision, List<OWLOntologyChange>> resultRevisions) throws IOException {
+        BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
+        OWLDataFactory dataFactory = OWLObjectInterner.getDataFactory();
+        log.readChanges(inputStream, dataFactory, (list, skipSetting, filePosition) -> {
                 // Get the revision number
                 int revision = (int) list.getTimestamp(); // TODO Report API misuse, timestamp == revision number
                 
@@ -298,15 +473,11 @@ public class ChangeHistoryUtils {
                 List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>();
                 for (OWLOntologyChangeRecord cr : changeRecords) {
                     OWLOntologyChangeData changeData = cr.getData();
-                    OWLOntologyChange change = changeData.createOntologyChange(placeholder);
+                    OWLOntologyChange change = OWLObjectInterner.createOntologyChange(changeData, placeholder);
                     changes.add(change);
                 }
                 resultRevisions.put(DocumentRevision.create(revision), changes);
-            });
-        }
-        catch (OWLOntologyCreationException e) {
-            throw new IOException("Internal error while computing changes", e);
-        }
+        });
     }
 
     private static BinaryOWLMetadata getBinaryOWLMetadata(RevisionMetadata metadata) {
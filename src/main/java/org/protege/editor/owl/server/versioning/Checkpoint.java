@@ -0,0 +1,139 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+
+import org.semanticweb.binaryowl.BinaryOWLOntologyDocumentSerializer;
+import org.semanticweb.binaryowl.owlapi.BinaryOWLOntologyBuildingHandler;
+import org.semanticweb.binaryowl.owlapi.OWLOntologyWrapper;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Represents a checkpoint of a history file, i.e., the ontology at a given revision stored as a
+ * BinaryOWL document, in the same format as the project snapshot. A client that is far behind can
+ * load the checkpoint and apply the changes after it instead of the whole change range.
+ * <p>
+ * The checkpoints are stored in the {@link #CHECKPOINT_SUFFIX} directory next to the history file,
+ * one file per revision named after the revision number.
+ */
+public class Checkpoint {
+
+    public static final String CHECKPOINT_SUFFIX = "-checkpoints";
+
+    private final File file;
+
+    private final DocumentRevision revision;
+
+    private Checkpoint(@Nonnull File file, @Nonnull DocumentRevision revision) {
+        this.file = file;
+        this.revision = revision;
+    }
+
+    /**
+     * Returns the checkpoint directory of the given <code>historyFile</code>.
+     */
+    public static File getCheckpointDirectory(@Nonnull File historyFile) {
+        return new File(historyFile.getAbsolutePath() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Returns the checkpoint with the highest revision that is not ahead of the given <code>revision</code>,
+     * or <code>null</code> if there is no such checkpoint.
+     */
+    @Nullable
+    public static Checkpoint findNearest(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision revision) {
+        File[] files = getCheckpointDirectory(historyFile).listFiles();
+        if (files == null) {
+            return null;
+        }
+        Checkpoint nearest = null;
+        for (File file : files) {
+            int revisionNumber;
+            try {
+                revisionNumber = Integer.parseInt(file.getName());
+            }
+            catch (NumberFormatException e) {
+                continue; // not a checkpoint, e.g., a checkpoint being written
+            }
+            DocumentRevision checkpointRevision = DocumentRevision.create(revisionNumber);
+            if (checkpointRevision.behindOrSameAs(revision)
+                    && (nearest == null || checkpointRevision.aheadOf(nearest.revision))) {
+                nearest = new Checkpoint(file, checkpointRevision);
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Writes the given <code>ontology</code> as the checkpoint of the history file at the given
+     * <code>revision</code>. The checkpoint becomes visible once it is completely written.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public static Checkpoint write(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision revision,
+            @Nonnull OWLOntology ontology) throws IOException {
+        File directory = getCheckpointDirectory(historyFile);
+        Files.createDirectories(directory.toPath());
+        File file = new File(directory, String.valueOf(revision.getRevisionNumber()));
+        File tempFile = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            BinaryOWLOntologyDocumentSerializer serializer = new BinaryOWLOntologyDocumentSerializer();
+            serializer.write(new OWLOntologyWrapper(ontology), os);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return new Checkpoint(file, revision);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public DocumentRevision getRevision() {
+        return revision;
+    }
+
+    public long getLength() {
+        return file.length();
+    }
+
+    /**
+     * Loads the ontology stored in the checkpoint.
+     *
+     * @throws IOException If the checkpoint cannot be read
+     */
+    public OWLOntology load() throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+            OWLOntology ontology = manager.createOntology(); // use as a placeholder
+            BinaryOWLOntologyDocumentSerializer serializer = new BinaryOWLOntologyDocumentSerializer();
+            serializer.read(inputStream, new BinaryOWLOntologyBuildingHandler(ontology), OWLObjectInterner.getDataFactory());
+            return ontology;
+        }
+        catch (OWLOntologyCreationException e) {
+            throw new IOException("Internal error while loading checkpoint " + file.getName(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint at revision " + revision + " (" + file.getName() + ")";
+    }
+}
@@ -62,11 +62,11 @@ public class Commit implements Serializable {
             BinaryOWLOntologyChangeLog log = new BinaryOWLOntologyChangeLog();
             OWLOntology placeholder = owlManager.createOntology();
             final List<OWLOntologyChange> readChanges = new ArrayList<>();
-            log.readChanges(in, owlManager.getOWLDataFactory(), (list, skipSetting, filePosition) -> {
+            log.readChanges(in, OWLObjectInterner.getDataFactory(), (list, skipSetting, filePosition) -> {
                 List<OWLOntologyChangeRecord> changeRecords = list.getChangeRecords();
                 for (OWLOntologyChangeRecord cr : changeRecords) {
                     OWLOntologyChangeData changeData = cr.getData();
-                    OWLOntologyChange change = changeData.createOntologyChange(placeholder);
+                    OWLOntologyChange change = OWLObjectInterner.createOntologyChange(changeData, placeholder);
                     readChanges.add(change);
                 }
             });
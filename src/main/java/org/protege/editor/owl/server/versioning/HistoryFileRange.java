@@ -0,0 +1,253 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Represents the contiguous byte range of a history file that holds the BinaryOWL records of the
+ * revisions from <code>start + 1</code> to <code>end</code>. The history file is only appended to, hence
+ * the content of the range does not change once the revisions have been written.
+ * <p>
+ * The range is transferred to the client as a small framing header followed by the raw records, see
+ * {@link #getHeader()}. The records use the same encoding as {@link ChangeHistoryImpl} on the wire, so
+ * the server neither decodes nor re-encodes the changes. The client reads the transferred range
+ * using {@link #readChanges(InputStream)}.
+ */
+public class HistoryFileRange {
+
+    private static final int MAGIC_NUMBER = 0x50534852; // "PSHR"
+    private static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 24; // magic number + version + start + end + length
+
+    private final HistoryFile historyFile;
+
+    private final DocumentRevision start;
+    private final DocumentRevision end;
+
+    private final long offset;
+    private final long length;
+
+    public HistoryFileRange(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision start,
+            @Nonnull DocumentRevision end, long offset, long length) {
+        this.historyFile = historyFile;
+        this.start = start;
+        this.end = end;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Returns the range of the history file that holds the revisions from <code>start + 1</code> to
+     * <code>end</code>, using the location of the records in the given <code>historyIndex</code>. The
+     * index may be added to while the range is created.
+     */
+    public static HistoryFileRange create(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex index,
+            @Nonnull DocumentRevision start, @Nonnull DocumentRevision end) {
+        HistoryIndex historyIndex = index.snapshot();
+        if (start.behind(historyIndex.getBaseRevision())) {
+            throw new IllegalArgumentException("The input start is out of the range");
+        }
+        if (end.aheadOf(historyIndex.getHeadRevision())) {
+            throw new IllegalArgumentException("The input end is out of the range");
+        }
+        if (!end.aheadOf(start)) {
+            return new HistoryFileRange(historyFile, start, start, 0, 0);
+        }
+        long offset = historyIndex.getOffset(start.next());
+        long length = historyIndex.getOffset(end) + historyIndex.getLength(end) - offset;
+        return new HistoryFileRange(historyFile, start, end, offset, length);
+    }
+
+    public HistoryFile getHistoryFile() {
+        return historyFile;
+    }
+
+    public DocumentRevision getStartRevision() {
+        return start;
+    }
+
+    public DocumentRevision getEndRevision() {
+        return end;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes sent to the client, i.e., the framing header and the records.
+     */
+    public long getTransferLength() {
+        return HEADER_SIZE + length;
+    }
+
+    /**
+     * Returns the framing header, which consists of a magic number, the format version, the start and
+     * end revision numbers and the byte length of the records that follow.
+     */
+    public ByteBuffer getHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC_NUMBER);
+        header.putInt(VERSION);
+        header.putInt(start.getRevisionNumber());
+        header.putInt(end.getRevisionNumber());
+        header.putLong(length);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Opens a read-only channel of the history file. The caller transfers the records starting at
+     * {@link #getOffset()}, e.g., using {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+     */
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(historyFile.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Writes the framing header and the records to the given channel.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public void transferTo(@Nonnull WritableByteChannel target) throws IOException {
+        ByteBuffer header = getHeader();
+        while (header.hasRemaining()) {
+            target.write(header);
+        }
+        try (FileChannel channel = openChannel()) {
+            long transferred = 0;
+            while (transferred < length) {
+                long count = channel.transferTo(offset + transferred, length - transferred, target);
+                if (count <= 0 && offset + transferred >= channel.size()) {
+                    throw new IOException("Unexpected end of " + historyFile.getName());
+                }
+                transferred += count;
+            }
+        }
+    }
+
+    /**
+     * Writes the given change history in the format of {@link #transferTo(WritableByteChannel)}, for
+     * change histories that are not read from a history file range. The records are written revision
+     * by revision, after their byte length has been computed with {@link #getRecordsLength(ChangeHistory)}.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public static void writeChanges(@Nonnull ChangeHistory changeHistory, @Nonnull OutputStream outputStream)
+            throws IOException {
+        writeChanges(changeHistory, getRecordsLength(changeHistory), outputStream);
+    }
+
+    /**
+     * Writes the given change history whose records have the given byte length, as returned by
+     * {@link #getRecordsLength(ChangeHistory)}.
+     *
+     * @throws IOException If the records do not have the given length or an I/O problem occurs
+     */
+    public static void writeChanges(@Nonnull ChangeHistory changeHistory, long recordsLength,
+            @Nonnull OutputStream outputStream) throws IOException {
+        DocumentRevision start = changeHistory.getBaseRevision();
+        DocumentRevision end = changeHistory.getHeadRevision();
+        DataOutputStream dos = new DataOutputStream(outputStream);
+        dos.writeInt(MAGIC_NUMBER);
+        dos.writeInt(VERSION);
+        dos.writeInt(start.getRevisionNumber());
+        dos.writeInt(end.getRevisionNumber());
+        dos.writeLong(recordsLength);
+        CountingOutputStream records = new CountingOutputStream(dos);
+        for (DocumentRevision current = start.next(); current.behindOrSameAs(end); current = current.next()) {
+            if (changeHistory instanceof ChangeHistoryImpl) {
+                ((ChangeHistoryImpl) changeHistory).writeRevision(current, records); // copies stored records
+            }
+            else {
+                ChangeHistoryUtils.writeRevision(changeHistory, current, records);
+            }
+        }
+        if (records.getCount() != recordsLength) {
+            throw new IOException("Expected " + recordsLength + " bytes of records but wrote " + records.getCount());
+        }
+        dos.flush();
+    }
+
+    /**
+     * Returns the byte length of the records written by {@link #writeChanges(ChangeHistory, OutputStream)}.
+     * The length of the stored and cached records is known, the other records are encoded to count their
+     * bytes.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public static long getRecordsLength(@Nonnull ChangeHistory changeHistory) throws IOException {
+        DocumentRevision start = changeHistory.getBaseRevision();
+        DocumentRevision end = changeHistory.getHeadRevision();
+        long length = 0;
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        for (DocumentRevision current = start.next(); current.behindOrSameAs(end); current = current.next()) {
+            if (changeHistory instanceof ChangeHistoryImpl) {
+                length += ((ChangeHistoryImpl) changeHistory).getRecordLength(current);
+            }
+            else {
+                ChangeHistoryUtils.writeRevision(changeHistory, current, counter);
+            }
+        }
+        return length + counter.getCount();
+    }
+
+    /**
+     * Reads the changes transferred by {@link #transferTo(WritableByteChannel)}.
+     *
+     * @param inputStream
+     *          The input stream positioned at the framing header
+     * @return The change history from the start revision until the end revision
+     * @throws IOException If the input is not a valid history range or an I/O problem occurs
+     */
+    public static ChangeHistory readChanges(@Nonnull InputStream inputStream) throws IOException {
+        DataInputStream dis = new DataInputStream(inputStream);
+        if (dis.readInt() != MAGIC_NUMBER) {
+            throw new IOException("The input is not a history range");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported history range version: " + version);
+        }
+        DocumentRevision start = DocumentRevision.create(dis.readInt());
+        DocumentRevision end = DocumentRevision.create(dis.readInt());
+        long length = dis.readLong();
+        final SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
+        final SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
+        if (length > 0) {
+            ChangeHistoryUtils.readBinaryOWLChangeLog(ByteStreams.limit(dis, length), metadata, revisions);
+        }
+        if (revisions.size() != DocumentRevision.distance(start, end)) {
+            throw new IOException("Expected " + DocumentRevision.distance(start, end) + " revisions but received "
+                    + revisions.size());
+        }
+        return ChangeHistoryImpl.recreate(start, revisions, metadata);
+    }
+}
@@ -0,0 +1,375 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Represents the sidecar index of a history file. The index maps each revision number to the byte
+ * offset and the byte length of its record in the BinaryOWL change log, such that a range of
+ * revisions can be read without decoding the whole history file.
+ * <p>
+ * The index is stored next to the history file using the {@link #INDEX_SUFFIX} suffix. It is only
+ * trusted when it covers exactly the content of the history file, otherwise it is considered stale
+ * and has to be rebuilt from a complete read of the history.
+ * <p>
+ * The entries are published as an immutable array pair after each added entry, hence the index can be
+ * read by any thread while the owner of the history file adds entries, and a reader that learns about
+ * a revision from the owner after the entry was added finds its entry. {@link #snapshot()} returns a
+ * read-only index of the entries added so far.
+ */
+public class HistoryIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryIndex.class);
+
+    public static final String INDEX_SUFFIX = "-index";
+
+    private static final int MAGIC_NUMBER = 0x50534958; // "PSIX"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8; // magic number + version
+    private static final int ENTRY_SIZE = 16; // revision + offset + length
+
+    private final File indexFile;
+
+    private final DocumentRevision baseRevision;
+
+    private volatile Entries entries = Entries.EMPTY;
+
+    private final boolean readOnly;
+
+    private ByteArrayOutputStream pendingEntries = new ByteArrayOutputStream();
+
+    private HistoryIndex(@Nonnull File indexFile, @Nonnull DocumentRevision baseRevision) {
+        this(indexFile, baseRevision, Entries.EMPTY, false);
+    }
+
+    private HistoryIndex(File indexFile, DocumentRevision baseRevision, Entries entries, boolean readOnly) {
+        this.indexFile = indexFile;
+        this.baseRevision = baseRevision;
+        this.entries = entries;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Returns the index file location of the given <code>historyFile</code>.
+     */
+    public static File getIndexFile(@Nonnull File historyFile) {
+        return new File(historyFile.getAbsolutePath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Loads the index of the given <code>historyFile</code>. The method returns <code>null</code> if the
+     * index file does not exist or if it does not match the content of the history file.
+     *
+     * @param historyFile
+     *          The history file
+     * @return The history index, or <code>null</code> if no valid index is available.
+     * @throws IOException If an I/O problem occurs
+     */
+    @Nullable
+    public static HistoryIndex load(@Nonnull HistoryFile historyFile) throws IOException {
+        File indexFile = getIndexFile(historyFile);
+        if (!indexFile.exists()) {
+            if (historyFile.length() == 0) {
+                return new HistoryIndex(indexFile, DocumentRevision.START_REVISION);
+            }
+            return null;
+        }
+        long indexLength = indexFile.length();
+        if (indexLength < HEADER_SIZE || (indexLength - HEADER_SIZE) % ENTRY_SIZE != 0) {
+            logger.warn("Ignoring corrupted history index " + indexFile.getName());
+            return null;
+        }
+        DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (is.readInt() != MAGIC_NUMBER || is.readInt() != VERSION) {
+                logger.warn("Ignoring history index with an unknown format " + indexFile.getName());
+                return null;
+            }
+            int size = (int) ((indexLength - HEADER_SIZE) / ENTRY_SIZE);
+            HistoryIndex index = null;
+            for (int i = 0; i < size; i++) {
+                int revision = is.readInt();
+                long offset = is.readLong();
+                int length = is.readInt();
+                if (index == null) {
+                    index = new HistoryIndex(indexFile, DocumentRevision.create(revision).previous());
+                }
+                if (!index.accept(DocumentRevision.create(revision), offset, length)) {
+                    logger.warn("Ignoring inconsistent history index " + indexFile.getName());
+                    return null;
+                }
+            }
+            if (index == null) {
+                index = new HistoryIndex(indexFile, DocumentRevision.START_REVISION);
+            }
+            if (index.getEndOffset() != historyFile.length()) {
+                logger.info("History index " + indexFile.getName() + " is out of date");
+                return null;
+            }
+            return index;
+        }
+        catch (EOFException e) {
+            logger.warn("Ignoring truncated history index " + indexFile.getName());
+            return null;
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Rebuilds the index of the given <code>historyFile</code> from its complete <code>changeHistory</code>.
+     * The record lengths are measured by encoding each revision again. The method returns <code>null</code>
+     * (and removes any stale index file) if the measured lengths do not add up to the history file length.
+     *
+     * @param historyFile
+     *          The history file
+     * @param changeHistory
+     *          The complete change history read from the history file
+     * @return The rebuilt history index, or <code>null</code> if the index could not be rebuilt.
+     * @throws IOException If an I/O problem occurs
+     */
+    @Nullable
+    public static HistoryIndex rebuild(@Nonnull HistoryFile historyFile, @Nonnull ChangeHistory changeHistory)
+            throws IOException {
+        File indexFile = getIndexFile(historyFile);
+        HistoryIndex index = new HistoryIndex(indexFile, changeHistory.getBaseRevision());
+        DocumentRevision base = changeHistory.getBaseRevision();
+        DocumentRevision head = changeHistory.getHeadRevision();
+        long offset = 0;
+        for (DocumentRevision current = base.next(); current.behindOrSameAs(head); current = current.next()) {
+            CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+            ChangeHistoryUtils.writeRevision(changeHistory, current, counter);
+            index.add(current, offset, (int) counter.getCount());
+            offset += counter.getCount();
+        }
+        if (offset != historyFile.length()) {
+            logger.warn("Unable to rebuild the history index of " + historyFile.getName());
+            index.invalidate();
+            return null;
+        }
+        index.pendingEntries = new ByteArrayOutputStream();
+        index.writeAll();
+        return index;
+    }
+
+    public DocumentRevision getBaseRevision() {
+        return baseRevision;
+    }
+
+    public DocumentRevision getHeadRevision() {
+        return baseRevision.next(size());
+    }
+
+    public int size() {
+        return entries.size;
+    }
+
+    public boolean isEmpty() {
+        return entries.size == 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the index has an entry for the given <code>revision</code>.
+     */
+    public boolean contains(@Nonnull DocumentRevision revision) {
+        return contains(entries, revision);
+    }
+
+    /**
+     * Returns the byte offset of the given <code>revision</code> in the history file.
+     */
+    public long getOffset(@Nonnull DocumentRevision revision) {
+        Entries current = entries;
+        return current.offsets[indexOf(current, revision)];
+    }
+
+    /**
+     * Returns the byte length of the given <code>revision</code> in the history file.
+     */
+    public int getLength(@Nonnull DocumentRevision revision) {
+        Entries current = entries;
+        return current.lengths[indexOf(current, revision)];
+    }
+
+    /**
+     * Returns the number of bytes covered by this index, i.e., the expected history file length.
+     */
+    public long getEndOffset() {
+        return entries.endOffset;
+    }
+
+    /**
+     * Returns a read-only index of the entries added so far, which does not change when entries are
+     * added to this index afterwards.
+     */
+    public HistoryIndex snapshot() {
+        return readOnly ? this : new HistoryIndex(indexFile, baseRevision, entries, true);
+    }
+
+    /**
+     * Records a new revision entry. The entry is kept in memory until {@link #save()} is called.
+     *
+     * @param revision
+     *          The revision number. It must follow the current head revision.
+     * @param offset
+     *          The byte offset of the revision record. It must follow the current end offset.
+     * @param length
+     *          The byte length of the revision record.
+     */
+    public void add(@Nonnull DocumentRevision revision, long offset, int length) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Unable to add an entry to a history index snapshot");
+        }
+        if (!accept(revision, offset, length)) {
+            throw new IllegalArgumentException(String.format(
+                    "Revision %s at offset %d does not follow the index head %s at offset %d",
+                    revision, offset, getHeadRevision(), getEndOffset()));
+        }
+        try {
+            DataOutputStream os = new DataOutputStream(pendingEntries);
+            writeEntry(os, revision, offset, length);
+            os.flush();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream does not throw I/O exceptions
+        }
+    }
+
+    /**
+     * Appends the pending entries to the index file.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public void save() throws IOException {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Unable to save a history index snapshot");
+        }
+        if (!indexFile.exists()) {
+            writeAll();
+        }
+        else if (pendingEntries.size() > 0) {
+            FileOutputStream os = new FileOutputStream(indexFile, true);
+            try {
+                pendingEntries.writeTo(os);
+            }
+            finally {
+                os.close();
+            }
+        }
+        pendingEntries = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Removes the index file such that it gets rebuilt on the next complete read of the history.
+     */
+    public void invalidate() {
+        if (indexFile.exists() && !indexFile.delete()) {
+            logger.warn("Unable to remove the stale history index " + indexFile.getName());
+        }
+    }
+
+    /*
+     * Private helper methods
+     */
+
+    private boolean accept(DocumentRevision revision, long offset, int length) {
+        Entries current = entries;
+        if (!revision.sameAs(getHeadRevision().next()) || offset != current.endOffset || length <= 0) {
+            return false;
+        }
+        entries = current.append(offset, length);
+        return true;
+    }
+
+    private boolean contains(Entries current, DocumentRevision revision) {
+        return revision.aheadOf(baseRevision) && revision.behindOrSameAs(baseRevision.next(current.size));
+    }
+
+    private int indexOf(Entries current, DocumentRevision revision) {
+        if (!contains(current, revision)) {
+            throw new IllegalArgumentException("Revision " + revision + " is not in the history index");
+        }
+        return DocumentRevision.distance(baseRevision, revision) - 1;
+    }
+
+    private void writeAll() throws IOException {
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            os.writeInt(MAGIC_NUMBER);
+            os.writeInt(VERSION);
+            Entries current = entries;
+            for (int i = 0; i < current.size; i++) {
+                writeEntry(os, baseRevision.next(i + 1), current.offsets[i], current.lengths[i]);
+            }
+        }
+        finally {
+            os.close();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream os, DocumentRevision revision, long offset, int length)
+            throws IOException {
+        os.writeInt(revision.getRevisionNumber());
+        os.writeLong(offset);
+        os.writeInt(length);
+    }
+
+    /*
+     * The offsets and lengths of the first entries of the arrays. The arrays are shared by the entries
+     * appended one after another: an entry is only written beyond the size of the published entries, and
+     * the arrays are copied when they are full, hence a published value never changes.
+     */
+    private static final class Entries {
+
+        private static final Entries EMPTY = new Entries(new long[0], new int[0], 0, 0);
+
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int size;
+        private final long endOffset;
+
+        private Entries(long[] offsets, int[] lengths, int size, long endOffset) {
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.size = size;
+            this.endOffset = endOffset;
+        }
+
+        private Entries append(long offset, int length) {
+            long[] newOffsets = offsets;
+            int[] newLengths = lengths;
+            if (size == offsets.length) {
+                int capacity = Math.max(16, size * 2);
+                newOffsets = Arrays.copyOf(offsets, capacity);
+                newLengths = Arrays.copyOf(lengths, capacity);
+            }
+            newOffsets[size] = offset;
+            newLengths[size] = length;
+            return new Entries(newOffsets, newLengths, size + 1, offset + length);
+        }
+    }
+}
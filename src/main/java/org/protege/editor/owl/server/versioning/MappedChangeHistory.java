@@ -0,0 +1,695 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-mostly view of a history file that maps the file into memory and only decodes the revisions
+ * that are requested. The byte location of each revision is taken from the {@link HistoryIndex} of the
+ * history file, and a small number of recently decoded revisions is kept in a LRU cache. Optionally,
+ * the revisions in a tail window, i.e., the given number of most recent revisions, are kept decoded
+ * once they are read or added, since the clients mostly request the latest changes.
+ * <p>
+ * The view is kept up to date by the owner of the history file: a revision must be appended to the
+ * history file (and to its index) before it is added to the view using {@link #addRevision}.
+ * The maps returned by {@link #getRevisions()} and {@link #getMetadata()} are bounded by the head
+ * revision at the time of the call and decode a revision each time it is read, hence iterating them
+ * does not hold the whole history in memory. This class is serialized as a plain {@link ChangeHistoryImpl}.
+ * <p>
+ * The revisions are read without locking: only {@link #addRevision} and remapping the file after it
+ * grew are serialized, hence the readers of the committed revisions do not wait for the revisions
+ * being added. The readers locate the records with a read-only snapshot of the history index, which
+ * {@link #addRevision} publishes before the new head revision, hence a reader that sees a revision
+ * also sees its index entry.
+ * <p>
+ * The mapped segments are released by {@link #close()} once the running reads complete, e.g., when the
+ * history is unloaded or about to be moved away. The revisions read afterwards are read from the
+ * history file without mapping it.
+ */
+public class MappedChangeHistory implements ChangeHistory {
+
+    private static final long serialVersionUID = -1742350871126386312L;
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedChangeHistory.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 32;
+
+    public static final int DEFAULT_TAIL_SIZE = 100;
+
+    private static final long SEGMENT_SIZE = 1L << 30; // 1 GB
+
+    private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+    private final transient HistoryFile historyFile;
+
+    private final transient HistoryIndex historyIndex;
+
+    private transient volatile HistoryIndex indexSnapshot;
+
+    private transient volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private final transient Object segmentLock = new Object();
+
+    private final transient Cache<DocumentRevision, DecodedRevision> decodedRevisions;
+
+    private final transient int tailSize;
+
+    private final transient NavigableMap<DocumentRevision, DecodedRevision> tailRevisions =
+            new ConcurrentSkipListMap<>();
+
+    private transient volatile OWLOntology placeholder;
+
+    private transient volatile DocumentRevision headRevision;
+
+    /*
+     * The number of reads of the mapped segments in progress. The last read to complete after the view
+     * is closed releases the segments.
+     */
+    private final transient AtomicInteger segmentReaders = new AtomicInteger();
+
+    private transient volatile boolean closed = false;
+
+    private final transient AtomicBoolean segmentsReleased = new AtomicBoolean();
+
+    /**
+     * Creates a view of the given <code>historyFile</code>.
+     *
+     * @param historyFile
+     *          The history file
+     * @param historyIndex
+     *          The index of the history file. It must match the content of the history file.
+     * @param cacheSize
+     *          The number of decoded revisions kept in memory
+     */
+    public MappedChangeHistory(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex historyIndex,
+            final int cacheSize) {
+        this(historyFile, historyIndex, cacheSize, 0);
+    }
+
+    /**
+     * Creates a view of the given <code>historyFile</code> that keeps the most recent revisions decoded.
+     *
+     * @param historyFile
+     *          The history file
+     * @param historyIndex
+     *          The index of the history file. It must match the content of the history file.
+     * @param cacheSize
+     *          The number of other decoded revisions kept in memory
+     * @param tailSize
+     *          The number of most recent revisions kept in memory once they are decoded
+     */
+    public MappedChangeHistory(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex historyIndex,
+            final int cacheSize, int tailSize) {
+        this.historyFile = historyFile;
+        this.historyIndex = historyIndex;
+        this.tailSize = Math.max(0, tailSize);
+        this.indexSnapshot = historyIndex.snapshot();
+        this.headRevision = indexSnapshot.getHeadRevision();
+        this.decodedRevisions = CacheBuilder.newBuilder().maximumSize(Math.max(0, cacheSize)).build();
+    }
+
+    public MappedChangeHistory(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex historyIndex) {
+        this(historyFile, historyIndex, DEFAULT_CACHE_SIZE);
+    }
+
+    public HistoryFile getHistoryFile() {
+        return historyFile;
+    }
+
+    /**
+     * Adds a revision that has already been appended to the history file. The decoded changes are
+     * kept in the cache since recent revisions are the most likely to be requested.
+     */
+    @Override
+    public synchronized void addRevision(RevisionMetadata metadata, List<OWLOntologyChange> changes) {
+        DocumentRevision nextRevision = headRevision.next();
+        HistoryIndex snapshot = historyIndex.snapshot();
+        if (!snapshot.contains(nextRevision)) {
+            throw new IllegalStateException("Revision " + nextRevision + " has not been written to "
+                    + historyFile.getName());
+        }
+        indexSnapshot = snapshot;
+        DecodedRevision decoded = new DecodedRevision(metadata, changes);
+        if (tailSize > 0) {
+            tailRevisions.put(nextRevision, decoded);
+        }
+        else {
+            decodedRevisions.put(nextRevision, decoded);
+        }
+        headRevision = nextRevision; // the readers see the new revision from now on
+        if (tailSize > 0) {
+            tailRevisions.headMap(getTailStart(), true).clear(); // drop the revisions out of the window
+        }
+    }
+
+    /**
+     * Returns the number of revisions kept in memory because they are in the tail window.
+     */
+    public int getTailRevisionCount() {
+        return tailRevisions.size();
+    }
+
+    @Override
+    public DocumentRevision getBaseRevision() {
+        return historyIndex.getBaseRevision();
+    }
+
+    @Override
+    public DocumentRevision getHeadRevision() {
+        return headRevision;
+    }
+
+    @Override
+    public RevisionMetadata getMetadataForRevision(DocumentRevision revision) {
+        DecodedRevision decoded = getRevision(revision, true);
+        return (decoded != null) ? decoded.metadata : null;
+    }
+
+    @Override
+    public List<OWLOntologyChange> getChangesForRevision(DocumentRevision revision) {
+        DecodedRevision decoded = getRevision(revision, true);
+        return (decoded != null) ? decoded.changes : null;
+    }
+
+    @Override
+    public SortedMap<DocumentRevision, List<OWLOntologyChange>> getRevisions() {
+        return new DecodingRevisionMap<>(getBaseRevision().getRevisionNumber() + 1,
+                getHeadRevision().getRevisionNumber() + 1, decoded -> decoded.changes);
+    }
+
+    @Override
+    public SortedMap<DocumentRevision, RevisionMetadata> getMetadata() {
+        return new DecodingRevisionMap<>(getBaseRevision().getRevisionNumber() + 1,
+                getHeadRevision().getRevisionNumber() + 1, decoded -> decoded.metadata);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getHeadRevision().sameAs(getBaseRevision());
+    }
+
+    /**
+     * Returns the sub history that begins at the <code>start + 1</code> revision and extends to the
+     * <code>end</code> revision. Only the revisions in the range are decoded, and they are not added
+     * to the cache unless they are in the tail window.
+     */
+    public ChangeHistory crop(@Nonnull DocumentRevision start, @Nonnull DocumentRevision end) {
+        if (start.behind(getBaseRevision())) {
+            throw new IllegalArgumentException("The input start is out of the range");
+        }
+        if (end.aheadOf(getHeadRevision())) {
+            throw new IllegalArgumentException("The input end is out of the range");
+        }
+        RevisionMap<List<OWLOntologyChange>> subRevisions = RevisionMap.create(start);
+        RevisionMap<RevisionMetadata> subMetadata = RevisionMap.create(start);
+        for (DocumentRevision current = start.next(); current.behindOrSameAs(end); current = current.next()) {
+            DecodedRevision decoded = getRevision(current, false);
+            subRevisions.put(current, decoded.changes);
+            subMetadata.put(current, decoded.metadata);
+        }
+        return ChangeHistoryImpl.recreate(start, subRevisions.snapshot(), subMetadata.snapshot());
+    }
+
+    /**
+     * Returns the byte length of the stored BinaryOWL record of the given <code>revision</code>.
+     */
+    public int getRecordLength(@Nonnull DocumentRevision revision) {
+        if (!revision.aheadOf(getBaseRevision()) || revision.aheadOf(headRevision)) {
+            throw new IllegalArgumentException("Revision " + revision + " is out of the range");
+        }
+        return indexSnapshot.getLength(revision);
+    }
+
+    /**
+     * Writes the stored BinaryOWL record of the given <code>revision</code> to the output stream,
+     * without decoding it.
+     *
+     * @throws IOException If an I/O problem occurs
+     */
+    public void transferRevision(@Nonnull DocumentRevision revision, @Nonnull OutputStream os) throws IOException {
+        if (!revision.aheadOf(getBaseRevision()) || revision.aheadOf(headRevision)) {
+            throw new IllegalArgumentException("Revision " + revision + " is out of the range");
+        }
+        readRecord(revision, record -> {
+            byte[] buffer = new byte[Math.min(TRANSFER_BUFFER_SIZE, record.remaining())];
+            while (record.hasRemaining()) {
+                int length = Math.min(buffer.length, record.remaining());
+                record.get(buffer, 0, length);
+                os.write(buffer, 0, length);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Releases the mapped segments of the history file, once the reads in progress complete. The view
+     * remains usable, but the revisions that are not decoded yet are read from the history file without
+     * mapping it. The view should be closed before the history file is moved or replaced.
+     */
+    public void close() {
+        closed = true;
+        if (segmentReaders.get() == 0) {
+            releaseSegments();
+        }
+    }
+
+    /*
+     * The mapped view is transferred as a regular change history.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return crop(getBaseRevision(), getHeadRevision());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MappedChangeHistory[%s, base=%s, head=%s]",
+                historyFile.getName(), getBaseRevision(), getHeadRevision());
+    }
+
+    /*
+     * Private helper methods
+     */
+
+    /*
+     * Two readers may decode the same revision at the same time, in which case both get equal changes
+     * and the last one is cached.
+     */
+    private DecodedRevision getRevision(DocumentRevision revision, boolean cacheResult) {
+        if (!revision.aheadOf(getBaseRevision()) || revision.aheadOf(headRevision)) {
+            return null;
+        }
+        boolean inTail = revision.aheadOf(getTailStart());
+        DecodedRevision decoded = inTail ? tailRevisions.get(revision) : decodedRevisions.getIfPresent(revision);
+        if (decoded == null) {
+            try {
+                decoded = decode(revision);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Unable to read revision " + revision + " from "
+                        + historyFile.getName(), e);
+            }
+            if (inTail) {
+                tailRevisions.put(revision, decoded);
+            }
+            else if (cacheResult) {
+                decodedRevisions.put(revision, decoded);
+            }
+        }
+        return decoded;
+    }
+
+    /*
+     * Returns the last revision before the tail window, which is the head revision without a window.
+     */
+    private DocumentRevision getTailStart() {
+        int start = headRevision.getRevisionNumber() - tailSize;
+        return (start > 0) ? DocumentRevision.create(start) : DocumentRevision.START_REVISION;
+    }
+
+    private DecodedRevision decode(DocumentRevision revision) throws IOException {
+        return readRecord(revision, record -> {
+            SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
+            SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
+            ChangeHistoryUtils.readBinaryOWLChangeLog(new ByteBufferInputStream(record), getPlaceholder(),
+                    metadata, revisions);
+            if (revisions.size() != 1 || !revisions.containsKey(revision)) {
+                throw new IOException("The history index does not match the content of " + historyFile.getName());
+            }
+            return new DecodedRevision(metadata.get(revision), revisions.get(revision));
+        });
+    }
+
+    /*
+     * Passes the stored record of the given revision to the reader. The record is a slice of a mapped
+     * segment, which is not released before the reader returns, or a copy read from the history file
+     * once this view is closed.
+     */
+    private <T> T readRecord(DocumentRevision revision, RecordReader<T> reader) throws IOException {
+        HistoryIndex snapshot = indexSnapshot;
+        long offset = snapshot.getOffset(revision);
+        int length = snapshot.getLength(revision);
+        segmentReaders.incrementAndGet();
+        try {
+            if (closed) {
+                return reader.read(readRecord(offset, length));
+            }
+            return reader.read(getRecord(offset, length));
+        }
+        finally {
+            if (segmentReaders.decrementAndGet() == 0 && closed) {
+                releaseSegments();
+            }
+        }
+    }
+
+    private ByteBuffer getRecord(long offset, int length) throws IOException {
+        int segmentNumber = (int) (offset / SEGMENT_SIZE);
+        long segmentStart = segmentNumber * SEGMENT_SIZE;
+        long recordEnd = offset + length;
+        if (recordEnd <= segmentStart + SEGMENT_SIZE) {
+            MappedByteBuffer segment = getSegment(segmentNumber, recordEnd - segmentStart);
+            ByteBuffer record = segment.duplicate();
+            record.position((int) (offset - segmentStart));
+            record.limit((int) (recordEnd - segmentStart));
+            return record.slice();
+        }
+        return readRecord(offset, length); // the record crosses a segment boundary
+    }
+
+    /*
+     * Reads the record directly from the history file.
+     */
+    private ByteBuffer readRecord(long offset, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ)) {
+            while (record.hasRemaining()) {
+                if (channel.read(record, offset + record.position()) < 0) {
+                    throw new EOFException("Unexpected end of " + historyFile.getName());
+                }
+            }
+        }
+        record.flip();
+        return record;
+    }
+
+    /*
+     * Returns the given segment, (re)mapping it when it does not cover the required length yet, e.g.,
+     * after new revisions were appended to the history file.
+     */
+    private MappedByteBuffer getSegment(int segmentNumber, long requiredLength) throws IOException {
+        MappedByteBuffer segment = findSegment(segments, segmentNumber, requiredLength);
+        if (segment != null) {
+            return segment;
+        }
+        synchronized (segmentLock) {
+            MappedByteBuffer[] current = segments;
+            segment = findSegment(current, segmentNumber, requiredLength);
+            if (segment == null) {
+                try (FileChannel channel = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ)) {
+                    long segmentStart = segmentNumber * SEGMENT_SIZE;
+                    long size = Math.min(SEGMENT_SIZE, channel.size() - segmentStart);
+                    if (size < requiredLength) {
+                        throw new EOFException("Unexpected end of " + historyFile.getName());
+                    }
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, size);
+                }
+                MappedByteBuffer[] updated = Arrays.copyOf(current, Math.max(current.length, segmentNumber + 1));
+                updated[segmentNumber] = segment;
+                segments = updated; // published to the readers that do not lock
+            }
+            return segment;
+        }
+    }
+
+    /*
+     * Unmaps the segments, which must no longer be read. The mapping is released by the garbage collector
+     * if the segments cannot be unmapped explicitly.
+     */
+    private void releaseSegments() {
+        if (!segmentsReleased.compareAndSet(false, true)) {
+            return;
+        }
+        MappedByteBuffer[] released;
+        synchronized (segmentLock) {
+            released = segments;
+            segments = new MappedByteBuffer[0];
+        }
+        for (MappedByteBuffer segment : released) {
+            if (segment != null) {
+                unmap(segment);
+            }
+        }
+    }
+
+    /*
+     * Invokes the cleaner of the buffer, through sun.misc.Unsafe on Java 9 and later, or through the
+     * cleaner of the direct buffer on Java 8.
+     */
+    private static void unmap(MappedByteBuffer segment) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), segment);
+        }
+        catch (NoSuchMethodException e) {
+            try {
+                Method cleaner = segment.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object bufferCleaner = cleaner.invoke(segment);
+                if (bufferCleaner != null) {
+                    bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+                }
+            }
+            catch (ReflectiveOperationException | RuntimeException e1) {
+                logger.debug("Unable to unmap a segment, it is released by the garbage collector", e1);
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Unable to unmap a segment, it is released by the garbage collector", e);
+        }
+    }
+
+    private static MappedByteBuffer findSegment(MappedByteBuffer[] segments, int segmentNumber,
+            long requiredLength) {
+        if (segmentNumber < segments.length) {
+            MappedByteBuffer segment = segments[segmentNumber];
+            if (segment != null && segment.capacity() >= requiredLength) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The placeholder ontology is only referenced by the decoded changes, hence readers racing to create
+     * it may each use their own.
+     */
+    private OWLOntology getPlaceholder() throws IOException {
+        if (placeholder == null) {
+            try {
+                placeholder = OWLManager.createOWLOntologyManager().createOntology();
+            }
+            catch (OWLOntologyCreationException e) {
+                throw new IOException("Internal error while computing changes", e);
+            }
+        }
+        return placeholder;
+    }
+
+    @FunctionalInterface
+    private interface RecordReader<T> {
+
+        T read(ByteBuffer record) throws IOException;
+    }
+
+    /*
+     * A read-only map of a fixed range of revisions, which decodes the value of a revision each time it
+     * is read. The revisions in the tail window or in the cache are not decoded again.
+     */
+    private final class DecodingRevisionMap<V> extends AbstractMap<DocumentRevision, V>
+            implements SortedMap<DocumentRevision, V> {
+
+        private final int fromNumber; // inclusive
+
+        private final int toNumber; // exclusive
+
+        private final Function<DecodedRevision, V> valueOf;
+
+        private DecodingRevisionMap(int fromNumber, int toNumber, Function<DecodedRevision, V> valueOf) {
+            this.fromNumber = fromNumber;
+            this.toNumber = Math.max(fromNumber, toNumber);
+            this.valueOf = valueOf;
+        }
+
+        @Override
+        public V get(Object key) {
+            if (!containsKey(key)) {
+                return null;
+            }
+            DecodedRevision decoded = getRevision((DocumentRevision) key, false);
+            return (decoded != null) ? valueOf.apply(decoded) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (!(key instanceof DocumentRevision)) {
+                return false;
+            }
+            int number = ((DocumentRevision) key).getRevisionNumber();
+            return number >= fromNumber && number < toNumber;
+        }
+
+        @Override
+        public int size() {
+            return toNumber - fromNumber;
+        }
+
+        @Override
+        public Comparator<? super DocumentRevision> comparator() {
+            return null; // natural ordering
+        }
+
+        @Override
+        public SortedMap<DocumentRevision, V> subMap(DocumentRevision fromKey, DocumentRevision toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("The from revision " + fromKey + " is after the to revision " + toKey);
+            }
+            return subMap(fromKey.getRevisionNumber(), toKey.getRevisionNumber());
+        }
+
+        @Override
+        public SortedMap<DocumentRevision, V> headMap(DocumentRevision toKey) {
+            return subMap(fromNumber, toKey.getRevisionNumber());
+        }
+
+        @Override
+        public SortedMap<DocumentRevision, V> tailMap(DocumentRevision fromKey) {
+            return subMap(fromKey.getRevisionNumber(), toNumber);
+        }
+
+        @Override
+        public DocumentRevision firstKey() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return DocumentRevision.create(fromNumber);
+        }
+
+        @Override
+        public DocumentRevision lastKey() {
+            if (isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return DocumentRevision.create(toNumber - 1);
+        }
+
+        @Override
+        public Set<Map.Entry<DocumentRevision, V>> entrySet() {
+            return new AbstractSet<Map.Entry<DocumentRevision, V>>() {
+                @Override
+                public Iterator<Map.Entry<DocumentRevision, V>> iterator() {
+                    return new Iterator<Map.Entry<DocumentRevision, V>>() {
+                        private int number = fromNumber;
+
+                        @Override
+                        public boolean hasNext() {
+                            return number < toNumber;
+                        }
+
+                        @Override
+                        public Map.Entry<DocumentRevision, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            DocumentRevision revision = DocumentRevision.create(number++);
+                            return new AbstractMap.SimpleImmutableEntry<>(revision, get(revision));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return DecodingRevisionMap.this.size();
+                }
+            };
+        }
+
+        /*
+         * Creates a view of the given revision range, clipped to the range of this map.
+         */
+        private DecodingRevisionMap<V> subMap(int from, int to) {
+            int clippedFrom = Math.min(Math.max(from, fromNumber), toNumber);
+            int clippedTo = Math.max(Math.min(to, toNumber), clippedFrom);
+            return new DecodingRevisionMap<>(clippedFrom, clippedTo, valueOf);
+        }
+    }
+
+    private static class DecodedRevision {
+
+        private final RevisionMetadata metadata;
+        private final List<OWLOntologyChange> changes;
+
+        private DecodedRevision(RevisionMetadata metadata, List<OWLOntologyChange> changes) {
+            this.metadata = metadata;
+            this.changes = changes;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.change.AddAxiomData;
+import org.semanticweb.owlapi.change.AxiomChangeData;
+import org.semanticweb.owlapi.change.OWLOntologyChangeData;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Canonicalizes the OWL objects decoded from change histories, commits and snapshots, so that the
+ * histories of all projects kept in memory share the same instances.
+ * <p>
+ * The entities and their IRIs are shared by decoding with a single data factory, which caches the
+ * entities it creates. The axioms are shared through a weak interner, hence an axiom is only kept as
+ * long as some history or ontology refers to it.
+ */
+public final class OWLObjectInterner {
+
+    private static final Interner<OWLAxiom> axioms = Interners.newWeakInterner();
+
+    private OWLObjectInterner() {
+        // NO-OP
+    }
+
+    /**
+     * Returns the data factory to decode OWL objects with.
+     */
+    public static OWLDataFactory getDataFactory() {
+        return OWLManager.getOWLDataFactory();
+    }
+
+    /**
+     * Returns the canonical instance of the given axiom.
+     */
+    public static OWLAxiom intern(@Nonnull OWLAxiom axiom) {
+        return axioms.intern(axiom);
+    }
+
+    /**
+     * Creates the ontology change of the given change data for the <code>placeholder</code> ontology.
+     * The axiom of an axiom change is interned.
+     */
+    public static OWLOntologyChange createOntologyChange(@Nonnull OWLOntologyChangeData changeData,
+            @Nonnull OWLOntology placeholder) {
+        if (changeData instanceof AxiomChangeData) {
+            OWLAxiom axiom = intern(((AxiomChangeData) changeData).getAxiom());
+            if (changeData instanceof AddAxiomData) {
+                return new AddAxiom(placeholder, axiom);
+            }
+            return new RemoveAxiom(placeholder, axiom);
+        }
+        return changeData.createOntologyChange(placeholder);
+    }
+}
@@ -0,0 +1,178 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decodes the BinaryOWL records of a history file on several threads. The record boundaries are taken
+ * from the {@link HistoryIndex}, so the revisions are split into blocks of about {@link #BLOCK_SIZE}
+ * bytes without reading the file. A block is read into a single buffer, hence it never exceeds
+ * {@link #MAX_BLOCK_LENGTH} bytes. Each block is then read and decoded as a separate task of a
+ * {@link ForkJoinPool}, and the decoded blocks are assembled in revision order.
+ * <p>
+ * The changes of all blocks refer to the same placeholder ontology, as with a sequential read.
+ */
+class ParallelChangeLogReader {
+
+    static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    static final int MAX_BLOCK_LENGTH = Integer.MAX_VALUE - 8; // the largest array most VMs allocate
+
+    private final HistoryFile historyFile;
+
+    private final HistoryIndex historyIndex;
+
+    private final ForkJoinPool pool;
+
+    private final int blockSize;
+
+    private final int maxBlockLength;
+
+    ParallelChangeLogReader(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex historyIndex,
+            @Nonnull ForkJoinPool pool, int blockSize) {
+        this(historyFile, historyIndex, pool, blockSize, MAX_BLOCK_LENGTH);
+    }
+
+    ParallelChangeLogReader(@Nonnull HistoryFile historyFile, @Nonnull HistoryIndex historyIndex,
+            @Nonnull ForkJoinPool pool, int blockSize, int maxBlockLength) {
+        this.historyFile = historyFile;
+        this.historyIndex = historyIndex;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.maxBlockLength = maxBlockLength;
+    }
+
+    /**
+     * Returns <code>true</code> if the revisions from <code>start + 1</code> to <code>end</code> span
+     * more than one block, i.e., if reading them in parallel is worthwhile.
+     */
+    boolean isParallel(@Nonnull DocumentRevision start, @Nonnull DocumentRevision end) {
+        if (!end.aheadOf(start)) {
+            return false;
+        }
+        long offset = historyIndex.getOffset(start.next());
+        long length = historyIndex.getOffset(end) + historyIndex.getLength(end) - offset;
+        return length > blockSize && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Reads the revisions from <code>start + 1</code> to <code>end</code> into the given maps.
+     *
+     * @throws IOException If a block cannot be read or decoded
+     */
+    void read(@Nonnull DocumentRevision start, @Nonnull DocumentRevision end,
+            @Nonnull SortedMap<DocumentRevision, RevisionMetadata> resultMetadata,
+            @Nonnull SortedMap<DocumentRevision, List<OWLOntologyChange>> resultRevisions) throws IOException {
+        OWLOntology placeholder;
+        try {
+            placeholder = OWLManager.createOWLOntologyManager().createOntology();
+        }
+        catch (OWLOntologyCreationException e) {
+            throw new IOException("Internal error while computing changes", e);
+        }
+        try (FileChannel channel = FileChannel.open(historyFile.toPath(), StandardOpenOption.READ)) {
+            List<ForkJoinTask<Block>> tasks = new ArrayList<>();
+            for (Block block : split(start, end)) {
+                tasks.add(pool.submit(() -> block.decode(channel, placeholder)));
+            }
+            for (ForkJoinTask<Block> task : tasks) {
+                Block block = task.get();
+                resultMetadata.putAll(block.metadata);
+                resultRevisions.putAll(block.revisions);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + historyFile.getName(), e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to decode " + historyFile.getName(), e.getCause());
+        }
+    }
+
+    /*
+     * Splits the revisions into blocks of at least one revision and about blockSize bytes each. A block
+     * ends before the record that would make it longer than maxBlockLength.
+     */
+    private List<Block> split(DocumentRevision start, DocumentRevision end) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        DocumentRevision first = start.next();
+        long offset = historyIndex.getOffset(first);
+        int length = 0;
+        for (DocumentRevision current = first; current.behindOrSameAs(end); current = current.next()) {
+            int recordLength = historyIndex.getLength(current);
+            if (recordLength > maxBlockLength) {
+                throw new IOException("The record of revision " + current + " in " + historyFile.getName()
+                        + " is too large to be read: " + recordLength + " bytes");
+            }
+            if (length > maxBlockLength - recordLength) {
+                blocks.add(new Block(offset, length));
+                offset += length;
+                length = 0;
+            }
+            length += recordLength;
+            if (length >= blockSize || current.sameAs(end)) {
+                blocks.add(new Block(offset, length));
+                offset += length;
+                length = 0;
+            }
+        }
+        return blocks;
+    }
+
+    private static class Block {
+
+        private final long offset;
+
+        private final int length;
+
+        private final SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
+
+        private final SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
+
+        private Block(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /*
+         * Uses positional reads, which do not move the position of the shared channel.
+         */
+        private Block decode(FileChannel channel, OWLOntology placeholder) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of history file at offset " + (offset + buffer.position()));
+                }
+            }
+            ChangeHistoryUtils.readBinaryOWLChangeLog(new ByteArrayInputStream(buffer.array()), placeholder,
+                    metadata, revisions);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A sorted map of consecutive revisions that stores its values in an array indexed by the revision
+ * number, in place of a tree of revision keys. Looking up a revision takes constant time, and so does
+ * taking a sub map, since a sub map is a view of a range of the same array.
+ * <p>
+ * The map is append-only: a value can only be put for the revision that follows the last revision of
+ * the map, and the values cannot be replaced or removed. The values are stored in fixed-size chunks
+ * that are never copied or moved, so the storage is a persistent vector: appending a value leaves the
+ * existing values, and the views of them, untouched. The appended values are safely published, hence
+ * one thread may append to the map while other threads read it or its sub maps.
+ * <p>
+ * A sub map with an upper bound is an immutable view, since none of its revisions can change and no
+ * revision can be appended to it. A sub map without an upper bound, e.g., a tail map, follows the
+ * revisions appended to the map.
+ *
+ * @param <V> The type of the values of the revisions
+ */
+public final class RevisionMap<V> extends AbstractMap<DocumentRevision, V> implements SortedMap<DocumentRevision, V> {
+
+    private static final int UNBOUNDED = -1;
+
+    private final Store store;
+
+    private final int fromIndex; // inclusive
+
+    private final int toIndex; // exclusive, or UNBOUNDED to follow the appended revisions
+
+    private RevisionMap(Store store, int fromIndex, int toIndex) {
+        this.store = store;
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+    }
+
+    /**
+     * Creates an empty map whose first revision is the one after <code>baseRevision</code>.
+     */
+    public static <V> RevisionMap<V> create(@Nonnull DocumentRevision baseRevision) {
+        return new RevisionMap<>(new Store(baseRevision.getRevisionNumber()), 0, UNBOUNDED);
+    }
+
+    /**
+     * Copies the revisions of the <code>source</code> map, which must be the consecutive revisions that
+     * follow <code>baseRevision</code>.
+     *
+     * @throws IllegalArgumentException If the revisions of the source map are not consecutive
+     */
+    public static <V> RevisionMap<V> copyOf(@Nonnull DocumentRevision baseRevision,
+            @Nonnull SortedMap<DocumentRevision, ? extends V> source) {
+        RevisionMap<V> copy = create(baseRevision);
+        for (Map.Entry<DocumentRevision, ? extends V> entry : source.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Returns <code>true</code> if a value can be put for the given revision, i.e., if this map has no
+     * upper bound and the revision follows the last revision.
+     */
+    public boolean canAppend(@Nonnull DocumentRevision revision) {
+        int index = indexOf(revision);
+        return toIndex == UNBOUNDED && index >= fromIndex && index == store.size;
+    }
+
+    /**
+     * Returns <code>true</code> if this map is an immutable view, i.e., a sub map with an upper bound.
+     */
+    public boolean isImmutable() {
+        return toIndex != UNBOUNDED;
+    }
+
+    /**
+     * Returns an immutable view of the current revisions of this map.
+     */
+    public RevisionMap<V> snapshot() {
+        return new RevisionMap<>(store, fromIndex, getEndIndex());
+    }
+
+    @Override
+    public V put(DocumentRevision revision, V value) {
+        if (isImmutable()) {
+            throw new UnsupportedOperationException("Unable to put revision " + revision + " into an immutable view");
+        }
+        synchronized (store) {
+            int index = indexOf(revision);
+            if (index < store.size && index >= 0) {
+                throw new UnsupportedOperationException("Revision " + revision + " cannot be replaced");
+            }
+            if (!canAppend(revision)) {
+                throw new IllegalArgumentException("Revision " + revision + " does not follow the last revision");
+            }
+            store.append(value);
+        }
+        return null;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof DocumentRevision)) {
+            return null;
+        }
+        int index = indexOf((DocumentRevision) key);
+        return (index >= fromIndex && index < getEndIndex()) ? store.get(index) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof DocumentRevision)) {
+            return false;
+        }
+        int index = indexOf((DocumentRevision) key);
+        return index >= fromIndex && index < getEndIndex();
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, getEndIndex() - fromIndex);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Comparator<? super DocumentRevision> comparator() {
+        return null; // natural ordering
+    }
+
+    @Override
+    public SortedMap<DocumentRevision, V> subMap(DocumentRevision fromKey, DocumentRevision toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("The from revision " + fromKey + " is after the to revision " + toKey);
+        }
+        return subMap(indexOf(fromKey), indexOf(toKey));
+    }
+
+    @Override
+    public SortedMap<DocumentRevision, V> headMap(DocumentRevision toKey) {
+        return subMap(fromIndex, indexOf(toKey));
+    }
+
+    @Override
+    public SortedMap<DocumentRevision, V> tailMap(DocumentRevision fromKey) {
+        return subMap(indexOf(fromKey), toIndex);
+    }
+
+    @Override
+    public DocumentRevision firstKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return revisionAt(fromIndex);
+    }
+
+    @Override
+    public DocumentRevision lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return revisionAt(getEndIndex() - 1);
+    }
+
+    @Override
+    public Set<Map.Entry<DocumentRevision, V>> entrySet() {
+        return new AbstractSet<Map.Entry<DocumentRevision, V>>() {
+            @Override
+            public Iterator<Map.Entry<DocumentRevision, V>> iterator() {
+                final int endIndex = getEndIndex();
+                return new Iterator<Map.Entry<DocumentRevision, V>>() {
+                    private int index = fromIndex;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < endIndex;
+                    }
+
+                    @Override
+                    public Map.Entry<DocumentRevision, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<DocumentRevision, V> entry =
+                                new AbstractMap.SimpleImmutableEntry<>(revisionAt(index), store.<V>get(index));
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return RevisionMap.this.size();
+            }
+        };
+    }
+
+    /*
+     * Creates a view of the given index range, clipped to the range of this map.
+     */
+    private RevisionMap<V> subMap(int from, int to) {
+        int clippedFrom = Math.max(from, fromIndex);
+        int clippedTo = (toIndex == UNBOUNDED) ? to : ((to == UNBOUNDED) ? toIndex : Math.min(to, toIndex));
+        if (clippedTo != UNBOUNDED && clippedTo < clippedFrom) {
+            clippedTo = clippedFrom;
+        }
+        return new RevisionMap<>(store, clippedFrom, clippedTo);
+    }
+
+    private int getEndIndex() {
+        int size = store.size;
+        return (toIndex == UNBOUNDED) ? size : Math.min(toIndex, size);
+    }
+
+    private int indexOf(DocumentRevision revision) {
+        return revision.getRevisionNumber() - store.baseRevision - 1;
+    }
+
+    private DocumentRevision revisionAt(int index) {
+        return DocumentRevision.create(store.baseRevision + index + 1);
+    }
+
+    /*
+     * The values of the revisions, shared by a map and its sub maps. The values are stored in chunks of
+     * CHUNK_SIZE values, hence growing the store only copies the references to the chunks. The size is
+     * written after the appended value, and read before the values, such that a reader sees the values
+     * it counts.
+     */
+    private static final class Store {
+
+        private static final int CHUNK_SHIFT = 8;
+
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private final int baseRevision;
+
+        private volatile Object[][] chunks = new Object[4][];
+
+        private volatile int size = 0;
+
+        private Store(int baseRevision) {
+            this.baseRevision = baseRevision;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> V get(int index) {
+            return (V) chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        private void append(Object value) {
+            int chunkIndex = size >>> CHUNK_SHIFT;
+            Object[][] current = chunks;
+            if (chunkIndex == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            if (current[chunkIndex] == null) {
+                current[chunkIndex] = new Object[CHUNK_SIZE];
+                chunks = current;
+            }
+            current[chunkIndex][size & CHUNK_MASK] = value;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.protege.editor.owl.server.versioning;
+
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the encoded BinaryOWL records of recently served revisions outside of the Java heap, such that
+ * a change history can be sent to a client by copying the stored bytes instead of encoding its changes
+ * again. The records do not add to the garbage collection work, and the cache is bounded by the total
+ * size of the records it holds. The least recently used records are evicted first.
+ * <p>
+ * The memory is allocated up front as a few direct slabs of at most {@link #SLAB_SIZE} bytes, and each
+ * record is copied into a free block of a slab. The blocks of the evicted records are returned to the
+ * free list of their slab and merged with the adjacent free blocks. A record larger than a slab is not
+ * cached. The block of a record being transferred is only reused once the transfer completes.
+ * <p>
+ * A record is only valid as long as the revision it encodes is not rewritten, hence the records of a
+ * history file must be invalidated when the history file is replaced.
+ */
+public class RevisionRecordCache {
+
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024; // 64 MB
+
+    public static final int SLAB_SIZE = 16 * 1024 * 1024; // 16 MB
+
+    private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+    private final long capacity;
+
+    private final Slab[] slabs;
+
+    private final Map<Key, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    private long evictionCount = 0;
+
+    /**
+     * @param capacity
+     *          The maximum number of bytes held by the cached records, which is allocated right away
+     */
+    public RevisionRecordCache(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        int slabCount = (int) ((capacity + SLAB_SIZE - 1) / SLAB_SIZE);
+        slabs = new Slab[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            slabs[i] = new Slab((int) Math.min(SLAB_SIZE, capacity - (long) i * SLAB_SIZE));
+        }
+    }
+
+    /**
+     * Returns a read-only copy of the record of the given revision, or <code>null</code> if the record is
+     * not cached.
+     */
+    @Nullable
+    public ByteBuffer get(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision revision) {
+        Record record = acquire(historyFile, revision);
+        if (record == null) {
+            return null;
+        }
+        try {
+            ByteBuffer copy = ByteBuffer.allocate(record.length);
+            copy.put(record.getBuffer());
+            copy.flip();
+            return copy.asReadOnlyBuffer();
+        }
+        finally {
+            release(record);
+        }
+    }
+
+    /**
+     * Returns the byte length of the cached record of the given revision, or <code>-1</code> if the
+     * record is not cached.
+     */
+    public synchronized int getRecordLength(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision revision) {
+        Record record = records.get(new Key(historyFile, revision));
+        return (record != null) ? record.length : -1;
+    }
+
+    /**
+     * Writes the cached record of the given revision to the output stream.
+     *
+     * @return <code>false</code> if the record is not cached
+     * @throws IOException If an I/O problem occurs
+     */
+    public boolean transferRevision(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision revision,
+            @Nonnull OutputStream os) throws IOException {
+        Record record = acquire(historyFile, revision);
+        if (record == null) {
+            return false;
+        }
+        try {
+            ByteBuffer buffer = record.getBuffer();
+            byte[] bytes = new byte[Math.min(TRANSFER_BUFFER_SIZE, buffer.remaining())];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(bytes.length, buffer.remaining());
+                buffer.get(bytes, 0, length);
+                os.write(bytes, 0, length);
+            }
+            return true;
+        }
+        finally {
+            release(record);
+        }
+    }
+
+    /**
+     * Copies the given record of the revision into the cache. A record larger than a slab is not cached,
+     * nor a record for which no block can be freed because the other records are being transferred.
+     */
+    public void put(@Nonnull HistoryFile historyFile, @Nonnull DocumentRevision revision, @Nonnull byte[] record,
+            int offset, int length) {
+        if (length > getMaxRecordLength()) {
+            return;
+        }
+        Record allocated;
+        synchronized (this) {
+            remove(new Key(historyFile, revision));
+            allocated = allocate(length);
+            if (allocated == null) {
+                return;
+            }
+            allocated.readers++; // not readable until it is copied
+        }
+        ByteBuffer buffer = allocated.getBuffer();
+        buffer.put(record, offset, length);
+        synchronized (this) {
+            allocated.readers--;
+            Record previous = records.put(new Key(historyFile, revision), allocated);
+            if (previous != null) {
+                discard(previous); // put concurrently
+            }
+            size += length;
+        }
+    }
+
+    /**
+     * Removes the records of the given history file.
+     */
+    public synchronized void invalidate(@Nonnull HistoryFile historyFile) {
+        String path = historyFile.getAbsolutePath();
+        for (Iterator<Map.Entry<Key, Record>> it = records.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, Record> entry = it.next();
+            if (entry.getKey().path.equals(path)) {
+                it.remove();
+                discard(entry.getValue());
+            }
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the size of the largest record that can be cached, i.e., the size of the largest slab.
+     */
+    public int getMaxRecordLength() {
+        return slabs[0].buffer.capacity();
+    }
+
+    /**
+     * Returns the number of bytes held by the cached records.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getRecordCount() {
+        return records.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("records=%d, size=%d bytes, hits=%d, misses=%d, evictions=%d",
+                records.size(), size, hitCount, missCount, evictionCount);
+    }
+
+    private synchronized Record acquire(HistoryFile historyFile, DocumentRevision revision) {
+        Record record = records.get(new Key(historyFile, revision));
+        if (record == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        record.readers++;
+        return record;
+    }
+
+    private synchronized void release(Record record) {
+        record.readers--;
+        if (record.removed && record.readers == 0) {
+            record.slab.free(record.offset, record.length);
+        }
+    }
+
+    /*
+     * Finds a free block of the given length, evicting the least recently used records until one of
+     * the slabs has one. Returns null if none can be found.
+     */
+    private Record allocate(int length) {
+        Iterator<Record> eldest = records.values().iterator();
+        while (true) {
+            for (Slab slab : slabs) {
+                int offset = slab.allocate(length);
+                if (offset >= 0) {
+                    return new Record(slab, offset, length);
+                }
+            }
+            if (!eldest.hasNext()) {
+                return null;
+            }
+            Record evicted = eldest.next();
+            eldest.remove();
+            discard(evicted);
+            evictionCount++;
+        }
+    }
+
+    private void remove(Key key) {
+        Record record = records.remove(key);
+        if (record != null) {
+            discard(record);
+        }
+    }
+
+    /*
+     * Called once the record is no longer in the map. Its block is freed when the last transfer completes.
+     */
+    private void discard(Record record) {
+        size -= record.length;
+        record.removed = true;
+        if (record.readers == 0) {
+            record.slab.free(record.offset, record.length);
+        }
+    }
+
+    /*
+     * A direct buffer and its free blocks, keyed by their offset. The adjacent free blocks are merged.
+     * Guarded by the cache lock.
+     */
+    private static class Slab {
+
+        private final ByteBuffer buffer;
+
+        private final TreeMap<Integer, Integer> freeBlocks = new TreeMap<>();
+
+        private Slab(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            freeBlocks.put(0, size);
+        }
+
+        /*
+         * Returns the offset of the first free block that fits the length, or -1
+         */
+        private int allocate(int length) {
+            for (Map.Entry<Integer, Integer> block : freeBlocks.entrySet()) {
+                if (block.getValue() >= length) {
+                    int offset = block.getKey();
+                    freeBlocks.remove(offset);
+                    if (block.getValue() > length) {
+                        freeBlocks.put(offset + length, block.getValue() - length);
+                    }
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        private void free(int offset, int length) {
+            Map.Entry<Integer, Integer> next = freeBlocks.ceilingEntry(offset);
+            if (next != null && next.getKey() == offset + length) {
+                length += next.getValue();
+                freeBlocks.remove(next.getKey());
+            }
+            Map.Entry<Integer, Integer> previous = freeBlocks.lowerEntry(offset);
+            if (previous != null && previous.getKey() + previous.getValue() == offset) {
+                offset = previous.getKey();
+                length += previous.getValue();
+            }
+            freeBlocks.put(offset, length);
+        }
+    }
+
+    /*
+     * The block of a slab holding a record. The fields other than the location are guarded by the cache lock.
+     */
+    private static class Record {
+
+        private final Slab slab;
+
+        private final int offset;
+
+        private final int length;
+
+        private int readers = 0;
+
+        private boolean removed = false;
+
+        private Record(Slab slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /*
+         * Returns a buffer of the block, which is independent from the buffers of the other readers
+         */
+        private ByteBuffer getBuffer() {
+            ByteBuffer block = slab.buffer.duplicate();
+            block.position(offset);
+            block.limit(offset + length);
+            return block.slice();
+        }
+    }
+
+    private static class Key {
+
+        private final String path;
+
+        private final DocumentRevision revision;
+
+        private Key(HistoryFile historyFile, DocumentRevision revision) {
+            this.path = historyFile.getAbsolutePath();
+            this.revision = revision;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return path.equals(other.path) && revision.equals(other.revision);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, revision);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.protege.editor.owl.server.versioning.api;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
 /**
@@ -10,6 +11,13 @@ public class DocumentRevision implements Comparable<DocumentRevision>, Serializa
 
     private static final long serialVersionUID = 7037205560605439026L;
 
+    /*
+     * The shared instances of the first revisions. The instances are immutable, hence an instance
+     * created twice by concurrent callers is harmless.
+     */
+    private static final int CACHE_SIZE = 1 << 16;
+    private static final DocumentRevision[] cache = new DocumentRevision[CACHE_SIZE];
+
     public static final DocumentRevision START_REVISION = DocumentRevision.create(0);
 
     private final int revision;
@@ -22,13 +30,22 @@ public class DocumentRevision implements Comparable<DocumentRevision>, Serializa
     }
 
     /**
-     * Creates a document revision given its revision number.
+     * Creates a document revision given its revision number. The instances of the first revisions
+     * are shared.
      *
      * @param revision
      *          The revision number
      * @return an instance of {@code DocumentRevision}.
      */
     public static DocumentRevision create(int revision) {
+        if (revision >= 0 && revision < CACHE_SIZE) {
+            DocumentRevision cached = cache[revision];
+            if (cached == null) {
+                cached = new DocumentRevision(revision);
+                cache[revision] = cached;
+            }
+            return cached;
+        }
         return new DocumentRevision(revision);
     }
 
@@ -106,7 +123,7 @@ public class DocumentRevision implements Comparable<DocumentRevision>, Serializa
      * @return The next document revision after <code>i</code> steps.
      */
     public DocumentRevision next(int i) {
-        return new DocumentRevision(revision + i);
+        return create(revision + i);
     }
 
     /**
@@ -126,7 +143,14 @@ public class DocumentRevision implements Comparable<DocumentRevision>, Serializa
      * @return The next document revision after <code>i</code> steps.
      */
     public DocumentRevision previous(int i) {
-        return new DocumentRevision(revision - i);
+        return create(revision - i);
+    }
+
+    /*
+     * Replaces a deserialized revision with the shared instance
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return create(revision);
     }
 
     @Override
@@ -1,17 +1,44 @@
 package org.protege.editor.owl.server.change;
 
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.api.exception.OutOfSyncException;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
 
 /**
  * @author Josef Hardi <johardi@stanford.edu> <br>
@@ -23,6 +50,9 @@ public class ChangeDocumentPoolEntryTest {
 
     private HistoryFile historyFile;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setup() throws Exception {
         ClassLoader classloader = ChangeDocumentPoolEntry.class.getClassLoader();
@@ -44,4 +74,276 @@ public class ChangeDocumentPoolEntryTest {
         assertThat(headRevision, is(notNullValue()));
         assertThat(headRevision.getRevisionNumber(), is(0));
     }
+
+    @Test
+    public void canMirrorAppendedChanges() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        File backupFile = new File(folder.getRoot(), "~" + HistoryFile.FILENAME);
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.appendChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.appendChanges(createChanges(DocumentRevision.create(1), 2));
+        assertThat(backupFile.exists(), is(true));
+        assertThat(Arrays.equals(Files.readAllBytes(backupFile.toPath()),
+                Files.readAllBytes(newHistoryFile.toPath())), is(true));
+    }
+
+    @Test
+    public void keepsBackupValidAfterFailedAppend() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        File backupFile = new File(folder.getRoot(), "~" + HistoryFile.FILENAME);
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        ChangeHistory changes = createChanges(DocumentRevision.create(1), 1000); // flushed before the failure
+        changes.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), new ArrayList<>());
+        ChangeHistory failing = spy(changes);
+        doThrow(new IllegalStateException("Unable to encode")).when(failing)
+                .getChangesForRevision(DocumentRevision.create(3));
+        try {
+            entry.commitChanges(failing);
+            fail("The commit should fail");
+        }
+        catch (IOException e) {
+            // the revision cannot be encoded
+        }
+        entry.commitChanges(createChanges(DocumentRevision.create(1), 1));
+        assertThat(Arrays.equals(Files.readAllBytes(backupFile.toPath()),
+                Files.readAllBytes(newHistoryFile.toPath())), is(true));
+        assertThat(ChangeHistoryUtils.readChanges(HistoryFile.openExisting(backupFile.getPath())).getHeadRevision(),
+                is(DocumentRevision.create(2)));
+    }
+
+    @Test
+    public void canRecoverFromBackup() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.appendChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.appendChanges(createChanges(DocumentRevision.create(1), 2));
+
+        // Corrupt the original history file
+        try (RandomAccessFile file = new RandomAccessFile(newHistoryFile, "rw")) {
+            file.setLength(newHistoryFile.length() / 2);
+        }
+        ChangeDocumentPoolEntry newEntry = new ChangeDocumentPoolEntry(newHistoryFile);
+        ChangeHistory changeHistory = newEntry.getChangeHistory();
+        assertThat(changeHistory, is(notNullValue()));
+        assertThat(changeHistory.getHeadRevision(), is(DocumentRevision.create(2)));
+        assertThat(newEntry.getHead(), is(DocumentRevision.create(2)));
+    }
+
+    @Test
+    public void canCommitChanges() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        ChangeHistory committed = entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        assertThat(committed.getHeadRevision(), is(DocumentRevision.create(1)));
+        assertThat(entry.getHead(), is(DocumentRevision.create(1)));
+        assertThat(ChangeHistoryUtils.readChanges(newHistoryFile).getHeadRevision(), is(DocumentRevision.create(1)));
+    }
+
+    @Test
+    public void rejectsCommitsAfterClose() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.close();
+        assertThat(entry.isLoaded(), is(false));
+        try {
+            entry.commitChanges(createChanges(DocumentRevision.create(1), 1));
+            fail("The commit should be rejected once the entry is closed");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        assertThat(ChangeHistoryUtils.readChanges(newHistoryFile).getHeadRevision(), is(DocumentRevision.create(1)));
+    }
+
+    @Test
+    public void keepsCommitWhenBackupFails() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        File backupFile = new File(folder.getRoot(), "~" + HistoryFile.FILENAME);
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.getChangeHistory();
+        backupFile.delete();
+        backupFile.mkdir(); // the backup can no longer be written
+        ChangeHistory committed = entry.commitChanges(createChanges(DocumentRevision.create(1), 1));
+        assertThat(committed.getHeadRevision(), is(DocumentRevision.create(2)));
+        assertThat(entry.getHead(), is(DocumentRevision.create(2)));
+        assertThat(entry.getChangeHistory().getHeadRevision(), is(DocumentRevision.create(2)));
+        try {
+            entry.commitChanges(createChanges(DocumentRevision.create(1), 1));
+            fail("A commit at the previous head must be rejected");
+        }
+        catch (OutOfSyncException e) {
+            // expected
+        }
+        backupFile.delete();
+        entry.commitChanges(createChanges(DocumentRevision.create(2), 1));
+        assertThat(Arrays.equals(Files.readAllBytes(backupFile.toPath()),
+                Files.readAllBytes(newHistoryFile.toPath())), is(true));
+    }
+
+    @Test
+    public void notifiesHeadOncePerBatchInOrder() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        List<DocumentRevision> heads = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<ChangeHistory>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(executor.submit(() -> {
+                while (true) {
+                    try {
+                        return entry.commitChanges(createChanges(entry.getHead(), 1), heads::add);
+                    }
+                    catch (OutOfSyncException e) {
+                        // another commit was accepted first, retry on top of it
+                    }
+                }
+            }));
+        }
+        for (Future<ChangeHistory> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        for (int i = 1; i < heads.size(); i++) {
+            assertThat(heads.get(i).aheadOf(heads.get(i - 1)), is(true));
+        }
+        assertThat(heads.get(heads.size() - 1), is(DocumentRevision.create(20)));
+    }
+
+    @Test(expected = OutOfSyncException.class)
+    public void cannotCommitOutdatedChanges() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+    }
+
+    @Test
+    public void canCommitConcurrentChanges() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        final int commits = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<ChangeHistory>> results = new ArrayList<>();
+        for (int i = 0; i < commits; i++) {
+            results.add(executor.submit(() -> {
+                while (true) {
+                    try {
+                        return entry.commitChanges(createChanges(entry.getHead(), 1));
+                    }
+                    catch (OutOfSyncException e) {
+                        // another commit was accepted first, retry on top of it
+                    }
+                }
+            }));
+        }
+        for (Future<ChangeHistory> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        ChangeHistory changeHistory = ChangeHistoryUtils.readChanges(newHistoryFile);
+        assertThat(changeHistory.getHeadRevision(), is(DocumentRevision.create(commits)));
+        assertThat(entry.getHead(), is(DocumentRevision.create(commits)));
+    }
+
+    @Test
+    public void canReadHeadAndChangesWithoutLocking() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.getChangeHistory();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (entry) { // as if a commit were being written
+                Future<DocumentRevision> head = executor.submit(() -> entry.getHead());
+                Future<ChangeHistory> changes = executor.submit(
+                        () -> entry.getChanges(DocumentRevision.START_REVISION, DocumentRevision.create(1)));
+                assertThat(head.get(10, TimeUnit.SECONDS), is(DocumentRevision.create(1)));
+                assertThat(changes.get(10, TimeUnit.SECONDS).getRevisions().size(), is(1));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        ChangeHistory before = entry.getChanges(DocumentRevision.START_REVISION, DocumentRevision.create(1));
+        entry.commitChanges(createChanges(DocumentRevision.create(1), 1));
+        assertThat(entry.getHead(), is(DocumentRevision.create(2)));
+        assertThat(before.getHeadRevision(), is(DocumentRevision.create(1)));
+        assertThat(before.getRevisions().size(), is(1));
+    }
+
+    @Test
+    public void readerSeesConsistentPrefixWhileCommitAppends() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile, HistoryCacheMode.TAIL);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        entry.getChangeHistory();
+        final int commits = 30;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> reader = executor.submit(() -> {
+                int reads = 0;
+                DocumentRevision head;
+                do {
+                    head = entry.getHead();
+                    ChangeHistory changes = entry.getChanges(DocumentRevision.START_REVISION, head);
+                    assertThat(changes.getHeadRevision(), is(head));
+                    for (DocumentRevision current = DocumentRevision.create(1); current.behindOrSameAs(head);
+                            current = current.next()) {
+                        List<OWLOntologyChange> revision = changes.getChangesForRevision(current);
+                        assertThat(revision.size(), is(1));
+                        assertThat(revision.get(0).getAxiom().toString(),
+                                containsString("#C" + (current.getRevisionNumber() - 1) + "_0"));
+                    }
+                    reads++;
+                } while (head.getRevisionNumber() < commits);
+                return reads;
+            });
+            for (int i = 1; i < commits; i++) {
+                entry.commitChanges(createChanges(DocumentRevision.create(i), 1));
+            }
+            assertThat(reader.get(30, TimeUnit.SECONDS) > 0, is(true));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void canReadMappedChangesWhileRevisionIsAdded() throws Exception {
+        HistoryFile newHistoryFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeDocumentPoolEntry entry = new ChangeDocumentPoolEntry(newHistoryFile, HistoryCacheMode.MAPPED);
+        entry.commitChanges(createChanges(DocumentRevision.START_REVISION, 1));
+        ChangeHistory mappedHistory = entry.getChangeHistory();
+        ChangeHistory published = entry.getChanges(DocumentRevision.START_REVISION, DocumentRevision.create(1));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (mappedHistory) { // as if a revision were being added
+                Future<List<OWLOntologyChange>> changes = executor.submit(
+                        () -> published.getChangesForRevision(DocumentRevision.create(1)));
+                assertThat(changes.get(10, TimeUnit.SECONDS).size(), is(1));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        entry.commitChanges(createChanges(DocumentRevision.create(1), 1));
+        assertThat(published.getHeadRevision(), is(DocumentRevision.create(1)));
+        assertThat(published.getChangesForRevision(DocumentRevision.create(2)), is(nullValue()));
+    }
+
+    private ChangeHistory createChanges(DocumentRevision base, int size) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory(base);
+        List<OWLOntologyChange> changes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            IRI iri = IRI.create("http://example.org/test#C" + base.getRevisionNumber() + "_" + i);
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        }
+        changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), changes);
+        return changeHistory;
+    }
 }
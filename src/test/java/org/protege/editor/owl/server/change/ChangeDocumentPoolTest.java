@@ -4,13 +4,32 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.RevisionRecordCache;
 import org.protege.editor.owl.server.versioning.api.ChangeHistory;
 import org.protege.editor.owl.server.versioning.api.DocumentRevision;
 import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
 
 /**
  * @author Josef Hardi <johardi@stanford.edu> <br>
@@ -24,6 +43,9 @@ public class ChangeDocumentPoolTest {
 
     private HistoryFile historyFile;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setup() throws Exception {
         documentPool = new ChangeDocumentPool(8000); // timeout = 8 secs
@@ -44,4 +66,139 @@ public class ChangeDocumentPoolTest {
         assertThat(headRevision, is(notNullValue()));
         assertThat(headRevision.getRevisionNumber(), is(0));
     }
+
+    @Test
+    public void canEvictHistoryOverWeightBudget() throws Exception {
+        ChangeDocumentPool boundedPool = new ChangeDocumentPool(8000, HistoryCacheMode.FULL, 30, null, Runnable::run);
+        HistoryFile first = createHistoryFile("first", 8); // weight: 1 revision + 8 changes + 8 axioms
+        HistoryFile second = createHistoryFile("second", 8);
+        boundedPool.lookup(first);
+        boundedPool.lookup(first);
+        boundedPool.lookup(second);
+        ChangeDocumentPoolStatistics statistics = boundedPool.getStatistics();
+        assertThat(statistics.getHitCount(), is(1L));
+        assertThat(statistics.getMissCount(), is(2L));
+        assertThat(statistics.getEvictionCount(), is(1L));
+        assertThat(statistics.getEvictedWeight(), is(17L));
+        assertThat(boundedPool.getTotalWeight(), is(17L));
+        boundedPool.dispose();
+    }
+
+    @Test
+    public void canKeepPinnedHistory() throws Exception {
+        ChangeDocumentPool boundedPool = new ChangeDocumentPool(8000, HistoryCacheMode.FULL, 30, null, Runnable::run);
+        HistoryFile first = createHistoryFile("first", 8);
+        HistoryFile second = createHistoryFile("second", 8);
+        boundedPool.pin(first);
+        boundedPool.lookup(first);
+        boundedPool.lookup(second);
+        boundedPool.lookup(first);
+        assertThat(boundedPool.getStatistics().getEvictionCount(), is(0L));
+        assertThat(boundedPool.getStatistics().getHitCount(), is(1L));
+        assertThat(boundedPool.getTotalWeight(), is(34L));
+        boundedPool.dispose();
+    }
+
+    @Test
+    public void canMapHistoryOverWholeWeightBudget() throws Exception {
+        ChangeDocumentPool boundedPool = new ChangeDocumentPool(8000, HistoryCacheMode.FULL, 10, null, Runnable::run);
+        HistoryFile first = createHistoryFile("first", 8); // weight: 17 when decoded, 1 when mapped
+        boundedPool.lookup(first);
+        assertThat(boundedPool.getCacheMode(first), is(HistoryCacheMode.MAPPED));
+        boundedPool.lookup(first);
+        boundedPool.lookup(first);
+        ChangeDocumentPoolStatistics statistics = boundedPool.getStatistics();
+        assertThat(statistics.getLoadCount(), is(2L));
+        assertThat(statistics.getHitCount(), is(1L));
+        assertThat(statistics.getEvictionCount(), is(0L));
+        assertThat(boundedPool.getTotalWeight(), is(1L));
+        boundedPool.dispose();
+    }
+
+    @Test
+    public void canKeepMappedHistoryOverWholeWeightBudget() throws Exception {
+        ChangeDocumentPool boundedPool = new ChangeDocumentPool(8000, HistoryCacheMode.MAPPED, 1, null, Runnable::run);
+        HistoryFile first = createHistoryFile("first", 2);
+        boundedPool.lookup(first);
+        ChangeHistory commit = ChangeHistoryImpl.createEmptyChangeHistory(DocumentRevision.create(1));
+        commit.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Commit"),
+                new ArrayList<OWLOntologyChange>());
+        boundedPool.commitChanges(first, commit); // weight: 2 revisions
+        boundedPool.lookup(first);
+        ChangeDocumentPoolStatistics statistics = boundedPool.getStatistics();
+        assertThat(statistics.getLoadCount(), is(1L));
+        assertThat(statistics.getEvictionCount(), is(0L));
+        assertThat(boundedPool.getTotalWeight(), is(2L));
+        boundedPool.dispose();
+    }
+
+    @Test
+    public void canPreloadHistories() throws Exception {
+        HistoryFile first = createHistoryFile("first", 2);
+        HistoryFile second = createHistoryFile("second", 2);
+        documentPool.preload(Arrays.asList(first, second), 2).get(30, TimeUnit.SECONDS);
+        assertThat(documentPool.getStatistics().getLoadCount(), is(2L));
+        documentPool.lookup(first);
+        assertThat(documentPool.getStatistics().getHitCount(), is(1L));
+    }
+
+    @Test
+    public void canServeCommittedRecordsFromRecordCache() throws Exception {
+        RevisionRecordCache recordCache = new RevisionRecordCache(RevisionRecordCache.DEFAULT_CAPACITY);
+        ChangeDocumentPool cachingPool = new ChangeDocumentPool(8000, HistoryCacheMode.FULL,
+                ChangeDocumentPool.UNLIMITED_WEIGHT, recordCache);
+        HistoryFile first = createHistoryFile("first", 2);
+        cachingPool.lookup(first);
+        ChangeHistory commit = ChangeHistoryImpl.createEmptyChangeHistory(DocumentRevision.create(1));
+        commit.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Commit"),
+                new ArrayList<OWLOntologyChange>());
+        cachingPool.commitChanges(first, commit);
+        assertThat(recordCache.getRecordCount(), is(1));
+        ChangeHistory changes = cachingPool.lookup(first, DocumentRevision.create(1), DocumentRevision.create(2));
+        new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(changes);
+        assertThat(recordCache.getHitCount(), is(1L));
+        cachingPool.dispose();
+    }
+
+    @Test
+    public void canReleaseHistoryOnBackgroundThread() throws Exception {
+        ChangeDocumentPool boundedPool = new ChangeDocumentPool(8000, HistoryCacheMode.FULL, 30);
+        HistoryFile first = createHistoryFile("first", 8);
+        HistoryFile second = createHistoryFile("second", 8);
+        boundedPool.lookup(first);
+        boundedPool.lookup(second);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (boundedPool.getStatistics().getEvictionCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(boundedPool.getStatistics().getEvictionCount(), is(1L));
+        assertThat(boundedPool.getTotalWeight(), is(17L));
+        boundedPool.dispose();
+    }
+
+    @Test
+    public void canClearHistoryCacheEntry() throws Exception {
+        HistoryFile first = createHistoryFile("first", 2);
+        documentPool.lookup(first);
+        documentPool.clearHistoryCacheEntry(first);
+        assertThat(documentPool.getTotalWeight(), is(0L));
+        documentPool.lookup(first);
+        assertThat(documentPool.getStatistics().getLoadCount(), is(2L));
+    }
+
+    private HistoryFile createHistoryFile(String projectName, int size) throws Exception {
+        File projectDir = folder.newFolder(projectName);
+        HistoryFile newHistoryFile = HistoryFile.createNew(projectDir.getAbsolutePath());
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        List<OWLOntologyChange> changes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            IRI iri = IRI.create("http://example.org/" + projectName + "#C" + i);
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        }
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory();
+        changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), changes);
+        ChangeHistoryUtils.appendChanges(changeHistory, newHistoryFile);
+        return newHistoryFile;
+    }
 }
@@ -0,0 +1,153 @@
+package org.protege.editor.owl.server.change;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.Checkpoint;
+import org.protege.editor.owl.server.versioning.HistoryIndex;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+import edu.stanford.protege.metaproject.api.ProjectId;
+
+public class CheckpointWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ChangeDocumentPool changePool;
+
+    private HistoryFile historyFile;
+
+    private ServerLayer serverLayer;
+
+    private ProjectId projectId;
+
+    @Before
+    public void setup() throws Exception {
+        changePool = new ChangeDocumentPool(8000);
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeHistoryUtils.appendChanges(createChanges(DocumentRevision.START_REVISION, 2), historyFile);
+
+        projectId = mock(ProjectId.class);
+        when(projectId.get()).thenReturn("koala");
+        serverLayer = mock(ServerLayer.class);
+        when(serverLayer.getHistoryFilePath(projectId)).thenReturn(historyFile.getAbsolutePath());
+        when(serverLayer.loadProjectSnapshot(projectId))
+                .thenAnswer(invocation -> OWLManager.createOWLOntologyManager().createOntology());
+    }
+
+    @Test
+    public void canWriteCheckpointFromPreviousCheckpoint() throws Exception {
+        CheckpointWriter writer = new CheckpointWriter(serverLayer, changePool, null, 1, CheckpointWriter.DISABLED);
+        Checkpoint first = writer.writeCheckpoint(projectId);
+        assertThat(first.getRevision(), is(DocumentRevision.create(1)));
+        assertThat(first.load().getAxiomCount(), is(2));
+
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 3));
+        Checkpoint second = writer.writeCheckpoint(projectId);
+        assertThat(second.getRevision(), is(DocumentRevision.create(2)));
+        assertThat(second.load().getAxiomCount(), is(5));
+        writer.dispose();
+    }
+
+    @Test
+    public void canWriteCheckpointFromHeadOntology() throws Exception {
+        HeadOntologyStore headOntologies = new HeadOntologyStore(serverLayer, changePool,
+                Collections.singleton("koala"), HeadOntologyStore.UNLIMITED_WEIGHT);
+        CheckpointWriter writer = new CheckpointWriter(serverLayer, changePool, headOntologies, 1,
+                CheckpointWriter.DISABLED);
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 3));
+        Checkpoint checkpoint = writer.writeCheckpoint(projectId);
+        assertThat(checkpoint.getRevision(), is(DocumentRevision.create(2)));
+        assertThat(checkpoint.load().getAxiomCount(), is(5));
+        assertThat(headOntologies.isLoaded(projectId), is(true));
+        writer.dispose();
+        headOntologies.dispose();
+    }
+
+    @Test
+    public void canCountRevisionsOfSquashedHistory() throws Exception {
+        CheckpointWriter writer = new CheckpointWriter(serverLayer, changePool, null, 3, CheckpointWriter.DISABLED);
+        writer.writeCheckpoint(projectId);
+        writer.recordCommit(projectId, changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 1)));
+        writer.recordCommit(projectId, changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(2), 1)));
+
+        squash();
+        writer.invalidate(projectId);
+        // Three revisions since the squash, although only two since the checkpoint at revision 1
+        writer.recordCommit(projectId, changePool.commitChanges(historyFile, createBundle(3)));
+
+        DocumentRevision r3 = DocumentRevision.create(3);
+        long deadline = System.currentTimeMillis() + 10000;
+        Checkpoint checkpoint = Checkpoint.findNearest(historyFile, r3);
+        while (checkpoint == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            checkpoint = Checkpoint.findNearest(historyFile, r3);
+        }
+        assertThat(checkpoint != null && checkpoint.getRevision().sameAs(r3), is(true));
+        assertThat(checkpoint.load().getAxiomCount(), is(3));
+        writer.dispose();
+    }
+
+    /*
+     * Replaces the history with an empty one and archives its checkpoints, as a squash does
+     */
+    private void squash() throws Exception {
+        changePool.clearHistoryCacheEntry(historyFile);
+        new FileOutputStream(historyFile).close();
+        new File(historyFile.getAbsolutePath() + HistoryIndex.INDEX_SUFFIX).delete();
+        FileUtils.deleteDirectory(new File(historyFile.getAbsolutePath() + Checkpoint.CHECKPOINT_SUFFIX));
+        new File(historyFile.getParentFile(), "~" + historyFile.getName()).delete();
+    }
+
+    private ChangeHistory createBundle(int revisions) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory();
+        for (int i = 0; i < revisions; i++) {
+            IRI iri = IRI.create("http://example.org/koala#Squashed" + i);
+            List<OWLOntologyChange> changes = new ArrayList<>();
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+            changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), changes);
+        }
+        return changeHistory;
+    }
+
+    private ChangeHistory createChanges(DocumentRevision base, int size) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        List<OWLOntologyChange> changes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            IRI iri = IRI.create("http://example.org/koala#C" + base.getRevisionNumber() + "_" + i);
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        }
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory(base);
+        changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), changes);
+        return changeHistory;
+    }
+}
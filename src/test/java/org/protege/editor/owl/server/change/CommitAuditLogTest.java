@@ -0,0 +1,89 @@
+package org.protege.editor.owl.server.change;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+public class CommitAuditLogTest {
+
+    private final List<String> entries = Collections.synchronizedList(new ArrayList<>());
+
+    private HistoryFile historyFile;
+
+    private ChangeHistory changes;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        File projectDirectory = folder.newFolder("pizza");
+        historyFile = HistoryFile.createNew(projectDirectory.getAbsolutePath());
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        OWLAxiom first = df.getOWLDeclarationAxiom(df.getOWLClass(IRI.create("http://example.org/test#A")));
+        OWLAxiom second = df.getOWLDeclarationAxiom(df.getOWLClass(IRI.create("http://example.org/test#B")));
+        List<OWLOntologyChange> revision = new ArrayList<>();
+        revision.add(new AddAxiom(ontology, first));
+        revision.add(new AddAxiom(ontology, second));
+        revision.add(new RemoveAxiom(ontology, first));
+        changes = ChangeHistoryImpl.createEmptyChangeHistory(DocumentRevision.create(41));
+        changes.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), revision);
+    }
+
+    @Test
+    public void canRecordStructuredEntries() throws Exception {
+        CommitAuditLog auditLog = new CommitAuditLog(10, entries::add);
+        auditLog.record(historyFile, changes, new int[] { 512 }, 4);
+        auditLog.dispose();
+        assertThat(auditLog.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(entries, hasSize(1));
+        assertThat(entries.get(0), startsWith("project=pizza revision=42 author=bob changes=3"
+                + " types=AddAxiom:2,RemoveAxiom:1 bytes=512 append_ms=4 queue_ms="));
+    }
+
+    @Test
+    public void canDumpChangesWhenEnabled() throws Exception {
+        CommitAuditLog auditLog = new CommitAuditLog(10, entries::add);
+        auditLog.setFullDumpEnabled(true);
+        auditLog.record(historyFile, changes, null, 4);
+        auditLog.dispose();
+        assertThat(auditLog.awaitTermination(10, TimeUnit.SECONDS), is(true));
+        assertThat(entries, hasSize(2));
+        assertThat(entries.get(1), containsString("http://example.org/test#B"));
+    }
+
+    @Test
+    public void dropsEntriesAfterDispose() throws Exception {
+        CommitAuditLog auditLog = new CommitAuditLog(10, entries::add);
+        auditLog.dispose();
+        auditLog.record(historyFile, changes, null, 4);
+        assertThat(auditLog.getDroppedCount(), is(1L));
+    }
+}
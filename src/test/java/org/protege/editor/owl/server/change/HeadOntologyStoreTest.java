@@ -0,0 +1,171 @@
+package org.protege.editor.owl.server.change;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.HistoryIndex;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+import edu.stanford.protege.metaproject.api.ProjectId;
+
+public class HeadOntologyStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ChangeDocumentPool changePool;
+
+    private HistoryFile historyFile;
+
+    private ServerLayer serverLayer;
+
+    private ProjectId projectId;
+
+    @Before
+    public void setup() throws Exception {
+        changePool = new ChangeDocumentPool(8000);
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeHistoryUtils.appendChanges(createChanges(DocumentRevision.START_REVISION, 2), historyFile);
+
+        projectId = mock(ProjectId.class);
+        when(projectId.get()).thenReturn("koala");
+        serverLayer = mock(ServerLayer.class);
+        when(serverLayer.getHistoryFilePath(projectId)).thenReturn(historyFile.getAbsolutePath());
+        when(serverLayer.loadProjectSnapshot(projectId))
+                .thenAnswer(invocation -> OWLManager.createOWLOntologyManager().createOntology());
+    }
+
+    @Test
+    public void canBuildHeadOntology() throws Exception {
+        HeadOntologyStore store = new HeadOntologyStore(serverLayer, changePool, Collections.singleton("koala"),
+                HeadOntologyStore.UNLIMITED_WEIGHT);
+        assertThat(store.read(projectId, (revision, ontology) -> ontology.getAxiomCount()), is(2));
+        assertThat(store.getRevision(projectId), is(DocumentRevision.create(1)));
+        assertThat(store.getTotalWeight(), is(2L));
+    }
+
+    @Test
+    public void canAdvanceHeadOntology() throws Exception {
+        HeadOntologyStore store = new HeadOntologyStore(serverLayer, changePool, Collections.singleton("koala"),
+                HeadOntologyStore.UNLIMITED_WEIGHT);
+        store.read(projectId, (revision, ontology) -> ontology.getAxiomCount());
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 3));
+        store.advance(projectId);
+        assertThat(store.getRevision(projectId), is(DocumentRevision.create(2)));
+        assertThat(store.getWeight(projectId), is(5L));
+    }
+
+    @Test
+    public void canReleaseHeadOntologyOverWeightBudget() throws Exception {
+        HeadOntologyStore store = new HeadOntologyStore(serverLayer, changePool, Collections.singleton("koala"), 4);
+        store.read(projectId, (revision, ontology) -> ontology.getAxiomCount());
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 3));
+        try {
+            store.advance(projectId);
+        }
+        catch (IOException e) {
+            // expected, the head ontology is released
+        }
+        assertThat(store.isLoaded(projectId), is(false));
+        assertThat(store.getTotalWeight(), is(0L));
+    }
+
+    @Test
+    public void canRejectHeadOntologyOverWeightBudgetWhileBuilding() throws Exception {
+        HeadOntologyStore store = new HeadOntologyStore(serverLayer, changePool, Collections.singleton("koala"), 1);
+        try {
+            store.read(projectId, (revision, ontology) -> ontology.getAxiomCount());
+        }
+        catch (IOException e) {
+            // expected, the history exceeds the budget before it is completely applied
+        }
+        assertThat(store.isLoaded(projectId), is(false));
+        assertThat(store.getTotalWeight(), is(0L));
+    }
+
+    @Test
+    public void canReadRevisionOfHeadOntology() throws Exception {
+        HeadOntologyStore store = new HeadOntologyStore(serverLayer, changePool, Collections.singleton("koala"),
+                HeadOntologyStore.UNLIMITED_WEIGHT);
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 3));
+        assertThat(store.read(projectId, (revision, ontology) -> revision), is(DocumentRevision.create(2)));
+    }
+
+    @Test
+    public void canRebuildHeadOntologyAfterSquash() throws Exception {
+        HeadOntologyStore store = new HeadOntologyStore(serverLayer, changePool, Collections.singleton("koala"),
+                HeadOntologyStore.UNLIMITED_WEIGHT);
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(1), 3));
+        changePool.commitChanges(historyFile, createChanges(DocumentRevision.create(2), 3));
+        assertThat(store.read(projectId, (revision, ontology) -> revision), is(DocumentRevision.create(3)));
+
+        squash();
+        store.invalidate(projectId);
+        changePool.commitChanges(historyFile, createBundle(DocumentRevision.START_REVISION, 5));
+
+        // Revisions 4 and 5 of the new history must not be applied to the ontology at revision 3
+        assertThat(store.read(projectId, (revision, ontology) -> ontology.getAxiomCount()), is(5));
+        assertThat(store.getRevision(projectId), is(DocumentRevision.create(5)));
+    }
+
+    /*
+     * Replaces the history with an empty one, as a squash does. The snapshot stays empty.
+     */
+    private void squash() throws Exception {
+        changePool.clearHistoryCacheEntry(historyFile);
+        new FileOutputStream(historyFile).close();
+        new File(historyFile.getAbsolutePath() + HistoryIndex.INDEX_SUFFIX).delete();
+        new File(historyFile.getParentFile(), "~" + historyFile.getName()).delete();
+    }
+
+    private ChangeHistory createBundle(DocumentRevision base, int revisions) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory(base);
+        for (int i = 0; i < revisions; i++) {
+            IRI iri = IRI.create("http://example.org/koala#Squashed" + i);
+            List<OWLOntologyChange> changes = new ArrayList<>();
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+            changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), changes);
+        }
+        return changeHistory;
+    }
+
+    private ChangeHistory createChanges(DocumentRevision base, int size) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        List<OWLOntologyChange> changes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            IRI iri = IRI.create("http://example.org/koala#C" + base.getRevisionNumber() + "_" + i);
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        }
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory(base);
+        changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Test"), changes);
+        return changeHistory;
+    }
+}
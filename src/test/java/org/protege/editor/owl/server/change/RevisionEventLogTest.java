@@ -0,0 +1,139 @@
+package org.protege.editor.owl.server.change;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+
+import edu.stanford.protege.metaproject.api.ProjectId;
+
+public class RevisionEventLogTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private ProjectId projectId;
+
+    @Before
+    public void setup() {
+        projectId = mock(ProjectId.class);
+        when(projectId.get()).thenReturn("koala");
+    }
+
+    @Test
+    public void canNotifySubscriber() {
+        RevisionEventLog log = new RevisionEventLog(RevisionEventLog.DEFAULT_CAPACITY, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        log.subscribe(null, listener);
+        log.publish(projectId, DocumentRevision.create(1));
+        log.publish(projectId, DocumentRevision.create(2));
+        assertThat(listener.events, contains("koala 1", "koala 2"));
+        assertThat(listener.lostCursor, is(nullValue()));
+    }
+
+    @Test
+    public void canResumeFromCursor() {
+        RevisionEventLog log = new RevisionEventLog(RevisionEventLog.DEFAULT_CAPACITY, DIRECT);
+        String cursor = log.publish(projectId, DocumentRevision.create(1)).getCursor();
+        log.publish(projectId, DocumentRevision.create(2));
+        log.publish(projectId, DocumentRevision.create(3));
+        RecordingListener listener = new RecordingListener();
+        log.subscribe(cursor, listener);
+        assertThat(listener.events, contains("koala 2", "koala 3"));
+        assertThat(listener.lostCursor, is(nullValue()));
+    }
+
+    @Test
+    public void canReportLostEvents() {
+        RevisionEventLog log = new RevisionEventLog(2, DIRECT);
+        String cursor = log.publish(projectId, DocumentRevision.create(1)).getCursor();
+        log.publish(projectId, DocumentRevision.create(2));
+        log.publish(projectId, DocumentRevision.create(3));
+        log.publish(projectId, DocumentRevision.create(4));
+        RecordingListener listener = new RecordingListener();
+        log.subscribe(cursor, listener);
+        assertThat(listener.events.isEmpty(), is(true));
+        assertThat(listener.lostCursor, is(log.getLastCursor()));
+    }
+
+    @Test
+    public void canReportCursorOfPreviousLog() {
+        String cursor = new RevisionEventLog(RevisionEventLog.DEFAULT_CAPACITY, DIRECT).publish(projectId, DocumentRevision.create(1)).getCursor();
+        RevisionEventLog log = new RevisionEventLog(RevisionEventLog.DEFAULT_CAPACITY, DIRECT);
+        RecordingListener listener = new RecordingListener();
+        log.subscribe(cursor.replaceFirst("^\\d+", "1"), listener);
+        assertThat(listener.lostCursor, is(log.getLastCursor()));
+    }
+
+    @Test
+    public void doesNotWaitForSubscribers() throws Exception {
+        RevisionEventLog log = new RevisionEventLog();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch notified = new CountDownLatch(2);
+        List<String> events = new ArrayList<>();
+        log.subscribe(null, new RecordingListener() {
+            @Override
+            public void revisionCommitted(RevisionEventLog.Event event) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (events) {
+                    events.add(event.toString());
+                }
+                notified.countDown();
+            }
+        });
+        log.publish(projectId, DocumentRevision.create(1)); // would block if the subscriber was notified here
+        log.publish(projectId, DocumentRevision.create(2));
+        release.countDown();
+        assertThat(notified.await(10, TimeUnit.SECONDS), is(true));
+        synchronized (events) {
+            assertThat(events, contains("koala 1", "koala 2"));
+        }
+        log.dispose();
+    }
+
+    @Test
+    public void doesNotNotifyReplayedEventsTwice() {
+        List<Runnable> dispatches = new ArrayList<>();
+        RevisionEventLog log = new RevisionEventLog(RevisionEventLog.DEFAULT_CAPACITY, dispatches::add);
+        String cursor = log.publish(projectId, DocumentRevision.create(1)).getCursor();
+        log.publish(projectId, DocumentRevision.create(2)); // published, not dispatched yet
+        RecordingListener listener = new RecordingListener();
+        log.subscribe(cursor, listener);
+        log.publish(projectId, DocumentRevision.create(3));
+        dispatches.forEach(Runnable::run);
+        assertThat(listener.events, contains("koala 2", "koala 3"));
+    }
+
+    private static class RecordingListener implements RevisionEventLog.Listener {
+
+        private final List<String> events = new ArrayList<>();
+
+        private String lostCursor;
+
+        @Override
+        public void revisionCommitted(RevisionEventLog.Event event) {
+            events.add(event.toString());
+        }
+
+        @Override
+        public void eventsLost(String cursor) {
+            lostCursor = cursor;
+        }
+    }
+}
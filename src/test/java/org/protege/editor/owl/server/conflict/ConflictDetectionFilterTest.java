@@ -0,0 +1,230 @@
+package org.protege.editor.owl.server.conflict;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.api.ChangeService;
+import org.protege.editor.owl.server.api.CommitBundle;
+import org.protege.editor.owl.server.api.ServerLayer;
+import org.protege.editor.owl.server.api.exception.OutOfSyncException;
+import org.protege.editor.owl.server.change.ChangeDocumentPool;
+import org.protege.editor.owl.server.change.ChangeManagementFilter;
+import org.protege.editor.owl.server.change.DefaultChangeService;
+import org.protege.editor.owl.server.policy.CommitBundleImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryUtils;
+import org.protege.editor.owl.server.versioning.Commit;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+import edu.stanford.protege.metaproject.api.AuthToken;
+import edu.stanford.protege.metaproject.api.ProjectId;
+
+public class ConflictDetectionFilterTest {
+
+    private static final long TIMEOUT = 10; // secs
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ChangeDocumentPool changePool;
+
+    private ChangeService changeService;
+
+    private ServerLayer server;
+
+    private ConflictDetectionFilter filter;
+
+    private AuthToken token;
+
+    private ProjectId projectA;
+
+    private ProjectId projectB;
+
+    private HistoryFile historyFileA;
+
+    private HistoryFile historyFileB;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws Exception {
+        changePool = new ChangeDocumentPool(8000);
+        historyFileA = createHistoryFile("a");
+        historyFileB = createHistoryFile("b");
+        projectA = mock(ProjectId.class);
+        when(projectA.get()).thenReturn("a");
+        projectB = mock(ProjectId.class);
+        when(projectB.get()).thenReturn("b");
+        token = mock(AuthToken.class);
+
+        server = mock(ServerLayer.class);
+        when(server.getHistoryFilePath(projectA)).thenReturn(historyFileA.getAbsolutePath());
+        when(server.getHistoryFilePath(projectB)).thenReturn(historyFileB.getAbsolutePath());
+        changeService = spy(new DefaultChangeService(changePool));
+        filter = new ConflictDetectionFilter(new ChangeManagementFilter(server, changePool), changeService);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+        changePool.dispose();
+    }
+
+    @Test
+    public void canCommitWhileAnotherProjectCommits() throws Exception {
+        CommitBundle bundleA = createCommitBundle(DocumentRevision.create(1));
+        CommitBundle bundleB = createCommitBundle(DocumentRevision.create(1));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(server.commit(token, projectA, bundleA)).thenAnswer(invocation -> {
+            entered.countDown();
+            release.await(TIMEOUT, TimeUnit.SECONDS);
+            return toChangeHistory(bundleA);
+        });
+        when(server.commit(token, projectB, bundleB)).thenReturn(toChangeHistory(bundleB));
+
+        Future<ChangeHistory> commitA = executor.submit(() -> filter.commit(token, projectA, bundleA));
+        assertThat(entered.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        ChangeHistory committedB = executor.submit(() -> filter.commit(token, projectB, bundleB))
+                .get(TIMEOUT, TimeUnit.SECONDS); // not blocked by the commit to project A
+        assertThat(committedB.getHeadRevision(), is(DocumentRevision.create(2)));
+        assertThat(commitA.isDone(), is(false));
+
+        release.countDown();
+        assertThat(commitA.get(TIMEOUT, TimeUnit.SECONDS).getHeadRevision(), is(DocumentRevision.create(2)));
+    }
+
+    @Test
+    public void canCommitWhileAnotherProjectLoads() throws Exception {
+        CommitBundle bundleA = createCommitBundle(DocumentRevision.create(1));
+        CommitBundle bundleB = createCommitBundle(DocumentRevision.create(1));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            entered.countDown();
+            release.await(TIMEOUT, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(changeService).getHeadRevision(historyFileA);
+        when(server.commit(token, projectA, bundleA)).thenReturn(toChangeHistory(bundleA));
+        when(server.commit(token, projectB, bundleB)).thenReturn(toChangeHistory(bundleB));
+
+        Future<ChangeHistory> commitA = executor.submit(() -> filter.commit(token, projectA, bundleA));
+        assertThat(entered.await(TIMEOUT, TimeUnit.SECONDS), is(true));
+        ChangeHistory committedB = executor.submit(() -> filter.commit(token, projectB, bundleB))
+                .get(TIMEOUT, TimeUnit.SECONDS); // not blocked by the history of project A
+        assertThat(committedB.getHeadRevision(), is(DocumentRevision.create(2)));
+        assertThat(commitA.isDone(), is(false));
+
+        release.countDown();
+        assertThat(commitA.get(TIMEOUT, TimeUnit.SECONDS).getHeadRevision(), is(DocumentRevision.create(2)));
+    }
+
+    @Test
+    public void rejectsOneOfTwoCommitsAgainstSameHead() throws Exception {
+        CommitBundle first = createCommitBundle(DocumentRevision.create(1));
+        CommitBundle second = createCommitBundle(DocumentRevision.create(1));
+        CountDownLatch checked = new CountDownLatch(2); // both commits pass the early head check
+        when(server.commit(token, projectA, first)).thenAnswer(invocation -> {
+            checked.countDown();
+            checked.await(TIMEOUT, TimeUnit.SECONDS);
+            return toChangeHistory(first);
+        });
+        when(server.commit(token, projectA, second)).thenAnswer(invocation -> {
+            checked.countDown();
+            checked.await(TIMEOUT, TimeUnit.SECONDS);
+            return toChangeHistory(second);
+        });
+
+        List<Future<ChangeHistory>> commits = new ArrayList<>();
+        commits.add(executor.submit(() -> filter.commit(token, projectA, first)));
+        commits.add(executor.submit(() -> filter.commit(token, projectA, second)));
+        int committed = 0;
+        int rejected = 0;
+        for (Future<ChangeHistory> commit : commits) {
+            try {
+                assertThat(commit.get(TIMEOUT, TimeUnit.SECONDS).getHeadRevision(), is(DocumentRevision.create(2)));
+                committed++;
+            }
+            catch (ExecutionException e) {
+                assertThat(e.getCause(), is(instanceOf(OutOfSyncException.class)));
+                rejected++;
+            }
+        }
+        assertThat(committed, is(1));
+        assertThat(rejected, is(1));
+        assertThat(changePool.lookupHead(historyFileA), is(DocumentRevision.create(2)));
+        try {
+            filter.commit(token, projectA, createCommitBundle(DocumentRevision.create(1)));
+            fail("The commit is outdated");
+        }
+        catch (OutOfSyncException e) {
+            // expected, rejected by the early head check
+        }
+    }
+
+    private HistoryFile createHistoryFile(String projectName) throws Exception {
+        HistoryFile historyFile = HistoryFile.createNew(folder.newFolder(projectName).getAbsolutePath());
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory();
+        changeHistory.addRevision(createMetadata(), createChanges(projectName));
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        return historyFile;
+    }
+
+    private CommitBundle createCommitBundle(DocumentRevision base) throws Exception {
+        return new CommitBundleImpl(base, new Commit(createMetadata(), createChanges("commit")));
+    }
+
+    /*
+     * The change history the server creates from the commit bundle
+     */
+    private static ChangeHistory toChangeHistory(CommitBundle commitBundle) {
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory(commitBundle.getBaseRevision());
+        for (Commit commit : commitBundle.getCommits()) {
+            changeHistory.addRevision(commit.getMetadata(), commit.getChanges());
+        }
+        return changeHistory;
+    }
+
+    private static RevisionMetadata createMetadata() {
+        return new RevisionMetadata("bob", "Bob", "bob@example.org", "Test");
+    }
+
+    private static List<OWLOntologyChange> createChanges(String name) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        List<OWLOntologyChange> changes = new ArrayList<>();
+        IRI iri = IRI.create("http://example.org/" + name + "#C");
+        changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        return changes;
+    }
+}
@@ -0,0 +1,52 @@
+package org.protege.editor.owl.server.http.handlers;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.util.Optional;
+
+import org.junit.Test;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+
+public class HTTPChangeServiceTest {
+
+    private static final DocumentRevision HEAD = DocumentRevision.create(42);
+
+    @Test
+    public void revisionTagIncludesRangeChecksumAndEncoding() {
+        String tag = HTTPChangeService.createRevisionTag(DocumentRevision.create(10), HEAD, Optional.of("abc"),
+                HTTPChangeService.BINARY_ENCODING);
+        assertThat(tag, is("10..42-abc-binary"));
+    }
+
+    @Test
+    public void revisionTagOfHeadHasNoStartRevision() {
+        String tag = HTTPChangeService.createRevisionTag(null, HEAD, Optional.empty(),
+                HTTPChangeService.SERIALIZED_ENCODING);
+        assertThat(tag, is("42-serialized"));
+    }
+
+    @Test
+    public void revisionTagDependsOnStartRevision() {
+        String fromStart = HTTPChangeService.createRevisionTag(DocumentRevision.START_REVISION, HEAD,
+                Optional.of("abc"), HTTPChangeService.BINARY_ENCODING);
+        String fromMiddle = HTTPChangeService.createRevisionTag(DocumentRevision.create(10), HEAD,
+                Optional.of("abc"), HTTPChangeService.BINARY_ENCODING);
+        assertThat(fromStart, is(not(fromMiddle)));
+    }
+
+    @Test
+    public void revisionTagDependsOnEncoding() {
+        DocumentRevision start = DocumentRevision.create(10);
+        String binary = HTTPChangeService.createRevisionTag(start, HEAD, Optional.of("abc"),
+                HTTPChangeService.BINARY_ENCODING);
+        String raw = HTTPChangeService.createRevisionTag(start, HEAD, Optional.of("abc"),
+                HTTPChangeService.RAW_ENCODING);
+        String serialized = HTTPChangeService.createRevisionTag(start, HEAD, Optional.of("abc"),
+                HTTPChangeService.SERIALIZED_ENCODING);
+        assertThat(binary, is(not(raw)));
+        assertThat(binary, is(not(serialized)));
+        assertThat(raw, is(not(serialized)));
+    }
+}
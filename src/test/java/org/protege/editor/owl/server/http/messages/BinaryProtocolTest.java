@@ -0,0 +1,154 @@
+package org.protege.editor.owl.server.http.messages;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.api.CommitBundle;
+import org.protege.editor.owl.server.policy.CommitBundleImpl;
+import org.protege.editor.owl.server.versioning.ChangeHistoryImpl;
+import org.protege.editor.owl.server.versioning.Commit;
+import org.protege.editor.owl.server.versioning.HistoryFileRange;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.binaryowl.BinaryOWLMetadata;
+import org.semanticweb.binaryowl.BinaryOWLOntologyChangeLog;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+public class BinaryProtocolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RevisionMetadata metadata;
+
+	private List<OWLOntologyChange> changes;
+
+	@Before
+	public void setup() throws Exception {
+		OWLDataFactory df = OWLManager.getOWLDataFactory();
+		OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+		changes = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			IRI iri = IRI.create("http://example.org/koala#C" + i);
+			changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+		}
+		metadata = new RevisionMetadata("bob", "Bob", "bob@example.org", "Test");
+	}
+
+	@Test
+	public void canReadCommitBundle() throws Exception {
+		HistoryFile historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(payload);
+		BinaryProtocol.writeHistoryFile(historyFile, dos);
+		BinaryProtocol.writeCommitBundle(new CommitBundleImpl(DocumentRevision.create(4), new Commit(metadata, changes)), dos);
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		BinaryProtocol.writeMessage(payload.toByteArray(), message);
+		assertThat(message.size(), is(BinaryProtocol.getMessageLength(payload.toByteArray())));
+
+		DataInputStream dis = BinaryProtocol.readMessage(new ByteArrayInputStream(message.toByteArray()));
+		assertThat(BinaryProtocol.readHistoryFile(dis), is(historyFile));
+		CommitBundle bundle = BinaryProtocol.readCommitBundle(dis);
+		assertThat(bundle.getBaseRevision(), is(DocumentRevision.create(4)));
+		assertThat(bundle.getCommits().size(), is(1));
+		assertThat(bundle.getCommits().get(0).getMetadata(), is(metadata));
+		assertThat(bundle.getCommits().get(0).getChanges().size(), is(changes.size()));
+	}
+
+	@Test
+	public void canReadChanges() throws Exception {
+		ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory(DocumentRevision.create(2));
+		changeHistory.addRevision(metadata, changes);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryProtocol.writeChanges(changeHistory, bytes);
+		long payloadLength = HistoryFileRange.HEADER_SIZE + HistoryFileRange.getRecordsLength(changeHistory);
+		assertThat((long) bytes.size(), is(BinaryProtocol.getMessageLength(payloadLength)));
+
+		ChangeHistory result = BinaryProtocol.readChanges(new ByteArrayInputStream(bytes.toByteArray()));
+		assertThat(result.getBaseRevision(), is(DocumentRevision.create(2)));
+		assertThat(result.getHeadRevision(), is(DocumentRevision.create(3)));
+		assertThat(result.getChangesForRevision(DocumentRevision.create(3)).size(), is(changes.size()));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsUnknownMessage() throws Exception {
+		BinaryProtocol.readMessage(new ByteArrayInputStream(new byte[] { 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0 }));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsOversizedPayload() throws Exception {
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		BinaryProtocol.writeMessage(new byte[0], message);
+		byte[] bytes = message.toByteArray();
+		int length = BinaryProtocol.MAX_PAYLOAD_LENGTH + 1;
+		bytes[8] = (byte) (length >>> 24);
+		bytes[9] = (byte) (length >>> 16);
+		bytes[10] = (byte) (length >>> 8);
+		bytes[11] = (byte) length;
+		BinaryProtocol.readMessage(new ByteArrayInputStream(bytes));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsOversizedResponse() throws Exception {
+		BinaryProtocol.getMessageHeader(BinaryProtocol.MAX_PAYLOAD_LENGTH + 1L);
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsTooManyCommits() throws Exception {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(payload);
+		BinaryProtocol.writeRevision(DocumentRevision.create(4), dos);
+		dos.writeInt(BinaryProtocol.MAX_COMMIT_COUNT + 1);
+		BinaryProtocol.readCommitBundle(new DataInputStream(new ByteArrayInputStream(payload.toByteArray())));
+	}
+
+	@Test(expected = ProtocolException.class)
+	public void rejectsOversizedChangeLog() throws Exception {
+		byte[] bundle = writeCommitBundle();
+		int lengthOffset = bundle.length - getChangeLogLength() - 4;
+		int length = BinaryProtocol.MAX_CHANGE_LOG_LENGTH + 1;
+		bundle[lengthOffset] = (byte) (length >>> 24);
+		bundle[lengthOffset + 1] = (byte) (length >>> 16);
+		bundle[lengthOffset + 2] = (byte) (length >>> 8);
+		bundle[lengthOffset + 3] = (byte) length;
+		BinaryProtocol.readCommitBundle(new DataInputStream(new ByteArrayInputStream(bundle)));
+	}
+
+	/*
+	 * A bundle of a single commit, which ends with its change log
+	 */
+	private byte[] writeCommitBundle() throws Exception {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		BinaryProtocol.writeCommitBundle(new CommitBundleImpl(DocumentRevision.create(4), new Commit(metadata, changes)),
+				new DataOutputStream(payload));
+		return payload.toByteArray();
+	}
+
+	/*
+	 * The length of the change log does not depend on its timestamp
+	 */
+	private int getChangeLogLength() throws Exception {
+		ByteArrayOutputStream changeLog = new ByteArrayOutputStream();
+		new BinaryOWLOntologyChangeLog().appendChanges(changes, 0, BinaryOWLMetadata.emptyMetadata(), changeLog);
+		return changeLog.size();
+	}
+}
@@ -0,0 +1,62 @@
+package org.protege.editor.owl.server.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.binaryowl.BinaryOWLOntologyDocumentSerializer;
+import org.semanticweb.binaryowl.owlapi.OWLOntologyWrapper;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+public class SnapShotFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OWLOntology ontology;
+
+    private File snapshotFile;
+
+    @Before
+    public void setup() throws Exception {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLDataFactory df = manager.getOWLDataFactory();
+        ontology = manager.createOntology(IRI.create("http://example.org/test"));
+        for (int i = 0; i < 500; i++) {
+            IRI iri = IRI.create("http://example.org/test#C" + i);
+            manager.addAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri)));
+        }
+        snapshotFile = folder.newFile("history-snapshot");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile)))) {
+            new BinaryOWLOntologyDocumentSerializer().write(new OWLOntologyWrapper(ontology), os);
+        }
+    }
+
+    @Test
+    public void canReadTransferredSnapshot() throws Exception {
+        SnapShotFile snapshot = new SnapShotFile(snapshotFile, "12345");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.writeTo(bytes);
+        assertThat((long) bytes.size(), is(snapshot.getTransferLength()));
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        SnapShot result = (SnapShot) ois.readObject();
+        assertThat(result.getOntology().getAxioms(), is(ontology.getAxioms()));
+        assertThat(ois.readObject(), is("12345"));
+    }
+}
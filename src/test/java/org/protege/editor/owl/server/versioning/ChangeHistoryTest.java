@@ -102,4 +102,13 @@ public class ChangeHistoryTest {
         assertThat(ch.getChangesForRevision(r3).size(), is(1));
         assertThat(ch.getChangesForRevision(r5), is(nullValue()));
     }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cannotAddRevisionToCroppedHistory() {
+        ChangeHistory ch = ChangeHistoryImpl.createEmptyChangeHistory();
+        ch.addRevision(firstMetadata, firstChanges);
+        ch.addRevision(secondMetadata, secondChanges);
+        ChangeHistory cropped = ChangeHistoryUtils.crop(ch, DocumentRevision.START_REVISION, DocumentRevision.create(1));
+        cropped.addRevision(thirdMetadata, thirdChanges);
+    }
 }
@@ -105,4 +105,16 @@ public class ChangeHistoryUtilsTest {
         assertThat(croppedHistory.getHeadRevision(), is(r3));
         assertThat(croppedHistory.getRevisions().size(), is(2));
     }
+
+    @Test
+    public void cropIsNotChangedByAppendedRevisions() {
+        // operate
+        ChangeHistory croppedHistory = ChangeHistoryUtils.crop(changeHistory, r0);
+        changeHistory.addRevision(firstMetadata, firstChanges);
+        // check
+        assertThat(croppedHistory.getHeadRevision(), is(r3));
+        assertThat(croppedHistory.getRevisions().size(), is(3));
+        assertThat(croppedHistory.getMetadata().lastKey(), is(r3));
+        assertThat(changeHistory.getRevisions().size(), is(4));
+    }
 }
@@ -0,0 +1,56 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HistoryFile historyFile;
+
+    private OWLOntology ontology;
+
+    @Before
+    public void setup() throws Exception {
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLDataFactory df = manager.getOWLDataFactory();
+        ontology = manager.createOntology();
+        for (int i = 0; i < 3; i++) {
+            IRI iri = IRI.create("http://example.org/test#C" + i);
+            manager.addAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri)));
+        }
+    }
+
+    @Test
+    public void canFindNearestCheckpoint() throws Exception {
+        Checkpoint.write(historyFile, DocumentRevision.create(10), ontology);
+        Checkpoint.write(historyFile, DocumentRevision.create(20), ontology);
+        assertThat(Checkpoint.findNearest(historyFile, DocumentRevision.create(5)), is(nullValue()));
+        assertThat(Checkpoint.findNearest(historyFile, DocumentRevision.create(19)).getRevision(),
+                is(DocumentRevision.create(10)));
+        assertThat(Checkpoint.findNearest(historyFile, DocumentRevision.create(20)).getRevision(),
+                is(DocumentRevision.create(20)));
+    }
+
+    @Test
+    public void canLoadCheckpoint() throws Exception {
+        Checkpoint checkpoint = Checkpoint.write(historyFile, DocumentRevision.create(3), ontology);
+        assertThat(checkpoint.load().getAxioms(), is(ontology.getAxioms()));
+    }
+}
@@ -0,0 +1,234 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+public class HistoryIndexTest {
+
+    private final DocumentRevision r1 = DocumentRevision.create(1);
+    private final DocumentRevision r2 = DocumentRevision.create(2);
+    private final DocumentRevision r3 = DocumentRevision.create(3);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HistoryFile historyFile;
+
+    private ChangeHistory changeHistory;
+
+    @Before
+    public void setup() throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        changeHistory = ChangeHistoryImpl.createEmptyChangeHistory();
+        for (int i = 1; i <= 3; i++) {
+            List<OWLOntologyChange> changes = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                IRI iri = IRI.create("http://example.org/test#C" + i + "_" + j);
+                changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+            }
+            changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Revision " + i), changes);
+        }
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void canIndexAppendedRevisions() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        assertThat(index, is(notNullValue()));
+        assertThat(index.getBaseRevision(), is(DocumentRevision.START_REVISION));
+        assertThat(index.getHeadRevision(), is(r3));
+        assertThat(index.getOffset(r1), is(0L));
+        assertThat(index.getEndOffset(), is(historyFile.length()));
+    }
+
+    @Test
+    public void canReadRevisionRangeUsingIndex() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        ChangeHistory subHistory = ChangeHistoryUtils.readChanges(historyFile, index, r1, r3);
+        assertThat(subHistory.getBaseRevision(), is(r1));
+        assertThat(subHistory.getHeadRevision(), is(r3));
+        assertThat(subHistory.getRevisions().size(), is(2));
+        assertThat(subHistory.getChangesForRevision(r2).size(), is(2));
+        assertThat(subHistory.getMetadataForRevision(r3).getComment(), is("Revision 3"));
+    }
+
+    @Test
+    public void ignoreIndexWhenOutOfDate() throws Exception {
+        ChangeHistoryUtils.appendChanges(ChangeHistoryUtils.crop(changeHistory, DocumentRevision.START_REVISION, r1),
+                historyFile);
+        HistoryIndex.getIndexFile(historyFile).delete();
+        ChangeHistoryUtils.appendChanges(ChangeHistoryUtils.crop(changeHistory, r1), historyFile);
+        assertThat(HistoryIndex.load(historyFile), is(nullValue()));
+    }
+
+    @Test
+    public void canRebuildIndex() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        HistoryIndex original = HistoryIndex.load(historyFile);
+        HistoryIndex.getIndexFile(historyFile).delete();
+        assertThat(HistoryIndex.load(historyFile), is(nullValue()));
+
+        HistoryIndex rebuilt = HistoryIndex.rebuild(historyFile, ChangeHistoryUtils.readChanges(historyFile));
+        assertThat(rebuilt, is(notNullValue()));
+        assertThat(rebuilt.getHeadRevision(), is(r3));
+        assertThat(rebuilt.getOffset(r2), is(original.getOffset(r2)));
+        assertThat(rebuilt.getLength(r3), is(original.getLength(r3)));
+        assertThat(HistoryIndex.load(historyFile), is(notNullValue()));
+    }
+
+    @Test
+    public void canTransferRevisionRange() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        HistoryFileRange range = HistoryFileRange.create(historyFile, HistoryIndex.load(historyFile), r1, r3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        range.transferTo(Channels.newChannel(bytes));
+        assertThat((long) bytes.size(), is(range.getTransferLength()));
+
+        ChangeHistory subHistory = HistoryFileRange.readChanges(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThat(subHistory.getBaseRevision(), is(r1));
+        assertThat(subHistory.getHeadRevision(), is(r3));
+        assertThat(subHistory.getChangesForRevision(r2).size(), is(2));
+        assertThat(subHistory.getMetadataForRevision(r3).getComment(), is("Revision 3"));
+    }
+
+    @Test
+    public void canTransferEmptyRange() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        HistoryFileRange range = HistoryFileRange.create(historyFile, HistoryIndex.load(historyFile), r3, r3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        range.transferTo(Channels.newChannel(bytes));
+        ChangeHistory subHistory = HistoryFileRange.readChanges(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThat(subHistory.isEmpty(), is(true));
+        assertThat(subHistory.getBaseRevision(), is(r3));
+    }
+
+    @Test
+    public void canTruncateFailedAppend() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        long length = historyFile.length();
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        try {
+            ChangeHistoryUtils.appendChanges(createFailingChanges(r3), historyFile, index);
+            fail("The append should fail");
+        }
+        catch (IllegalStateException e) {
+            // the second revision cannot be encoded
+        }
+        assertThat(historyFile.length(), is(length));
+        assertThat(index.getHeadRevision(), is(r3));
+        assertThat(HistoryIndex.load(historyFile).getHeadRevision(), is(r3));
+        assertThat(ChangeHistoryUtils.readChanges(historyFile).getHeadRevision(), is(r3));
+    }
+
+    @Test
+    public void snapshotDoesNotSeeLaterEntries() throws Exception {
+        ChangeHistoryUtils.appendChanges(ChangeHistoryUtils.crop(changeHistory, DocumentRevision.START_REVISION, r2), historyFile);
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        HistoryIndex snapshot = index.snapshot();
+        ChangeHistoryUtils.appendChanges(ChangeHistoryUtils.crop(changeHistory, r2, r3), historyFile, index);
+        assertThat(index.getHeadRevision(), is(r3));
+        assertThat(snapshot.getHeadRevision(), is(r2));
+        assertThat(snapshot.contains(r3), is(false));
+        assertThat(snapshot.getEndOffset(), is(index.getOffset(r3)));
+    }
+
+    @Test
+    public void canReadRangesWhileAppending() throws Exception {
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        final HistoryIndex index = HistoryIndex.load(historyFile);
+        final AtomicBoolean appending = new AtomicBoolean(true);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> reads = reader.submit(() -> {
+                int count = 0;
+                while (appending.get() || count == 0) {
+                    DocumentRevision head = index.getHeadRevision();
+                    HistoryFileRange range = HistoryFileRange.create(historyFile, index, r1, head);
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    range.transferTo(Channels.newChannel(bytes));
+                    ChangeHistory subHistory = HistoryFileRange.readChanges(new ByteArrayInputStream(bytes.toByteArray()));
+                    assertThat(subHistory.getHeadRevision(), is(head));
+                    assertThat(subHistory.getRevisions().size(), is(DocumentRevision.distance(r1, head)));
+                    count++;
+                }
+                return count;
+            });
+            DocumentRevision head = r3;
+            for (int i = 0; i < 200; i++) {
+                ChangeHistoryUtils.appendChanges(createChanges(head), historyFile, index);
+                head = head.next();
+            }
+            appending.set(false);
+            assertThat(reads.get(30, TimeUnit.SECONDS) > 0, is(true));
+            assertThat(HistoryIndex.load(historyFile).getHeadRevision(), is(head));
+        }
+        finally {
+            reader.shutdownNow();
+        }
+    }
+
+    private ChangeHistory createChanges(DocumentRevision base) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory changes = ChangeHistoryImpl.createEmptyChangeHistory(base);
+        List<OWLOntologyChange> revision = new ArrayList<>();
+        IRI iri = IRI.create("http://example.org/test#Appended" + base.getRevisionNumber());
+        revision.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        changes.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Appended"), revision);
+        return changes;
+    }
+
+    /*
+     * A large revision, which is written to the history file before the next revision fails to encode
+     */
+    private ChangeHistory createFailingChanges(DocumentRevision base) throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory changes = ChangeHistoryImpl.createEmptyChangeHistory(base);
+        for (int i = 1; i <= 2; i++) {
+            List<OWLOntologyChange> revision = new ArrayList<>();
+            for (int j = 0; j < 1000; j++) {
+                IRI iri = IRI.create("http://example.org/test#Large" + i + "_" + j);
+                revision.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+            }
+            changes.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Large " + i), revision);
+        }
+        ChangeHistory failing = spy(changes);
+        doThrow(new IllegalStateException("Unable to encode")).when(failing).getChangesForRevision(base.next(2));
+        return failing;
+    }
+}
@@ -0,0 +1,236 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+public class MappedChangeHistoryTest {
+
+    private final DocumentRevision r1 = DocumentRevision.create(1);
+    private final DocumentRevision r2 = DocumentRevision.create(2);
+    private final DocumentRevision r3 = DocumentRevision.create(3);
+    private final DocumentRevision r4 = DocumentRevision.create(4);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HistoryFile historyFile;
+
+    private ChangeHistory changeHistory;
+
+    private OWLOntology ontology;
+
+    @Before
+    public void setup() throws Exception {
+        ontology = OWLManager.createOWLOntologyManager().createOntology();
+        changeHistory = ChangeHistoryImpl.createEmptyChangeHistory();
+        for (int i = 1; i <= 3; i++) {
+            changeHistory.addRevision(createMetadata(i), createChanges(i));
+        }
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+    }
+
+    @Test
+    public void canReadRevisionOnDemand() throws Exception {
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile));
+        assertThat(mappedHistory.getBaseRevision(), is(DocumentRevision.START_REVISION));
+        assertThat(mappedHistory.getHeadRevision(), is(r3));
+        assertThat(mappedHistory.getChangesForRevision(r2), is(changeHistory.getChangesForRevision(r2)));
+        assertThat(mappedHistory.getMetadataForRevision(r3).getComment(), is("Revision 3"));
+        assertThat(mappedHistory.getChangesForRevision(r4), is(nullValue()));
+    }
+
+    @Test
+    public void canCropMappedHistory() throws Exception {
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile));
+        ChangeHistory subHistory = ChangeHistoryUtils.crop(mappedHistory, r1, r3);
+        assertThat(subHistory, is(instanceOf(ChangeHistoryImpl.class)));
+        assertThat(subHistory, is(ChangeHistoryUtils.crop(changeHistory, r1, r3)));
+    }
+
+    @Test
+    public void canAddAppendedRevision() throws Exception {
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, index);
+        mappedHistory.getChangesForRevision(r1); // map the file before it grows
+
+        ChangeHistory newChanges = ChangeHistoryImpl.createEmptyChangeHistory(r3);
+        newChanges.addRevision(createMetadata(4), createChanges(4));
+        ChangeHistoryUtils.appendChanges(newChanges, historyFile, index);
+        mappedHistory.addRevision(createMetadata(4), createChanges(4));
+
+        assertThat(mappedHistory.getHeadRevision(), is(r4));
+        ChangeHistory reread = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile));
+        assertThat(reread.getChangesForRevision(r4), is(newChanges.getChangesForRevision(r4)));
+    }
+
+    @Test
+    public void canKeepTailWindowDecoded() throws Exception {
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, index, 0, 2);
+        mappedHistory.getChangesForRevision(r1); // out of the window
+        ChangeHistoryUtils.crop(mappedHistory, r1, r3);
+        assertThat(mappedHistory.getTailRevisionCount(), is(2));
+
+        ChangeHistory newChanges = ChangeHistoryImpl.createEmptyChangeHistory(r3);
+        newChanges.addRevision(createMetadata(4), createChanges(4));
+        ChangeHistoryUtils.appendChanges(newChanges, historyFile, index);
+        mappedHistory.addRevision(createMetadata(4), createChanges(4));
+
+        assertThat(mappedHistory.getTailRevisionCount(), is(2)); // revision 2 left the window
+        assertThat(mappedHistory.getChangesForRevision(r2), is(changeHistory.getChangesForRevision(r2)));
+        assertThat(mappedHistory.getTailRevisionCount(), is(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotAddUnwrittenRevision() throws Exception {
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile));
+        mappedHistory.addRevision(createMetadata(4), createChanges(4));
+    }
+
+    @Test
+    public void canSerializeAsChangeHistory() throws Exception {
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(mappedHistory);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        ChangeHistory result = (ChangeHistory) ois.readObject();
+        assertThat(result, is(instanceOf(ChangeHistoryImpl.class)));
+        assertThat(result.getHeadRevision(), is(r3));
+        assertThat(result.getChangesForRevision(r3).size(), is(3));
+    }
+
+    @Test
+    public void canStreamViewOfMappedHistory() throws Exception {
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile));
+        ChangeHistory view = ChangeHistoryImpl.createView(mappedHistory, r1, r3);
+        byte[] viewBytes = serialize(view);
+        assertThat(viewBytes, is(serialize(ChangeHistoryUtils.crop(changeHistory, r1, r3))));
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(viewBytes));
+        ChangeHistory result = (ChangeHistory) ois.readObject();
+        assertThat(result.getBaseRevision(), is(r1));
+        assertThat(result.getHeadRevision(), is(r3));
+        assertThat(result.getChangesForRevision(r2).size(), is(2));
+        assertThat(result.getMetadataForRevision(r3).getComment(), is(createMetadata(3).getComment()));
+    }
+
+    @Test
+    public void canReadRevisionsUpToHeadOfCall() throws Exception {
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, index, 0, 1);
+        SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = mappedHistory.getRevisions();
+
+        ChangeHistory newChanges = ChangeHistoryImpl.createEmptyChangeHistory(r3);
+        newChanges.addRevision(createMetadata(4), createChanges(4));
+        ChangeHistoryUtils.appendChanges(newChanges, historyFile, index);
+        mappedHistory.addRevision(createMetadata(4), createChanges(4));
+
+        assertThat(revisions.size(), is(3));
+        assertThat(revisions.lastKey(), is(r3));
+        assertThat(revisions, is(changeHistory.getRevisions()));
+        assertThat(revisions.tailMap(r2).keySet(), contains(r2, r3));
+        assertThat(mappedHistory.getMetadata().get(r4).getComment(), is("Revision 4"));
+        assertThat(mappedHistory.getTailRevisionCount(), is(1)); // only the tail window is kept decoded
+    }
+
+    @Test
+    public void canReadRevisionAfterClose() throws Exception {
+        MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, HistoryIndex.load(historyFile), 0);
+        mappedHistory.getChangesForRevision(r1); // map the file
+        mappedHistory.close();
+        assertThat(mappedHistory.getChangesForRevision(r2), is(changeHistory.getChangesForRevision(r2)));
+        assertThat(serialize(ChangeHistoryImpl.createView(mappedHistory, r1, r3)),
+                is(serialize(ChangeHistoryUtils.crop(changeHistory, r1, r3))));
+    }
+
+    @Test
+    public void canReadRevisionsWhileAppending() throws Exception {
+        HistoryIndex index = HistoryIndex.load(historyFile);
+        final MappedChangeHistory mappedHistory = new MappedChangeHistory(historyFile, index, 0);
+        final AtomicBoolean appending = new AtomicBoolean(true);
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> reads = reader.submit(() -> {
+                int count = 0;
+                while (appending.get() || count == 0) {
+                    DocumentRevision head = mappedHistory.getHeadRevision();
+                    for (DocumentRevision current = r1; current.behindOrSameAs(head); current = current.next()) {
+                        int i = current.getRevisionNumber();
+                        assertThat(mappedHistory.getMetadataForRevision(current).getComment(), is("Revision " + i));
+                        assertThat(mappedHistory.getChangesForRevision(current).size(), is(i));
+                    }
+                    count++;
+                }
+                return count;
+            });
+            for (int i = 4; i <= 100; i++) {
+                ChangeHistory newChanges = ChangeHistoryImpl.createEmptyChangeHistory(i - 1);
+                newChanges.addRevision(createMetadata(i), createChanges(i));
+                ChangeHistoryUtils.appendChanges(newChanges, historyFile, index);
+                mappedHistory.addRevision(createMetadata(i), createChanges(i));
+            }
+            appending.set(false);
+            assertThat(reads.get(30, TimeUnit.SECONDS) > 0, is(true));
+            assertThat(mappedHistory.getHeadRevision(), is(DocumentRevision.create(100)));
+        }
+        finally {
+            reader.shutdownNow();
+        }
+    }
+
+    private static byte[] serialize(ChangeHistory history) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(history);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    private RevisionMetadata createMetadata(int i) {
+        return new RevisionMetadata("bob", "Bob", "bob@example.org", "Revision " + i);
+    }
+
+    private List<OWLOntologyChange> createChanges(int i) {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        List<OWLOntologyChange> changes = new ArrayList<>();
+        for (int j = 0; j < i; j++) {
+            IRI iri = IRI.create("http://example.org/test#C" + i + "_" + j);
+            changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+        }
+        return changes;
+    }
+}
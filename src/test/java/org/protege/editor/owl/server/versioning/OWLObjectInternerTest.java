@@ -0,0 +1,49 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.change.AddAxiomData;
+import org.semanticweb.owlapi.change.RemoveAxiomData;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+public class OWLObjectInternerTest {
+
+    private OWLOntology placeholder;
+
+    @Before
+    public void setup() throws Exception {
+        placeholder = OWLManager.createOWLOntologyManager().createOntology();
+    }
+
+    private static OWLAxiom createAxiom() {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        return df.getOWLDeclarationAxiom(df.getOWLClass(IRI.create("http://example.org/test#A")));
+    }
+
+    @Test
+    public void internsEqualAxioms() {
+        OWLAxiom axiom = OWLObjectInterner.intern(createAxiom());
+        assertThat(OWLObjectInterner.intern(createAxiom()), is(sameInstance(axiom)));
+    }
+
+    @Test
+    public void createsChangesWithInternedAxioms() {
+        OWLOntologyChange added = OWLObjectInterner.createOntologyChange(new AddAxiomData(createAxiom()), placeholder);
+        OWLOntologyChange removed = OWLObjectInterner.createOntologyChange(new RemoveAxiomData(createAxiom()), placeholder);
+        assertThat(added.isAddAxiom(), is(true));
+        assertThat(removed, is(instanceOf(RemoveAxiom.class)));
+        assertThat(removed.getAxiom(), is(sameInstance(added.getAxiom())));
+        assertThat(added.getOntology(), is(sameInstance(placeholder)));
+    }
+}
@@ -0,0 +1,123 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+public class ParallelChangeLogReaderTest {
+
+    private static final int REVISION_COUNT = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    private HistoryFile historyFile;
+
+    private HistoryIndex historyIndex;
+
+    @Before
+    public void setup() throws Exception {
+        OWLDataFactory df = OWLManager.getOWLDataFactory();
+        OWLOntology ontology = OWLManager.createOWLOntologyManager().createOntology();
+        ChangeHistory changeHistory = ChangeHistoryImpl.createEmptyChangeHistory();
+        for (int i = 1; i <= REVISION_COUNT; i++) {
+            List<OWLOntologyChange> changes = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                IRI iri = IRI.create("http://example.org/test#C" + i + "_" + j);
+                changes.add(new AddAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(iri))));
+            }
+            changeHistory.addRevision(new RevisionMetadata("bob", "Bob", "bob@example.org", "Revision " + i), changes);
+        }
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        ChangeHistoryUtils.appendChanges(changeHistory, historyFile);
+        historyIndex = HistoryIndex.load(historyFile);
+    }
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void readsSameRevisionsAsSequentialRead() throws Exception {
+        ChangeHistory expected = ChangeHistoryUtils.readChanges(historyFile, historyIndex,
+                DocumentRevision.create(3), DocumentRevision.create(17));
+        ParallelChangeLogReader reader = new ParallelChangeLogReader(historyFile, historyIndex, pool, 256);
+        SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
+        SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
+        reader.read(DocumentRevision.create(3), DocumentRevision.create(17), metadata, revisions);
+        assertThat(revisions.keySet(), is(expected.getRevisions().keySet()));
+        assertThat(metadata, is(expected.getMetadata()));
+        for (DocumentRevision revision : revisions.keySet()) {
+            assertThat(revisions.get(revision).size(), is(expected.getChangesForRevision(revision).size()));
+        }
+    }
+
+    @Test
+    public void splitsBlocksAtRecordBoundariesBelowMaxLength() throws Exception {
+        int maxRecordLength = 0;
+        for (int i = 1; i <= REVISION_COUNT; i++) {
+            maxRecordLength = Math.max(maxRecordLength, historyIndex.getLength(DocumentRevision.create(i)));
+        }
+        ChangeHistory expected = ChangeHistoryUtils.readChanges(historyFile, historyIndex,
+                DocumentRevision.START_REVISION, DocumentRevision.create(REVISION_COUNT));
+        ParallelChangeLogReader reader = new ParallelChangeLogReader(historyFile, historyIndex, pool,
+                Integer.MAX_VALUE, maxRecordLength);
+        SortedMap<DocumentRevision, RevisionMetadata> metadata = new TreeMap<>();
+        SortedMap<DocumentRevision, List<OWLOntologyChange>> revisions = new TreeMap<>();
+        reader.read(DocumentRevision.START_REVISION, DocumentRevision.create(REVISION_COUNT), metadata, revisions);
+        assertThat(revisions.keySet(), is(expected.getRevisions().keySet()));
+        assertThat(metadata, is(expected.getMetadata()));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnRecordLongerThanMaxBlockLength() throws Exception {
+        ParallelChangeLogReader reader = new ParallelChangeLogReader(historyFile, historyIndex, pool, 256, 16);
+        reader.read(DocumentRevision.START_REVISION, DocumentRevision.create(REVISION_COUNT),
+                new TreeMap<>(), new TreeMap<>());
+    }
+
+    @Test
+    public void isParallelOnlyForRangesLargerThanOneBlock() throws Exception {
+        ParallelChangeLogReader reader = new ParallelChangeLogReader(historyFile, historyIndex, pool, 256);
+        assertThat(reader.isParallel(DocumentRevision.START_REVISION, DocumentRevision.create(REVISION_COUNT)), is(true));
+        assertThat(reader.isParallel(DocumentRevision.create(1), DocumentRevision.create(1)), is(false));
+        reader = new ParallelChangeLogReader(historyFile, historyIndex, pool, Integer.MAX_VALUE);
+        assertThat(reader.isParallel(DocumentRevision.START_REVISION, DocumentRevision.create(REVISION_COUNT)), is(false));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnTruncatedHistoryFile() throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(historyFile, "rw")) {
+            file.setLength(historyFile.length() / 2);
+        }
+        ParallelChangeLogReader reader = new ParallelChangeLogReader(historyFile, historyIndex, pool, 256);
+        reader.read(DocumentRevision.START_REVISION, DocumentRevision.create(REVISION_COUNT),
+                new TreeMap<>(), new TreeMap<>());
+    }
+}
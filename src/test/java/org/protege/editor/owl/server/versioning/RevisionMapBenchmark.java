@@ -0,0 +1,112 @@
+package org.protege.editor.owl.server.versioning;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.protege.editor.owl.server.versioning.api.ChangeHistory;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.RevisionMetadata;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+
+/**
+ * Compares the change histories stored in {@link RevisionMap}s with the change histories stored in
+ * tree maps, for adding revisions, cropping and iterating. It is not run as part of the unit tests;
+ * run the main method, or the JMH runner, from the test class path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RevisionMapBenchmark {
+
+    @Param({"1000", "100000"})
+    private int revisionCount;
+
+    private final RevisionMetadata metadata = new RevisionMetadata("bob", "Bob", "bob@example.com", "benchmark");
+
+    private final List<OWLOntologyChange> changes = Collections.emptyList();
+
+    private ChangeHistory treeMapHistory;
+
+    private ChangeHistory revisionMapHistory;
+
+    private DocumentRevision cropStart;
+
+    private DocumentRevision cropEnd;
+
+    @Setup
+    public void setUp() {
+        treeMapHistory = fill(createTreeMapHistory());
+        revisionMapHistory = fill(ChangeHistoryImpl.createEmptyChangeHistory());
+        cropStart = DocumentRevision.create(revisionCount / 4);
+        cropEnd = DocumentRevision.create(revisionCount / 2);
+    }
+
+    @Benchmark
+    public ChangeHistory addRevisionToTreeMap() {
+        return fill(createTreeMapHistory());
+    }
+
+    @Benchmark
+    public ChangeHistory addRevisionToRevisionMap() {
+        return fill(ChangeHistoryImpl.createEmptyChangeHistory());
+    }
+
+    @Benchmark
+    public ChangeHistory cropTreeMap() {
+        return ChangeHistoryUtils.crop(treeMapHistory, cropStart, cropEnd);
+    }
+
+    @Benchmark
+    public ChangeHistory cropRevisionMap() {
+        return ChangeHistoryUtils.crop(revisionMapHistory, cropStart, cropEnd);
+    }
+
+    @Benchmark
+    public void iterateTreeMap(Blackhole blackhole) {
+        for (List<OWLOntologyChange> revision : treeMapHistory.getRevisions().values()) {
+            blackhole.consume(revision);
+        }
+    }
+
+    @Benchmark
+    public void iterateRevisionMap(Blackhole blackhole) {
+        for (List<OWLOntologyChange> revision : revisionMapHistory.getRevisions().values()) {
+            blackhole.consume(revision);
+        }
+    }
+
+    private static ChangeHistory createTreeMapHistory() {
+        return ChangeHistoryImpl.recreate(DocumentRevision.START_REVISION, new TreeMap<>(), new TreeMap<>());
+    }
+
+    private ChangeHistory fill(ChangeHistory changeHistory) {
+        for (int i = 0; i < revisionCount; i++) {
+            changeHistory.addRevision(metadata, changes);
+        }
+        return changeHistory;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RevisionMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,105 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+
+public class RevisionMapTest {
+
+    private final DocumentRevision r1 = DocumentRevision.create(1);
+    private final DocumentRevision r2 = DocumentRevision.create(2);
+    private final DocumentRevision r3 = DocumentRevision.create(3);
+    private final DocumentRevision r4 = DocumentRevision.create(4);
+    private final DocumentRevision r5 = DocumentRevision.create(5);
+
+    private RevisionMap<String> revisionMap;
+
+    @Before
+    public void setup() {
+        revisionMap = RevisionMap.create(r1);
+        revisionMap.put(r2, "two");
+        revisionMap.put(r3, "three");
+        revisionMap.put(r4, "four");
+    }
+
+    @Test
+    public void behavesLikeSortedMap() {
+        SortedMap<DocumentRevision, String> expected = new TreeMap<>();
+        expected.put(r2, "two");
+        expected.put(r3, "three");
+        expected.put(r4, "four");
+        assertThat(revisionMap, is(expected));
+        assertThat(revisionMap.hashCode(), is(expected.hashCode()));
+        assertThat(revisionMap.firstKey(), is(r2));
+        assertThat(revisionMap.lastKey(), is(r4));
+        assertThat(revisionMap.get(r1), is(nullValue()));
+        assertThat(revisionMap.values(), contains("two", "three", "four"));
+    }
+
+    @Test
+    public void canTakeSubMapViews() {
+        assertThat(revisionMap.subMap(r3, r5).keySet(), contains(r3, r4));
+        assertThat(revisionMap.headMap(r3).keySet(), contains(r2));
+        assertThat(revisionMap.tailMap(r3).headMap(r4).keySet(), contains(r3));
+        assertThat(revisionMap.tailMap(r5).isEmpty(), is(true));
+        assertThat(revisionMap.headMap(r1).isEmpty(), is(true));
+    }
+
+    @Test
+    public void tailMapFollowsAppendedRevisions() {
+        SortedMap<DocumentRevision, String> tail = revisionMap.tailMap(r4);
+        SortedMap<DocumentRevision, String> slice = revisionMap.subMap(r2, r5);
+        revisionMap.put(r5, "five");
+        assertThat(tail.keySet(), contains(r4, r5));
+        assertThat(slice.size(), is(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotSkipRevision() {
+        revisionMap.put(r5.next(), "six");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cannotReplaceRevision() {
+        revisionMap.put(r3, "another three");
+    }
+
+    @Test
+    public void canAppendOnlyAfterLastRevision() {
+        RevisionMap<String> slice = (RevisionMap<String>) revisionMap.subMap(r2, r5);
+        assertThat(revisionMap.canAppend(r5), is(true));
+        assertThat(slice.canAppend(r5), is(false));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cannotPutIntoImmutableView() {
+        revisionMap.snapshot().put(r5, "five");
+    }
+
+    @Test
+    public void keepsViewsAcrossChunks() {
+        SortedMap<DocumentRevision, String> snapshot = revisionMap.snapshot();
+        for (DocumentRevision current = r5; current.getRevisionNumber() <= 1000; current = current.next()) {
+            revisionMap.put(current, current.toString());
+        }
+        assertThat(revisionMap.size(), is(999));
+        assertThat(revisionMap.get(DocumentRevision.create(1000)), is(DocumentRevision.create(1000).toString()));
+        assertThat(revisionMap.subMap(DocumentRevision.create(256), DocumentRevision.create(260)).size(), is(4));
+        assertThat(snapshot.keySet(), contains(r2, r3, r4));
+    }
+
+    @Test
+    public void sharesRevisionInstances() {
+        assertThat(DocumentRevision.create(42), is(sameInstance(DocumentRevision.create(42))));
+        assertThat(revisionMap.firstKey(), is(sameInstance(r2)));
+    }
+}
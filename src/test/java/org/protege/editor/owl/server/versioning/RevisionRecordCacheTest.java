@@ -0,0 +1,120 @@
+package org.protege.editor.owl.server.versioning;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protege.editor.owl.server.versioning.api.DocumentRevision;
+import org.protege.editor.owl.server.versioning.api.HistoryFile;
+
+public class RevisionRecordCacheTest {
+
+    private final DocumentRevision r1 = DocumentRevision.create(1);
+    private final DocumentRevision r2 = DocumentRevision.create(2);
+    private final DocumentRevision r3 = DocumentRevision.create(3);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HistoryFile historyFile;
+
+    private RevisionRecordCache recordCache;
+
+    @Before
+    public void setup() throws Exception {
+        historyFile = HistoryFile.createNew(folder.getRoot().getAbsolutePath());
+        recordCache = new RevisionRecordCache(100);
+    }
+
+    @Test
+    public void canTransferCachedRecord() throws Exception {
+        byte[] record = { 1, 2, 3, 4, 5 };
+        recordCache.put(historyFile, r1, record, 1, 3);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        assertThat(recordCache.transferRevision(historyFile, r1, os), is(true));
+        assertThat(os.toByteArray(), is(new byte[] { 2, 3, 4 }));
+        assertThat(recordCache.transferRevision(historyFile, r2, os), is(false));
+        assertThat(recordCache.getHitCount(), is(1L));
+        assertThat(recordCache.getMissCount(), is(1L));
+        assertThat(recordCache.getSize(), is(3L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedRecords() {
+        recordCache.put(historyFile, r1, new byte[40], 0, 40);
+        recordCache.put(historyFile, r2, new byte[40], 0, 40);
+        assertThat(recordCache.get(historyFile, r1), is(notNullValue())); // r2 is now the eldest
+        recordCache.put(historyFile, r3, new byte[40], 0, 40);
+        assertThat(recordCache.get(historyFile, r2), is(nullValue()));
+        assertThat(recordCache.get(historyFile, r1), is(notNullValue()));
+        assertThat(recordCache.getSize(), is(80L));
+        assertThat(recordCache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void doesNotCacheRecordLargerThanCapacity() {
+        recordCache.put(historyFile, r1, new byte[101], 0, 101);
+        assertThat(recordCache.getRecordCount(), is(0));
+        assertThat(recordCache.getSize(), is(0L));
+    }
+
+    @Test
+    public void canInvalidateHistoryFile() throws Exception {
+        HistoryFile otherFile = HistoryFile.createNew(folder.newFolder().getAbsolutePath());
+        recordCache.put(historyFile, r1, new byte[10], 0, 10);
+        recordCache.put(otherFile, r1, new byte[20], 0, 20);
+        recordCache.invalidate(historyFile);
+        assertThat(recordCache.get(historyFile, r1), is(nullValue()));
+        assertThat(recordCache.get(otherFile, r1), is(notNullValue()));
+        assertThat(recordCache.getSize(), is(20L));
+    }
+
+    @Test
+    public void canReuseSpaceOfEvictedRecords() {
+        for (int i = 1; i <= 1000; i++) {
+            byte[] record = new byte[30 + i % 7];
+            Arrays.fill(record, (byte) i);
+            recordCache.put(historyFile, DocumentRevision.create(i), record, 0, record.length);
+            assertThat(recordCache.get(historyFile, DocumentRevision.create(i)).get(0), is((byte) i));
+        }
+        assertThat(recordCache.getSize() <= 100, is(true));
+        assertThat(recordCache.getEvictionCount() > 0, is(true));
+    }
+
+    @Test
+    public void doesNotReuseRecordWhileTransferred() throws Exception {
+        byte[] record = new byte[60];
+        Arrays.fill(record, (byte) 7);
+        recordCache.put(historyFile, r1, record, 0, record.length);
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        OutputStream os = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                transferred.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // evicts the record being transferred
+                recordCache.put(historyFile, r2, new byte[60], 0, 60);
+                transferred.write(b, off, len);
+            }
+        };
+        assertThat(recordCache.transferRevision(historyFile, r1, os), is(true));
+        assertThat(transferred.toByteArray(), is(record));
+        assertThat(recordCache.get(historyFile, r1), is(nullValue()));
+
+        recordCache.put(historyFile, r3, new byte[60], 0, 60); // the block of the record is free again
+        assertThat(recordCache.get(historyFile, r3), is(notNullValue()));
+    }
+}